@@ -0,0 +1,22 @@
+package com.spencerbarton.echoexplorer.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a Table class that holds a column of the table. The field must not be private,
+ * final or static, and must be an int, long, float, double or String. Lists are stored in child
+ * tables of their own, see EvaluationTable.
+ *
+ * The generated schema also declares a constant holding the name of each column, e.g.
+ * LESSON_NUMBER for the column "lessonNumber", which queries should use instead of a literal.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Column {
+
+    /** The name of the column in the table. */
+    String value();
+}
@@ -0,0 +1,20 @@
+package com.spencerbarton.echoexplorer.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances are the rows of a database table. The schema processor generates
+ * a <ClassName>Schema class next to it, which maps cursors to rows and rows to insert statements
+ * without reflection. The class must have a constructor without arguments that is not private.
+ * Its columns are the fields annotated with Column.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Table {
+
+    /** The name of the table in the database. */
+    String value();
+}
@@ -0,0 +1,152 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.ComponentCallbacks2;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares the latency of loading the lesson catalog, the lessons and the steps of each lesson,
+ * from the lesson snapshot and from SQLite. A cold load is the first one in the process, so it
+ * includes mapping the snapshot or opening the connection. A warm load reuses them. The results
+ * are logged under the LessonLoadBenchmark tag.
+ */
+public class LessonLoadBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "LessonLoadBenchmark";
+
+    /** The number of cold and of warm loads measured for each backend. */
+    private static final int COLD_RUNS = 10;
+    private static final int WARM_RUNS = 100;
+
+    public void testBackendsAgree() throws IOException {
+        LessonSnapshot snapshot = LessonSnapshot.getInstance(getContext());
+        assertNotNull("The lesson snapshot is missing from the assets", snapshot);
+
+        Lesson[] lessons = loadCatalog(snapshot);
+        Lesson[] sqlLessons = loadCatalog(null);
+        assertEquals(sqlLessons.length, lessons.length);
+
+        for (int i = 0; i < lessons.length; i++) {
+            assertEquals(sqlLessons[i].lessonNumber, lessons[i].lessonNumber);
+            assertEquals(sqlLessons[i].name, lessons[i].name);
+            assertEquals(sqlLessons[i].type, lessons[i].type);
+            assertEquals(sqlLessons[i].description, lessons[i].description);
+
+            int number = lessons[i].lessonNumber;
+            assertTutorialsEqual(loadTutorials(null, number), loadTutorials(snapshot, number));
+            assertEvaluationsEqual(loadEvaluations(null, number),
+                    loadEvaluations(snapshot, number));
+        }
+    }
+
+    public void testLessonLoadLatency() throws IOException {
+        report("snapshot", measure(true), measure(false));
+        report("sqlite", measureSql(true), measureSql(false));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private float[] measure(boolean cold) throws IOException {
+        float[] times = new float[cold ? COLD_RUNS : WARM_RUNS];
+        LessonSnapshot.getInstance(getContext());
+        for (int i = 0; i < times.length; i++) {
+            if (cold) {
+                LessonSnapshot.reset();
+            }
+            long start = System.nanoTime();
+            loadCatalog(LessonSnapshot.getInstance(getContext()));
+            times[i] = (System.nanoTime() - start) / 1e6f;
+        }
+        return times;
+    }
+
+    private float[] measureSql(boolean cold) throws IOException {
+        float[] times = new float[cold ? COLD_RUNS : WARM_RUNS];
+        loadCatalog(null);
+        for (int i = 0; i < times.length; i++) {
+            if (cold) {
+                ConnectionManager.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+            long start = System.nanoTime();
+            loadCatalog(null);
+            times[i] = (System.nanoTime() - start) / 1e6f;
+        }
+        return times;
+    }
+
+    // Loads the lessons and the steps of every lesson, from SQLite if the snapshot is null
+    private Lesson[] loadCatalog(LessonSnapshot snapshot) throws IOException {
+        LessonTable lessonTable = new LessonTable(getContext(), snapshot);
+        Lesson[] lessons = lessonTable.getAllRows();
+        lessonTable.close();
+
+        for (Lesson lesson : lessons) {
+            loadTutorials(snapshot, lesson.lessonNumber);
+            loadEvaluations(snapshot, lesson.lessonNumber);
+        }
+        return lessons;
+    }
+
+    private Tutorial[] loadTutorials(LessonSnapshot snapshot, int lessonNumber)
+            throws IOException
+    {
+        TutorialTable table = new TutorialTable(getContext(), snapshot);
+        Tutorial[] tutorials = table.getAllRows(lessonNumber);
+        table.close();
+        return tutorials;
+    }
+
+    private Evaluation[] loadEvaluations(LessonSnapshot snapshot, int lessonNumber)
+            throws IOException
+    {
+        EvaluationTable table = new EvaluationTable(getContext(), snapshot);
+        Evaluation[] evaluations = table.getAllRows(lessonNumber);
+        table.close();
+        return evaluations;
+    }
+
+    private static void assertTutorialsEqual(Tutorial[] expected, Tutorial[] actual) {
+        assertEquals(expected == null, actual == null);
+        if (expected == null) {
+            return;
+        }
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].stepNumber, actual[i].stepNumber);
+            assertEquals(expected[i].audioDirFile, actual[i].audioDirFile);
+            assertEquals(expected[i].echoFile, actual[i].echoFile);
+            assertEquals(expected[i].textDirections, actual[i].textDirections);
+        }
+    }
+
+    private static void assertEvaluationsEqual(Evaluation[] expected, Evaluation[] actual) {
+        assertEquals(expected == null, actual == null);
+        if (expected == null) {
+            return;
+        }
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].stepNumber, actual[i].stepNumber);
+            assertEquals(expected[i].directionsAudioFile, actual[i].directionsAudioFile);
+            assertEquals(expected[i].echoAudioFile, actual[i].echoAudioFile);
+            assertEquals(expected[i].textDirections, actual[i].textDirections);
+            assertEquals(expected[i].responseOptions, actual[i].responseOptions);
+            assertEquals(expected[i].correctResponse, actual[i].correctResponse);
+        }
+    }
+
+    private static void report(String backend, float[] cold, float[] warm) {
+        Arrays.sort(cold);
+        Arrays.sort(warm);
+        Log.i(TAG, String.format(Locale.US, "%-8s cold p50 %7.2f ms p95 %7.2f ms | " +
+                "warm p50 %7.3f ms p95 %7.3f ms", backend, cold[cold.length / 2],
+                cold[cold.length * 95 / 100], warm[warm.length / 2],
+                warm[warm.length * 95 / 100]));
+    }
+}
@@ -0,0 +1,207 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+
+/**
+ * Checks the lesson_stats rollups that the trigger of LessonStatsTable maintains, and their
+ * rebuild when a version 3 database is upgraded, in an in-memory database.
+ */
+public class LessonStatsTableTest extends AndroidTestCase {
+
+    /** The lesson that the responses are given to. */
+    private static final int LESSON = 3;
+    /** A time in September 2015, when the first response of each test is given. */
+    private static final long START = 1443109011456L;
+    private static final long MINUTE = 60 * 1000;
+
+    private SQLiteDatabase mDatabase;
+    private UserStatsTable mTable;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+
+        // Only used for its schema callbacks, its own database is never opened
+        mTable = new UserStatsTable(getContext(), "LessonStatsTableTest");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testSessionScores() {
+        mTable.onCreate(mDatabase);
+
+        // Every step of the first run is answered correctly
+        long session = START;
+        insert(START, 0, true, session);
+        insert(START + 1000, 1, true, session);
+        insert(START + 2000, 2, true, session);
+
+        LessonStats stats = getLessonStats();
+        assertEquals(3, stats.getSessionScore());
+        assertEquals(3, stats.getBestScore());
+
+        // A second run a minute later is a session of its own, not a continuation of the first
+        session = START + MINUTE;
+        insert(session, 0, true, session);
+        insert(session + 1000, 1, false, session);
+
+        stats = getLessonStats();
+        assertEquals(session, stats.getSessionStart());
+        assertEquals(1, stats.getSessionScore());
+        assertEquals(3, stats.getBestScore());
+        assertEquals(5, stats.getAttempts());
+        assertEquals(4, stats.getCorrect());
+        assertEquals(session + 1000, stats.getLastAttempt());
+    }
+
+    public void testRepeatedCorrectAnswers() {
+        mTable.onCreate(mDatabase);
+
+        // Only the first correct answer to each step of a session scores
+        long session = START;
+        insert(START, 0, true, session);
+        insert(START + 1000, 0, true, session);
+        insert(START + 2000, 0, true, session);
+        insert(START + 3000, 1, false, session);
+        insert(START + 4000, 1, true, session);
+
+        LessonStats stats = getLessonStats();
+        assertEquals(2, stats.getSessionScore());
+        assertEquals(2, stats.getBestScore());
+        assertEquals(5, stats.getAttempts());
+        assertEquals(4, stats.getCorrect());
+        assertEquals(0.8, stats.getAccuracy(), 1e-9);
+    }
+
+    public void testGapFallback() {
+        mTable.onCreate(mDatabase);
+
+        // Responses outside of any session are one session until a gap of SESSION_GAP_MS
+        insert(START, 0, true, UserStats.UNKNOWN);
+        insert(START + 10 * MINUTE, 1, true, UserStats.UNKNOWN);
+
+        LessonStats stats = getLessonStats();
+        assertEquals(START, stats.getSessionStart());
+        assertEquals(2, stats.getSessionScore());
+
+        long next = START + 10 * MINUTE + LessonStatsTable.SESSION_GAP_MS + 1;
+        insert(next, 0, true, UserStats.UNKNOWN);
+
+        stats = getLessonStats();
+        assertEquals(next, stats.getSessionStart());
+        assertEquals(1, stats.getSessionScore());
+        assertEquals(2, stats.getBestScore());
+    }
+
+    public void testUpgradeFromV3() {
+        createV3Tables();
+        insertV3(START, LESSON, 0, true);
+        insertV3(START + 1000, LESSON, 0, true);
+        insertV3(START + 2000, LESSON, 1, false);
+        insertV3(START + 2 * LessonStatsTable.SESSION_GAP_MS, LESSON, 0, true);
+        insertV3(START + 3000, UserStats.UNKNOWN, 0, true);
+
+        // A stale rollup, which the upgrade must replace
+        mDatabase.execSQL("INSERT INTO " + LessonStatsSchema.TABLE + " VALUES (" + LESSON
+                + ", 99, 99, 0, 99, 99, 0, 1.0)");
+
+        mTable.onUpgrade(mDatabase, 3, 4);
+
+        // Every response is kept, outside of any session
+        assertEquals(5, count("SELECT COUNT(*) FROM " + UserStatsSchema.TABLE));
+        assertEquals(5, count("SELECT COUNT(*) FROM " + UserStatsSchema.TABLE + " WHERE "
+                + UserStatsSchema.SESSION + " = " + UserStats.UNKNOWN));
+
+        // The rollups are rebuilt from the responses of known lessons, split by the gap rule
+        assertEquals(1, count("SELECT COUNT(*) FROM " + LessonStatsSchema.TABLE));
+        LessonStats stats = getLessonStats();
+        assertEquals(4, stats.getAttempts());
+        assertEquals(3, stats.getCorrect());
+        assertEquals(START + 2 * LessonStatsTable.SESSION_GAP_MS, stats.getSessionStart());
+        assertEquals(1, stats.getSessionScore());
+        assertEquals(2, stats.getBestScore());
+
+        // The new trigger rolls up the responses recorded after the upgrade
+        long session = START + 3 * LessonStatsTable.SESSION_GAP_MS;
+        insert(session, 0, true, session);
+        stats = getLessonStats();
+        assertEquals(5, stats.getAttempts());
+        assertEquals(session, stats.getSessionStart());
+        assertEquals(1, stats.getSessionScore());
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private void insert(long time, int step, boolean correct, long session) {
+        UserStats response = new UserStats(time, LESSON, step, 0, correct, 100, session);
+        mDatabase.insertOrThrow(UserStatsSchema.TABLE, null,
+                UserStatsSchema.INSTANCE.toContentValues(response));
+    }
+
+    // Creates the tables of version 3, whose responses had no session, with a trigger standing in
+    // for the one of version 3, which the upgrade replaces
+    private void createV3Tables() {
+        mDatabase.execSQL("CREATE TABLE all_response("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "time INTEGER NOT NULL,"
+                + "lessonNumber INTEGER NOT NULL,"
+                + "stepNumber INTEGER NOT NULL,"
+                + "choice INTEGER NOT NULL,"
+                + "correct INTEGER NOT NULL,"
+                + "latency INTEGER NOT NULL" + ")");
+        mDatabase.execSQL("CREATE INDEX all_response_by_lesson ON all_response("
+                + "lessonNumber, time, stepNumber, choice, correct, latency)");
+        mDatabase.execSQL("CREATE INDEX all_response_by_time ON all_response("
+                + "time, lessonNumber, stepNumber, choice, correct, latency)");
+        mDatabase.execSQL("CREATE TABLE lesson_stats("
+                + "lessonNumber INTEGER PRIMARY KEY,"
+                + "attempts INTEGER NOT NULL,"
+                + "correct INTEGER NOT NULL,"
+                + "sessionStart INTEGER NOT NULL,"
+                + "sessionScore INTEGER NOT NULL,"
+                + "bestScore INTEGER NOT NULL,"
+                + "lastAttempt INTEGER NOT NULL,"
+                + "accuracy REAL NOT NULL" + ")");
+        mDatabase.execSQL("CREATE TRIGGER lesson_stats_on_response AFTER INSERT ON all_response "
+                + "BEGIN UPDATE lesson_stats SET attempts = attempts + 1; END");
+    }
+
+    private void insertV3(long time, int lesson, int step, boolean correct) {
+        mDatabase.execSQL("INSERT INTO all_response(time, lessonNumber, stepNumber, choice, "
+                + "correct, latency) VALUES (?, ?, ?, 0, ?, 100)",
+                new Object[] {time, lesson, step, correct ? 1 : 0});
+    }
+
+    private LessonStats getLessonStats() {
+        Cursor cursor = mDatabase.rawQuery("SELECT "
+                + TextUtils.join(", ", LessonStatsSchema.INSTANCE.getColumns()) + " FROM "
+                + LessonStatsSchema.TABLE + " WHERE " + LessonStatsSchema.LESSON_NUMBER + " = ?",
+                new String[] {String.valueOf(LESSON)});
+        try {
+            assertTrue(cursor.moveToFirst());
+            return LessonStatsSchema.INSTANCE.newRowMapper(cursor).mapRow(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int count(String query) {
+        Cursor cursor = mDatabase.rawQuery(query, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
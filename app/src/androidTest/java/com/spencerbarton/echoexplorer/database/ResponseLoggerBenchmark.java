@@ -0,0 +1,79 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Compares recording responses one at a time with UserStatsTable.add(), which opens, writes and
+ * closes the database for every response, with the ResponseLogger, which queues them and writes
+ * them in batches on its own thread. For the logger, both the time that callers spend queueing a
+ * response and the time until every response is on disk are reported. The responses go to a
+ * scratch database, and the results are logged under the ResponseLoggerBenchmark tag.
+ */
+public class ResponseLoggerBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "ResponseLoggerBenchmark";
+
+    /** The scratch database that the responses are written to. */
+    private static final String DB_NAME = "ResponseLoggerBenchmark";
+    /** The number of responses recorded by each path. */
+    private static final int RESPONSES = 500;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DB_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    public void testThroughput() throws InterruptedException {
+        UserStatsTable table = new UserStatsTable(getContext(), DB_NAME);
+        long start = System.nanoTime();
+        for (int i = 0; i < RESPONSES; i++) {
+            table.add(new UserStats(i, i % 5, i % 10, i % 3, i % 3 == 0, 100 + i));
+        }
+        long perRowNanos = System.nanoTime() - start;
+        assertEquals(RESPONSES, table.getCount());
+        table.close();
+        getContext().deleteDatabase(DB_NAME);
+
+        table = new UserStatsTable(getContext(), DB_NAME);
+        ResponseLogger logger = new ResponseLogger(table);
+        start = System.nanoTime();
+        for (int i = 0; i < RESPONSES; i++) {
+            logger.log(new UserStats(i, i % 5, i % 10, i % 3, i % 3 == 0, 100 + i));
+        }
+        long queueNanos = System.nanoTime() - start;
+        logger.flushAndWait();
+        long loggerNanos = System.nanoTime() - start;
+        logger.shutdown();
+
+        table = new UserStatsTable(getContext(), DB_NAME);
+        assertEquals(RESPONSES, table.getCount());
+        table.close();
+
+        Log.i(TAG, String.format(Locale.US, "per-row  %8.1f responses/s, %8.3f ms/response",
+                rate(perRowNanos), perRowNanos / 1e6 / RESPONSES));
+        Log.i(TAG, String.format(Locale.US, "logger   %8.1f responses/s, %8.3f ms/response " +
+                "queued in %.4f ms/response", rate(loggerNanos), loggerNanos / 1e6 / RESPONSES,
+                queueNanos / 1e6 / RESPONSES));
+        Log.i(TAG, String.format(Locale.US, "logger   %d flushes, max queue depth %d, " +
+                "max flush %.2f ms", logger.getFlushCount(), logger.getMaxQueueDepth(),
+                logger.getMaxFlushMillis()));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private static double rate(long nanos) {
+        return RESPONSES / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,133 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Compares the per-row cost of packing a cursor into Tutorial objects by column name, parsing the
+ * numbers from strings, as packRow used to, with the RowMapper of TutorialTable, which resolves
+ * the column indexes once and reads typed values. The rows come from a synthetic in-memory
+ * TutorialStep table. The results are logged under the RowMappingBenchmark tag.
+ */
+public class RowMappingBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "RowMappingBenchmark";
+
+    /** The number of rows in the synthetic table. */
+    private static final int ROWS = 100000;
+    /** The number of passes over the table, the fastest of which is reported. */
+    private static final int PASSES = 3;
+
+    private static final String CREATE_TABLE = "CREATE TABLE TutorialStep(" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, lessonNumber INTEGER NOT NULL, " +
+            "stepNumber INTEGER NOT NULL, directionsAudioFile TEXT NOT NULL, " +
+            "echoAudioFile TEXT NOT NULL, textDirections TEXT NOT NULL)";
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL(CREATE_TABLE);
+
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO TutorialStep(" +
+                "lessonNumber, stepNumber, directionsAudioFile, echoAudioFile, textDirections) " +
+                "VALUES (?, ?, ?, ?, ?)");
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                insert.bindLong(1, i / 100);
+                insert.bindLong(2, i % 100);
+                insert.bindString(3, "dir_sound_" + (i % 7));
+                insert.bindString(4, "synth:dist=" + (i % 5) + ",angle=" + (i % 360) + ",click=0");
+                insert.bindString(5, "You will hear a sound to your left.");
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            insert.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testRowMappingCost() throws IOException {
+        TutorialTable table = new TutorialTable(getContext(),
+                LessonSnapshot.getInstance(getContext()));
+        try {
+            float iterate = Float.MAX_VALUE;
+            float byName = Float.MAX_VALUE;
+            float mapper = Float.MAX_VALUE;
+            for (int pass = 0; pass < PASSES; pass++) {
+                iterate = Math.min(iterate, measure(null));
+                byName = Math.min(byName, measureByName());
+                mapper = Math.min(mapper, measure(table));
+            }
+
+            Log.i(TAG, String.format(Locale.US, "%d rows, per row: cursor only %.0f ns, " +
+                    "by name %.0f ns, row mapper %.0f ns", ROWS, iterate, byName, mapper));
+        } finally {
+            table.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Maps every row with the table's row mapper, or only walks the cursor if table is null
+    private float measure(TutorialTable table) {
+        Cursor cursor = mDatabase.rawQuery("SELECT * FROM TutorialStep", null);
+        try {
+            long start = System.nanoTime();
+            Database.RowMapper<Tutorial> mapper = (table == null) ? null :
+                    table.newRowMapper(cursor);
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                if (mapper != null) {
+                    assertNotNull(mapper.mapRow(cursor));
+                }
+                rows++;
+            }
+            assertEquals(ROWS, rows);
+            return (System.nanoTime() - start) / (float) ROWS;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Maps every row the way packRow did before the row mappers
+    private float measureByName() {
+        Cursor cursor = mDatabase.rawQuery("SELECT * FROM TutorialStep", null);
+        try {
+            long start = System.nanoTime();
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                Tutorial tutorial = new Tutorial(
+                        Integer.parseInt(Database.getColumnByName(cursor, "lessonNumber")),
+                        Integer.parseInt(Database.getColumnByName(cursor, "stepNumber")),
+                        Database.getColumnByName(cursor, "directionsAudioFile"),
+                        Database.getColumnByName(cursor, "echoAudioFile"),
+                        Database.getColumnByName(cursor, "textDirections"));
+                assertNotNull(tutorial);
+                rows++;
+            }
+            assertEquals(ROWS, rows);
+            return (System.nanoTime() - start) / (float) ROWS;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks UserStatsTable.migrateToV2() against version 1 tables built in an in-memory database.
+ * Version 1 keyed each response by (int) System.currentTimeMillis(), so the tests record their
+ * times the same way and expect the full times back.
+ */
+public class UserStatsMigrationTest extends AndroidTestCase {
+
+    /** The period of the version 1 timestamps, which kept only their low 32 bits. */
+    private static final long PERIOD = 1L << 32;
+    /** The start of a period, in September 2015. */
+    private static final long BOUNDARY = 336 * PERIOD;
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL("CREATE TABLE all_response("
+                + "time INTEGER PRIMARY KEY,"
+                + "step INTEGER,"
+                + "response TEXT" + ")");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testNegativeTimestamps() {
+        // Times in the upper half of a period were stored as negative ints
+        long now = BOUNDARY + 0xC0000000L;
+        long[] times = {now - 60000, now - 1000};
+        for (long time : times) {
+            assertTrue((int) time < 0);
+            insertV1(time, 1, "0");
+        }
+
+        UserStatsTable.migrateToV2(mDatabase, now);
+        assertTimes(times);
+    }
+
+    public void testWrapAround() {
+        // The low bits of the first response are past those of now, so it is from the previous
+        // period, while the others are from the period of now, up to now itself
+        long now = BOUNDARY + 60000;
+        long[] times = {BOUNDARY - 30000, BOUNDARY + 30000, now};
+        for (long time : times) {
+            insertV1(time, 1, "0");
+        }
+
+        UserStatsTable.migrateToV2(mDatabase, now);
+        assertTimes(times);
+    }
+
+    public void testResponseParsing() {
+        long now = BOUNDARY + 60000;
+        insertV1(now - 4, 3, "2");
+        insertV1(now - 3, 4, "0");
+        insertV1(now - 2, 5, "abc");
+        insertV1(now - 1, 6, null);
+
+        UserStatsTable.migrateToV2(mDatabase, now);
+
+        int[][] expected = {{3, 2}, {4, 0}, {5, UserStats.UNKNOWN}, {6, UserStats.UNKNOWN}};
+        Cursor cursor = queryV2();
+        try {
+            assertEquals(expected.length, cursor.getCount());
+            for (int[] row : expected) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(UserStats.UNKNOWN, cursor.getInt(1));  // Lesson
+                assertEquals(row[0], cursor.getInt(2));             // Step
+                assertEquals(row[1], cursor.getInt(3));             // Choice
+                assertEquals(UserStats.UNKNOWN, cursor.getInt(4));  // Correct
+                assertEquals(UserStats.UNKNOWN, cursor.getLong(5)); // Latency
+                assertEquals(UserStats.UNKNOWN, cursor.getLong(6)); // Session
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Records a response as version 1 did, keyed by the low 32 bits of its time
+    private void insertV1(long time, int step, String response) {
+        mDatabase.execSQL("INSERT INTO all_response(time, step, response) VALUES (?, ?, ?)",
+                new Object[] {(int) time, step, response});
+    }
+
+    private Cursor queryV2() {
+        return mDatabase.rawQuery("SELECT time, lessonNumber, stepNumber, choice, correct, "
+                + "latency, session FROM all_response ORDER BY _id", null);
+    }
+
+    // Asserts that the migrated responses have the given times, in order
+    private void assertTimes(long[] times) {
+        Cursor cursor = queryV2();
+        try {
+            assertEquals(times.length, cursor.getCount());
+            for (long time : times) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(time, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
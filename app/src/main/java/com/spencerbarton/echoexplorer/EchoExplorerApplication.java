@@ -0,0 +1,42 @@
+package com.spencerbarton.echoexplorer;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+
+import com.spencerbarton.echoexplorer.database.ConnectionManager;
+import com.spencerbarton.echoexplorer.database.DatabaseExecutor;
+import com.spencerbarton.echoexplorer.database.DatabaseInstaller;
+import com.spencerbarton.echoexplorer.database.LessonRepository;
+import com.spencerbarton.echoexplorer.database.ResponseLogger;
+
+// Process-wide hooks, loads the lessons at startup, cancels the database requests of destroyed
+// activities, and closes the databases and writes the queued
+// responses when trimmed
+public class EchoExplorerApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Install and load the lessons off the main thread, the first screen waits for them
+        DatabaseInstaller.installAsync(this, DatabaseInstaller.LESSON_DATABASE);
+        LessonRepository.getInstance(this).load();
+
+        // Cancel the pending database requests of each activity once it is destroyed
+        DatabaseExecutor.install(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ConnectionManager.trim(level);
+        ResponseLogger.getInstance(this).trim(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        ConnectionManager.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        ResponseLogger.getInstance(this).trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+}
@@ -0,0 +1,81 @@
+package com.spencerbarton.echoexplorer;
+
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.spencerbarton.echoexplorer.database.Evaluation;
+import com.spencerbarton.echoexplorer.database.LessonRepository;
+import com.spencerbarton.echoexplorer.database.ResponseLogger;
+import com.spencerbarton.echoexplorer.database.UserStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Plays the steps of evaluations in the LessonPlayerActivity, and records the responses
+class EvaluationPage extends LessonPage<Evaluation> implements StepEngine.OnChoiceListener {
+
+    private static final String CORRECT_ANSWER = "Correct";
+    private static final String INCORRECT_ANSWER = "Incorrect - try again";
+    private final ResponseLogger mResponseLogger;
+    // The session of the responses, started whenever a lesson is loaded
+    private long mSession = UserStats.UNKNOWN;
+    // Shows the feedback on each choice, created with the first one
+    private Toast mToast;
+
+    public EvaluationPage(LessonPlayerActivity player) {
+        super(player, R.layout.view_evaluation);
+        mResponseLogger = ResponseLogger.getInstance(player);
+
+        TextView directionsView = (TextView) mView.findViewById(R.id.evaluation_directions);
+        ViewGroup choiceGroup = (ViewGroup) mView.findViewById(R.id.eval_choice_btn_grp);
+        setEngine(new StepEngine(player, directionsView, choiceGroup, this));
+    }
+
+    @Override
+    protected List<Evaluation> loadSteps(int lessonNumber) throws IOException {
+
+        // Get sorted steps, copied as they are shuffled
+        List<Evaluation> steps = new ArrayList<>(
+                LessonRepository.getInstance(mPlayer).getEvaluations(lessonNumber));
+
+        // Randomize steps order
+        Collections.shuffle(steps);
+
+        // Each run of the evaluation is a session of its own
+        mSession = System.currentTimeMillis();
+        return steps;
+    }
+
+    @Override
+    protected LessonStep describe(Evaluation stepData, PlayAudioService service) {
+        return LessonStep.fromEvaluation(stepData, service);
+    }
+
+    @Override
+    public void onChoice(LessonStep step, int choice, long latency) {
+        boolean correct = choice == step.correctChoice;
+        UserStats response = new UserStats(System.currentTimeMillis(), step.lessonNumber,
+                step.stepNumber, choice, correct, latency, mSession);
+        mResponseLogger.log(response);
+
+        if (correct) {
+            toast(CORRECT_ANSWER);
+            goToNextStep();
+        } else {
+            toast(INCORRECT_ANSWER);
+        }
+    }
+
+    private void toast(String msg) {
+        if (mToast == null) {
+            mToast = Toast.makeText(mPlayer.getApplicationContext(), msg, Toast.LENGTH_SHORT);
+        } else {
+            mToast.setText(msg);
+        }
+        mToast.show();
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.spencerbarton.echoexplorer;
+
+import android.os.Bundle;
+import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.spencerbarton.echoexplorer.audio.LatencyMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Debug screen showing the tap-to-sound latencies of this session
+public class LatencyActivity extends ActionBarActivity {
+
+    private final static String TAG = "LatencyActivity";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_latency);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_latency, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.export_latency:
+                exportSamples();
+                break;
+            case R.id.reset_latency:
+                LatencyMonitor.getInstance().reset();
+                showReport();
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+        return true;
+    }
+
+    private void showReport() {
+        TextView report = (TextView) findViewById(R.id.latency_report);
+        report.setText(LatencyMonitor.getInstance().getReport());
+    }
+
+    // Write the samples to a CSV file in the app's external files, or internal if not mounted
+    private void exportSamples() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "latency-" + stamp + ".csv");
+
+        try {
+            LatencyMonitor.getInstance().export(file);
+            Toast.makeText(this, getString(R.string.latency_exported, file.getAbsolutePath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            Toast.makeText(this, R.string.latency_export_failed, Toast.LENGTH_LONG).show();
+        }
+    }
+}
@@ -5,13 +5,16 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.spencerbarton.echoexplorer.database.Lesson;
-import com.spencerbarton.echoexplorer.database.LessonTable;
+import com.spencerbarton.echoexplorer.database.LessonRepository;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This object is intended to aid with moving between tutorials and evaluations in order to abstract
- *  this structure away from the activities
+ *  this structure away from the activities. Lessons are played in the LessonPlayerActivity, which
+ *  swaps them in place
  *
  * TODO deal with invalid ids
  *
@@ -22,10 +25,10 @@ public class LessonManager implements LessonManagerStarter{
     public static final String EXTRA_LESSON_NUMBER = "com.spencerbarton.echoexplorer.EXTRA_LESSON_NUMBER";
     public static final String EXTRA_LESSON_NAME = "com.spencerbarton.echoexplorer.EXTRA_LESSON_NAME";
     private static final String TAG = "ActivityManager";
-    private LessonTable mTutorialEvaluationsTable;
     private Context mContext;
     private int mLessonNumber;
-    private Lesson[] mLessons;
+    private LessonRepository mRepository;
+    private List<Lesson> mLessons = Collections.emptyList();
 
     public LessonManager(Context context) {
         this(context, -1);
@@ -35,10 +38,10 @@ public class LessonManager implements LessonManagerStarter{
         mContext = context;
         mLessonNumber = lessonNumber;
 
-        // Load table data
+        // Lessons are shared in memory, only the first manager may wait for them to load
+        mRepository = LessonRepository.getInstance(context);
         try {
-            mTutorialEvaluationsTable = new LessonTable(context);
-            mLessons = mTutorialEvaluationsTable.getAllRows();
+            mLessons = mRepository.getLessons();
         } catch (IOException e) {
             // Error so go home
             // TODO better idea
@@ -50,6 +53,9 @@ public class LessonManager implements LessonManagerStarter{
     public void goHome() {
         Intent intent = new Intent(mContext, LessonsMenuActivity.class);
         intent.putExtra(EXTRA_LESSON_NUMBER, mLessonNumber);
+
+        // Return to the menu below the player, closing it, rather than stacking another menu
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
         mContext.startActivity(intent);
     }
 
@@ -66,7 +72,7 @@ public class LessonManager implements LessonManagerStarter{
         if (i < 0) {
             goHome();
         } else {
-            goToLesson(mLessons[i]);
+            goToLesson(mLessons.get(i));
         }
     }
 
@@ -81,18 +87,18 @@ public class LessonManager implements LessonManagerStarter{
 
     // Find given lesson index
     private int findLessonIndex(int lessonNumber) {
-        for (int i = 0; i < mLessons.length; i++) {
-            if (mLessons[i].lessonNumber == lessonNumber) {
-                return i;
-            }
+        try {
+            return mRepository.getLessonIndex(lessonNumber);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            return -1;
         }
-        return -1;
     }
 
     private Lesson findNextLesson() {
         int i = findLessonIndex();
-        if ((0 <= i) && (i < (mLessons.length-1))) {
-            return mLessons[i+1];
+        if ((0 <= i) && (i < (mLessons.size()-1))) {
+            return mLessons.get(i+1);
         }
         return null;
     }
@@ -100,22 +106,25 @@ public class LessonManager implements LessonManagerStarter{
     private Lesson findPrevLesson() {
         int i = findLessonIndex();
         if (0 < i) {
-            return mLessons[i-1];
+            return mLessons.get(i-1);
         }
         return null;
     }
 
     private void goToLesson(Lesson lesson) {
         if (lesson != null) {
+            mLessonNumber = lesson.lessonNumber;
 
-            // Pick which activity type to instantiate
-            Intent intent;
-            if (lesson.isTutorial()) {
-                intent = new Intent(mContext, TutorialActivity.class);
-            } else {
-                intent = new Intent(mContext, EvaluationActivity.class);
+            // Swap the lesson in place when already in the player
+            if (mContext instanceof LessonHost) {
+                ((LessonHost) mContext).showLesson(lesson);
+                return;
             }
 
+            // Otherwise start the player, reusing it if it is already running
+            Intent intent = new Intent(mContext, LessonPlayerActivity.class);
+            intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+
             // Add some activity info
             intent.putExtra(EXTRA_LESSON_NUMBER, lesson.lessonNumber);
             intent.putExtra(EXTRA_LESSON_NAME, lesson.name);
@@ -135,3 +144,11 @@ public class LessonManager implements LessonManagerStarter{
 interface LessonManagerStarter {
     public void goToLesson(int lessonNumber);
 }
+
+//----------------------------------------------------------------------------------------------
+// Interface for the lesson player, which shows lessons without starting activities
+//----------------------------------------------------------------------------------------------
+
+interface LessonHost {
+    public void showLesson(Lesson lesson);
+}
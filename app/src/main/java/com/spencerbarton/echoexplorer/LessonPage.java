@@ -0,0 +1,147 @@
+package com.spencerbarton.echoexplorer;
+
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A lesson page shows the steps of a lesson inside the LessonPlayerActivity. The player keeps one
+ * page of each lesson type, whose view is inflated once and reused by every lesson of that type,
+ * so moving between lessons only swaps the steps that the page plays.
+ *
+ * Subclasses read the steps of a lesson and describe each of them as a LessonStep, which their
+ * StepEngine plays through the player's audio service.
+ */
+abstract class LessonPage<S> {
+
+    private static final String TAG = "LessonPage";
+
+    protected final LessonPlayerActivity mPlayer;
+    protected final View mView;
+    private List<S> mStepsData = Collections.emptyList();
+    private StepEngine mEngine;
+    private boolean mBegun = false;
+    private long mEchoTouchTime = 0; // Uptime of the last press on the echo button
+
+    //----------------------------------------------------------------------------------------------
+    // Startup
+    //----------------------------------------------------------------------------------------------
+
+    protected LessonPage(LessonPlayerActivity player, int layout) {
+        mPlayer = player;
+        mView = LayoutInflater.from(player).inflate(layout, null);
+
+        // Note when the echo button is pressed, to measure the latency until the echo is heard
+        mView.findViewById(R.id.echo_btn).setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent event) {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                    mEchoTouchTime = event.getEventTime();
+                }
+                return false;
+            }
+        });
+    }
+
+    // Subclasses set the engine that plays their steps once their views are found
+    protected void setEngine(StepEngine engine) {
+        mEngine = engine;
+    }
+
+    public View getView() {
+        return mView;
+    }
+
+    // Reads the steps of the lesson, false if it has none or they could not be read
+    public boolean load(int lessonNumber) {
+        mBegun = false;
+        mStepsData = Collections.emptyList();
+        try {
+            mStepsData = loadSteps(lessonNumber);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            return false;
+        }
+
+        if (mStepsData.isEmpty()) {
+            Log.e(TAG, "No steps for lesson " + lessonNumber);
+            return false;
+        }
+        return true;
+    }
+
+    // Begins the first step of the loaded lesson, requires the bound audio service
+    public void begin(PlayAudioService service) {
+        if (mStepsData.isEmpty()) {
+            return;
+        }
+
+        // Describe every step up front, so moving between them only rebinds the views
+        List<LessonStep> steps = new ArrayList<>(mStepsData.size());
+        for (S step : mStepsData) {
+            steps.add(describe(step, service));
+        }
+        mEngine.setSteps(steps, service);
+        mBegun = true;
+
+        // Begin first step
+        mEngine.play(0);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Handlers
+    //----------------------------------------------------------------------------------------------
+
+    public void onEchoBtn() {
+
+        // Clicks without a touch (e.g. from accessibility services) are not measured
+        if (mBegun) {
+            mEngine.onEchoBtn(mEchoTouchTime);
+        }
+        mEchoTouchTime = 0;
+    }
+
+    public void goToPrevStep() {
+        if (!mBegun) {
+            return;
+        }
+        int prevStep = mEngine.getCurStep() - 1;
+
+        // Go to prev lesson because done with steps
+        if (prevStep < 0) {
+            mPlayer.getLessonManager().goPrev();
+        } else {
+            mEngine.play(prevStep);
+        }
+    }
+
+    public void goToNextStep() {
+        if (!mBegun) {
+            return;
+        }
+        int nextStep = mEngine.getCurStep() + 1;
+
+        // Go to next lesson because done with steps
+        if (nextStep >= mEngine.getStepCount()) {
+            mPlayer.getLessonManager().goNext();
+        } else {
+            mEngine.play(nextStep);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Steps
+    //----------------------------------------------------------------------------------------------
+
+    // The steps of the lesson, in the order they are played
+    protected abstract List<S> loadSteps(int lessonNumber) throws IOException;
+
+    // Describes a step for the engine, resolving its audio through the service
+    protected abstract LessonStep describe(S stepData, PlayAudioService service);
+}
@@ -0,0 +1,288 @@
+package com.spencerbarton.echoexplorer;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.preference.PreferenceManager;
+import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.spencerbarton.echoexplorer.database.Lesson;
+import com.spencerbarton.echoexplorer.database.ResponseLogger;
+
+/**
+ * Plays every lesson of the course in one activity. Moving to the next or previous lesson swaps
+ * the lesson shown by this activity instead of starting a new one, so the back stack, the audio
+ * service binding and the lesson pages stay the same however many lessons are visited. There is
+ * one page per lesson type, created when the first lesson of that type is shown (see LessonPage).
+ *
+ * The player is started by the LessonManager with the number of the lesson to play, and returns
+ * to the lessons menu below it when going home.
+ */
+public class LessonPlayerActivity extends ActionBarActivity implements
+        SwipeGestureDetector.SwipeGestureHandler, LessonHost {
+
+    private final static String TAG = "LessonPlayerActivity";
+    private SwipeGestureDetector mSwipeGestureDetector;
+    private LessonManager mLessonManager;
+    private ViewGroup mLessonContainer;
+    private String mLessonName = "";
+
+    // The pages of each lesson type, reused by every lesson of the type
+    private TutorialPage mTutorialPage;
+    private EvaluationPage mEvaluationPage;
+    // The page of the lesson being played, null until a lesson is shown
+    private LessonPage<?> mPage;
+    // Whether steps play their directions aloud, kept up to date by mPrefListener
+    private boolean mAudioDirectionsEnabled = false;
+
+    //----------------------------------------------------------------------------------------------
+    // Startup
+    //----------------------------------------------------------------------------------------------
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_lesson_player);
+        mLessonContainer = (ViewGroup) findViewById(R.id.lesson_container);
+
+        // Add gesture recognition
+        mSwipeGestureDetector = new SwipeGestureDetector(this, this);
+
+        onCreateAudio();
+
+        // Follow the settings while the player is alive, so steps never read them
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        mAudioDirectionsEnabled = sharedPref.getBoolean(SettingsActivity.KEY_PREF_AUDIO_DIR, false);
+        sharedPref.registerOnSharedPreferenceChangeListener(mPrefListener);
+
+        // Add lesson movement management, which shows lessons in this activity
+        int lessonNumber = getIntent().getIntExtra(LessonManager.EXTRA_LESSON_NUMBER, -1);
+        mLessonManager = new LessonManager(this, lessonNumber);
+        mLessonManager.goToLesson(lessonNumber);
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+
+        // Started again from the menu, play the lesson asked for
+        mLessonManager.goToLesson(intent.getIntExtra(LessonManager.EXTRA_LESSON_NUMBER, -1));
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        onStartAudio();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        onStopAudio();
+
+        // Write the responses of this session before the process can be killed
+        ResponseLogger.getInstance(this).flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(mPrefListener);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+
+        // Inflate the menu; this adds items to the action bar if it is present.
+        getMenuInflater().inflate(R.menu.menu_generic, menu);
+        setTitle(mLessonName);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+
+        if (id == R.id.action_settings) {
+            Intent intent = new Intent(this, SettingsActivity.class);
+            startActivity(intent);
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return mSwipeGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Lessons
+    //----------------------------------------------------------------------------------------------
+
+    @Override
+    public void showLesson(Lesson lesson) {
+        LessonPage<?> page = lesson.isTutorial() ? getTutorialPage() : getEvaluationPage();
+
+        // Swap the page in only if the lesson type changed
+        if (page != mPage) {
+            mLessonContainer.removeAllViews();
+            mLessonContainer.addView(page.getView());
+            mPage = page;
+        }
+
+        mLessonName = lesson.name;
+        setTitle(mLessonName);
+
+        // Leave the player if the lesson cannot be played
+        if (!page.load(lesson.lessonNumber)) {
+            mLessonManager.goHome();
+            return;
+        }
+
+        // Otherwise begins once the audio service is bound
+        if (mIsBound) {
+            page.begin(mService);
+        }
+    }
+
+    LessonManager getLessonManager() {
+        return mLessonManager;
+    }
+
+    boolean isAudioDirectionsEnabled() {
+        return mAudioDirectionsEnabled;
+    }
+
+    private TutorialPage getTutorialPage() {
+        if (mTutorialPage == null) {
+            mTutorialPage = new TutorialPage(this);
+        }
+        return mTutorialPage;
+    }
+
+    private EvaluationPage getEvaluationPage() {
+        if (mEvaluationPage == null) {
+            mEvaluationPage = new EvaluationPage(this);
+        }
+        return mEvaluationPage;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Handlers
+    //----------------------------------------------------------------------------------------------
+
+    public void onEchoBtn(View view) {
+        if (mPage != null) {
+            mPage.onEchoBtn();
+        }
+    }
+
+    @Override
+    public void onSwipeRight() {
+        if (mPage != null) {
+            mPage.goToPrevStep();
+        }
+    }
+
+    @Override
+    public void onSwipeLeft() {
+        if (mPage != null) {
+            mPage.goToNextStep();
+        }
+    }
+
+    @Override
+    public void onSwipeUp() {
+
+        // Do nothing
+        Log.i(TAG, "UP");
+    }
+
+    @Override
+    public void onSwipeDown() {
+        mLessonManager.goHome();
+    }
+
+    public void onPrevBtn(View view) {
+        onSwipeRight();
+    }
+
+    public void onNextBtn(View view) {
+        onSwipeLeft();
+    }
+
+    private SharedPreferences.OnSharedPreferenceChangeListener mPrefListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPref, String key) {
+            if (SettingsActivity.KEY_PREF_AUDIO_DIR.equals(key)) {
+                mAudioDirectionsEnabled = sharedPref.getBoolean(key, false);
+            }
+        }
+    };
+
+    //----------------------------------------------------------------------------------------------
+    // PlayAudioService
+    //----------------------------------------------------------------------------------------------
+
+    // One binding for every lesson played
+    private PlayAudioService mService;
+    private boolean mIsBound = false;
+    private ServiceConnection mConnection = new ServiceConnection() {
+
+        @Override
+        public void onServiceConnected(ComponentName className, IBinder service) {
+            // We've bound to LocalService, cast the IBinder and get LocalService instance
+            PlayAudioService.PlayAudioBinder binder = (PlayAudioService.PlayAudioBinder) service;
+            mService = binder.getService();
+            mIsBound = true;
+
+            // Begin the lesson shown while the service was bound
+            if (mPage != null) {
+                mPage.begin(mService);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName arg0) {
+            mIsBound = false;
+        }
+    };
+
+    private void onCreateAudio() {
+        // Setup audio volume controls, note only called once
+        setVolumeControlStream(AudioManager.STREAM_MUSIC);
+    }
+
+    private void onStartAudio() {
+
+        // Bind audio service
+        Intent intent = new Intent(this, PlayAudioService.class);
+        bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    private void onStopAudio() {
+        // Unbind audio service (will kill it as this is the only binding activity)
+        if (mIsBound) {
+            Log.i(TAG, "Audio prefetch hits: " + mService.getPrefetchHits() + ", misses: " +
+                    mService.getPrefetchMisses());
+            unbindService(mConnection);
+            mIsBound = false;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.spencerbarton.echoexplorer;
+
+import com.spencerbarton.echoexplorer.database.Evaluation;
+import com.spencerbarton.echoexplorer.database.Tutorial;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a single step of a lesson for the StepEngine: the directions to show and play, the
+ * echo, and for evaluation steps the choices and which of them is correct. Tutorial and evaluation
+ * steps only differ in their description, which is built once when a lesson begins, with its audio
+ * already resolved, so that playing a step reads nothing else.
+ */
+final class LessonStep {
+
+    // The correct choice of a step without choices
+    static final int NO_CHOICE = -1;
+
+    final int lessonNumber;
+    final int stepNumber;
+    final String textDirections;
+    final int directionsAudio;
+    final int echoAudio;
+    // The directions and the echo, to prefetch them together
+    final int[] audio;
+    final List<String> choices;
+    final int correctChoice;
+
+    private LessonStep(int lessonNumber, int stepNumber, String textDirections,
+                       int directionsAudio, int echoAudio, List<String> choices,
+                       int correctChoice) {
+        this.lessonNumber = lessonNumber;
+        this.stepNumber = stepNumber;
+        this.textDirections = textDirections;
+        this.directionsAudio = directionsAudio;
+        this.echoAudio = echoAudio;
+        this.audio = new int[] {directionsAudio, echoAudio};
+        this.choices = choices;
+        this.correctChoice = correctChoice;
+    }
+
+    static LessonStep fromTutorial(Tutorial step, PlayAudioService service) {
+
+        // Get resource ids, echoes may also be synthetic
+        return new LessonStep(step.lessonNumber, step.stepNumber, step.textDirections,
+                service.resolveAudio(step.audioDirFile), service.resolveAudio(step.echoFile),
+                Collections.<String>emptyList(), NO_CHOICE);
+    }
+
+    static LessonStep fromEvaluation(Evaluation step, PlayAudioService service) {
+        return new LessonStep(step.lessonNumber, step.stepNumber, step.textDirections,
+                service.resolveAudio(step.directionsAudioFile),
+                service.resolveAudio(step.echoAudioFile), step.responseOptions,
+                step.correctResponse);
+    }
+}
@@ -5,6 +5,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.ActionBarActivity;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -16,17 +17,17 @@ import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import com.spencerbarton.echoexplorer.database.DatabaseExecutor;
 import com.spencerbarton.echoexplorer.database.Lesson;
-import com.spencerbarton.echoexplorer.database.LessonTable;
+import com.spencerbarton.echoexplorer.database.LessonRepository;
+import com.spencerbarton.echoexplorer.database.LessonStats;
+import com.spencerbarton.echoexplorer.database.LessonStatsTable;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
 
 // TODO add support for database object
 // TODO support tutorial desciption
-// TODO show tutorial completion/best score on eval
-// TODO checker to ensure all tutorial audio is present and named correctly (no extension)
 
 public class LessonsMenuActivity extends ActionBarActivity {
 
@@ -34,6 +35,10 @@ public class LessonsMenuActivity extends ActionBarActivity {
     private static final int EVALUATION_COLOR = R.color.gray8;
     private static final int TUTORIAL_COLOR = R.color.gray7;
 
+    // The progress in each lesson, read from the rollups when the menu is shown
+    private SparseArray<LessonStats> mLessonStats = new SparseArray<>();
+    private LessonAdapter mAdapter;
+
     //----------------------------------------------------------------------------------------------
     // Startup
     //----------------------------------------------------------------------------------------------
@@ -45,20 +50,50 @@ public class LessonsMenuActivity extends ActionBarActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_lessons_menu);
 
-        try {
+        // Load all tutorials and evaluation names, already in memory after the first time
+        LessonRepository.getInstance(this).whenLoaded(new LessonRepository.OnLoadedListener() {
+            @Override
+            public void onLessonsLoaded(LessonRepository repository) {
+                if (!isFinishing()) {
+                    try {
+                        populateListView(repository.getLessons());
+                    } catch (IOException e) {
+                        onLessonsFailed(e);
+                    }
+                }
+            }
 
-            // Load all tutorials and evaluation names
-            LessonTable lessonTable = new LessonTable(this);
-            Lesson[] lessons = lessonTable.getAllRows();
-            populateListView(Arrays.asList(lessons));
+            @Override
+            public void onLessonsFailed(IOException error) {
 
-        } catch (IOException e) {
+                // Error so go back
+                Log.e(TAG, error.getMessage());
+                finish();
+            }
+        });
 
-            // Error so go back
-            Log.e(TAG, e.getMessage());
-            finish();
-        }
+    }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // Refresh the progress, which changes after each evaluation; one row per lesson is read
+        LessonStatsTable.getInstance(this).getAllLessonStatsAsync(this,
+                new DatabaseExecutor.Callback<SparseArray<LessonStats>>() {
+                    @Override
+                    public void onResult(SparseArray<LessonStats> lessonStats) {
+                        mLessonStats = lessonStats;
+                        if (mAdapter != null) {
+                            mAdapter.notifyDataSetChanged();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception error) {
+                        Log.e(TAG, "Could not read the lesson stats: " + error.getMessage());
+                    }
+                });
     }
 
     @Override
@@ -88,10 +123,10 @@ public class LessonsMenuActivity extends ActionBarActivity {
 
     private void populateListView(List<Lesson> lessons) {
 
-        final LessonAdapter adapter = new LessonAdapter(this, lessons);
+        mAdapter = new LessonAdapter(this, lessons);
 
         final ListView listview = (ListView)findViewById(R.id.tutorialListView);
-        listview.setAdapter(adapter);
+        listview.setAdapter(mAdapter);
 
         listview.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 
@@ -155,6 +190,7 @@ public class LessonsMenuActivity extends ActionBarActivity {
 
             TextView textView = (TextView) convertView.findViewById(R.id.row_lesson_name);
             TextView textViewDesc = (TextView) convertView.findViewById(R.id.row_lesson_desc);
+            TextView textViewStats = (TextView) convertView.findViewById(R.id.row_lesson_stats);
 
             // Case on type of lesson
             Lesson lesson = mLessons.get(position);
@@ -168,6 +204,16 @@ public class LessonsMenuActivity extends ActionBarActivity {
             textView.setText(lesson.name);
             textViewDesc.setText(lesson.description);
 
+            // Show the progress in evaluations that have been attempted
+            LessonStats stats = mLessonStats.get(lesson.lessonNumber);
+            if (!lesson.isTutorial() && stats != null) {
+                textViewStats.setText(getString(R.string.lesson_stats, stats.getBestScore(),
+                        Math.round(stats.getAccuracy() * 100), stats.getAttempts()));
+                textViewStats.setVisibility(View.VISIBLE);
+            } else {
+                textViewStats.setVisibility(View.GONE);
+            }
+
             return convertView;
         }
 
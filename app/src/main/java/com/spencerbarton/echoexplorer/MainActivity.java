@@ -57,6 +57,9 @@ public class MainActivity extends ActionBarActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // The latency screen is a debugging aid
+        menu.findItem(R.id.latency).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -74,6 +77,9 @@ public class MainActivity extends ActionBarActivity {
                 Intent intent1 = new Intent(this, SettingsActivity.class);
                 startActivity(intent1);
                 break;
+            case R.id.latency:
+                startActivity(new Intent(this, LatencyActivity.class));
+                break;
             default:
                 return super.onOptionsItemSelected(item);
         }
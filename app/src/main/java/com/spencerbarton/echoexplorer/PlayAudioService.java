@@ -1,39 +1,235 @@
 package com.spencerbarton.echoexplorer;
 
+import android.app.ActivityManager;
 import android.app.Service;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.media.MediaPlayer;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.spencerbarton.echoexplorer.audio.AudioEngine;
+import com.spencerbarton.echoexplorer.audio.AudioMixer;
+import com.spencerbarton.echoexplorer.audio.CancellationToken;
+import com.spencerbarton.echoexplorer.audio.LatencyMonitor;
+import com.spencerbarton.echoexplorer.audio.PcmCache;
+import com.spencerbarton.echoexplorer.audio.PcmClip;
+
+import java.io.IOException;
+
 public class PlayAudioService extends Service {
     private final static String TAG = "PlaySoundService";
     private final static int ECHO_DELAY = 500; // ms
+    private final static int CACHE_MEMORY_FRACTION = 8; // Share of the app's heap for clips
+    private final static long MAX_CACHE_BYTES = 16 * 1024 * 1024;
+    private final static int STREAM_THRESHOLD_BYTES = 256 * 1024; // Stream longer clips
     private final IBinder mBinder = new PlayAudioBinder();
     private MediaPlayer mMediaPlayer;
+    private AudioEngine mAudioEngine;
+    private AudioMixer mMixer;
+    private boolean mUseMediaPlayer = false;
+    private CancellationToken mSequenceToken;
+    private final Handler mHandler = new Handler();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mAudioEngine = new AudioEngine(this, getDefaultCacheBytes());
+        mAudioEngine.setStreamThreshold(STREAM_THRESHOLD_BYTES);
+        mMixer = new AudioMixer();
+
+        // Follow the audio settings while the service is alive
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        mUseMediaPlayer = sharedPref.getBoolean(SettingsActivity.KEY_PREF_LEGACY_AUDIO, false);
+        setRetriggerPolicy(sharedPref.getString(SettingsActivity.KEY_PREF_RETRIGGER, null));
+        sharedPref.registerOnSharedPreferenceChangeListener(mPrefListener);
+    }
 
     @Override
     public IBinder onBind(Intent intent) {
         return mBinder;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        PcmCache<?> cache = mAudioEngine.getCache();
+
+        // Drop everything once hidden or critically low, otherwise keep the most recent half
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.getMaxBytes() / 2);
+        }
+        Log.i(TAG, "Trimmed audio cache (level " + level + "): " + cache);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mAudioEngine.getCache().evictAll();
+    }
+
     @Override
     public void onDestroy() {
+        Log.i(TAG, "Audio cache: " + mAudioEngine.getCache());
         stopAudio();
+        Log.i(TAG, "Mixer voices stolen: " + mMixer.getStolenCount());
+        mMixer.release();
+        mAudioEngine.release();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(mPrefListener);
+    }
+
+    // Resolve a raw resource or synthetic echo name (e.g. "synth:dist=3.5") to a playable id
+    public int resolveAudio(String name) {
+        return mAudioEngine.resolve(name);
     }
 
     public void playAudio(int audioFile) {
         playAudio(audioFile, null);
     }
 
-    public void playAudio(int audioFile, final MediaPlayer.OnCompletionListener listener){
+    public void playAudio(int audioFile, MediaPlayer.OnCompletionListener listener) {
+        playAudio(audioFile, listener, 0);
+    }
+
+    // Note the listener receives a null MediaPlayer unless the legacy MediaPlayer path is used.
+    // Given the time of the touch that caused it (0 for none), the latency until the audio starts
+    // is recorded in the LatencyMonitor.
+    public void playAudio(int audioFile, final MediaPlayer.OnCompletionListener listener,
+                          long touchUptimeMs) {
+        stopAudio();
+
+        // Synthetic echoes only exist in the engine, so they ignore the legacy setting
+        if (!mUseMediaPlayer || AudioEngine.isSynthetic(audioFile)) {
+            try {
+                mAudioEngine.play(audioFile, (listener == null) ? null :
+                        new AudioEngine.OnCompletionListener() {
+                            @Override
+                            public void onCompletion() {
+                                listener.onCompletion(null);
+                            }
+                        }, touchUptimeMs);
+                return;
+            } catch (IOException e) {
+                // Fall back to MediaPlayer, which supports more formats
+                Log.e(TAG, "AudioEngine could not play " + audioFile + ": " + e.getMessage());
+            }
+        }
+
+        playMediaPlayer(audioFile, listener);
+
+        // MediaPlayer has no presentation timestamp, so measure up to the start of playback
+        if (mMediaPlayer != null && touchUptimeMs > 0) {
+            LatencyMonitor.getInstance().record(mAudioEngine.getClipName(audioFile),
+                    SystemClock.uptimeMillis() - touchUptimeMs, LatencyMonitor.METHOD_START);
+        }
+    }
+
+    // Play a short clip on the mixer, so that rapid repeats follow the retrigger policy instead of
+    // cutting each other off. Other audio (e.g. directions) is stopped. Without a mixer, the clip
+    // is played like any other audio.
+    public void triggerAudio(int audioFile, long touchUptimeMs) {
+        if ((mUseMediaPlayer && !AudioEngine.isSynthetic(audioFile)) ||
+                mAudioEngine.isStreamed(audioFile) || !mMixer.isAvailable()) {
+            playAudio(audioFile, null, touchUptimeMs);
+            return;
+        }
+
+        stopPlayers();
+        try {
+            PcmClip clip = mAudioEngine.getClip(audioFile);
+            String name = (touchUptimeMs > 0) ? mAudioEngine.getClipName(audioFile) : null;
+            if (!mMixer.trigger(audioFile, name, clip, touchUptimeMs) && !mMixer.isAvailable()) {
+                playAudio(audioFile, null, touchUptimeMs); // The mixer failed since the check
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not trigger " + audioFile + ": " + e.getMessage());
+        }
+    }
+
+    // Set what happens when a clip is triggered while it is still playing, by preference value
+    public void setRetriggerPolicy(String policy) {
+        if ("overlap".equals(policy)) {
+            mMixer.setRetriggerPolicy(AudioMixer.RetriggerPolicy.OVERLAP);
+        } else if ("ignore".equals(policy)) {
+            mMixer.setRetriggerPolicy(AudioMixer.RetriggerPolicy.IGNORE);
+        } else {
+            mMixer.setRetriggerPolicy(AudioMixer.RetriggerPolicy.RESTART);
+        }
+    }
+
+    // Decode the given audio in the background so a later play finds it in memory
+    public void prefetchAudio(int... audioFiles) {
+        if (!mUseMediaPlayer) {
+            mAudioEngine.prefetch(audioFiles);
+        } else {
+            for (int audioFile : audioFiles) {
+                if (AudioEngine.isSynthetic(audioFile)) {
+                    mAudioEngine.prefetch(audioFile);
+                }
+            }
+        }
+    }
+
+    public int getPrefetchHits() {
+        return mAudioEngine.getPrefetchHits();
+    }
+
+    public int getPrefetchMisses() {
+        return mAudioEngine.getPrefetchMisses();
+    }
+
+    // Set the size above which clips are streamed through a fixed buffer instead of loaded whole
+    public void setStreamThreshold(int bytes) {
+        mAudioEngine.setStreamThreshold(bytes);
+    }
+
+    // Set the budget of the decoded audio cache, evicting clips if it shrinks
+    public void setCacheBudget(long bytes) {
+        mAudioEngine.getCache().setMaxBytes(bytes);
+    }
+
+    public float getCacheHitRate() {
+        return mAudioEngine.getCache().getHitRate();
+    }
+
+    public long getCacheResidentBytes() {
+        return mAudioEngine.getCache().getResidentBytes();
+    }
+
+    public int getCacheEvictionCount() {
+        return mAudioEngine.getCache().getEvictionCount();
+    }
+
+    private long getDefaultCacheBytes() {
+        ActivityManager manager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = manager.getMemoryClass() * 1024L * 1024L;
+        return Math.min(heapBytes / CACHE_MEMORY_FRACTION, MAX_CACHE_BYTES);
+    }
+
+    // Set the playback path, true to decode with a new MediaPlayer on every play
+    public void setUseMediaPlayer(boolean useMediaPlayer) {
+        if (useMediaPlayer != mUseMediaPlayer) {
+            stopAudio();
+            mUseMediaPlayer = useMediaPlayer;
+        }
+    }
+
+    private void playMediaPlayer(int audioFile, final MediaPlayer.OnCompletionListener listener) {
         try {
             mMediaPlayer = MediaPlayer.create(this, audioFile);
             if (mMediaPlayer == null) {
                 Log.e(TAG, "MediaPlayer could not initialize, audio likely in wrong format (" +
                     audioFile + ")");
+                return;
             }
             mMediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
                 @Override
@@ -41,7 +237,7 @@ public class PlayAudioService extends Service {
                     if (listener != null) {
                         listener.onCompletion(mediaPlayer);
                     }
-                    stopAudio();
+                    releaseMediaPlayer(mediaPlayer);
                 }
             });
             mMediaPlayer.start();
@@ -50,53 +246,98 @@ public class PlayAudioService extends Service {
         }
     }
 
-    private int mNumAudioPlayed = 0;
     public void playAudioFiles(final int[] audioFiles) {
+        stopAudio();
+
+        if (!mUseMediaPlayer || hasSynthetic(audioFiles)) {
+            try {
+                mAudioEngine.playSequence(audioFiles, ECHO_DELAY, null);
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "AudioEngine could not sequence audio: " + e.getMessage());
+            }
+        }
+
+        // Chain media players, the token kills the pending steps once stopped or superseded
+        mSequenceToken = new CancellationToken();
+        playMediaPlayerSequence(audioFiles, 0, mSequenceToken);
+    }
+
+    private static boolean hasSynthetic(int[] audioFiles) {
+        for (int audioFile : audioFiles) {
+            if (AudioEngine.isSynthetic(audioFile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void playMediaPlayerSequence(final int[] audioFiles, final int index,
+                                         final CancellationToken token) {
 
         // Done playing audio files
-        if (mNumAudioPlayed >= audioFiles.length) {
-            mNumAudioPlayed = 0;
+        if (token.isCancelled() || index >= audioFiles.length) {
             return;
         }
 
         // Set-up new media player and on completion play next file
-        try {
-            mMediaPlayer = MediaPlayer.create(this, audioFiles[mNumAudioPlayed]);
-            mMediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer mediaPlayer) {
-                    stopAudio();
-                    mNumAudioPlayed++;
-
-                    // Delay between echos
-                    final Handler handler = new Handler();
-                    handler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            playAudioFiles(audioFiles);
-                        }
-                    }, ECHO_DELAY);
+        playMediaPlayer(audioFiles[index], new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mediaPlayer) {
 
-                }
-            });
-            mMediaPlayer.start();
-        } catch (IllegalStateException e) {
-            Log.e(TAG, e.getMessage());
-        }
+                // Delay between echos
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        playMediaPlayerSequence(audioFiles, index + 1, token);
+                    }
+                }, ECHO_DELAY);
+            }
+        });
     }
 
     public void stopAudio() {
+        stopPlayers();
+        mMixer.stopAll();
+    }
+
+    // Stop everything but the mixer's voices
+    private void stopPlayers() {
+        mAudioEngine.stop();
+        if (mSequenceToken != null) {
+            mSequenceToken.cancel();
+            mSequenceToken = null;
+        }
+        mHandler.removeCallbacksAndMessages(null);
         if (mMediaPlayer != null) {
             mMediaPlayer.stop();
-            mMediaPlayer.release();
+            releaseMediaPlayer(mMediaPlayer);
+        }
+    }
+
+    private void releaseMediaPlayer(MediaPlayer mediaPlayer) {
+        mediaPlayer.release();
+        if (mediaPlayer == mMediaPlayer) {
             mMediaPlayer = null;
         }
     }
 
+    private SharedPreferences.OnSharedPreferenceChangeListener mPrefListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPref, String key) {
+            if (SettingsActivity.KEY_PREF_LEGACY_AUDIO.equals(key)) {
+                setUseMediaPlayer(sharedPref.getBoolean(key, false));
+            } else if (SettingsActivity.KEY_PREF_RETRIGGER.equals(key)) {
+                setRetriggerPolicy(sharedPref.getString(key, null));
+            }
+        }
+    };
+
     public class PlayAudioBinder extends Binder {
 
         PlayAudioService getService() { return PlayAudioService.this; }
 
     }
 
-}
\ No newline at end of file
+}
@@ -2,95 +2,85 @@ package com.spencerbarton.echoexplorer;
 
 /**
  * Created by Susan on 8/25/15.
+ *
+ * Shows the progress in each lesson, then every response, newest first. The responses are shown
+ * in a recycled list that reads them a page at a time on the DatabaseExecutor, and keeps only the
+ * pages around the visible rows, so the screen opens at once and its memory stays flat however
+ * many responses there are. Pending reads are cancelled when the activity is destroyed.
  */
-import android.content.Intent;
-import android.database.Cursor;
-import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
+import android.support.v7.app.ActionBarActivity;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Gravity;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.ListAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ListView;
-import android.widget.SimpleAdapter;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TableRow.LayoutParams;
 import android.widget.TextView;
 
+import com.spencerbarton.echoexplorer.database.DatabaseExecutor;
+import com.spencerbarton.echoexplorer.database.LessonStats;
+import com.spencerbarton.echoexplorer.database.LessonStatsTable;
 import com.spencerbarton.echoexplorer.database.UserStats;
 import com.spencerbarton.echoexplorer.database.UserStatsTable;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class RecordsActivity extends ActionBarActivity {
 
+    private static final String TAG = "RecordsActivity";
+
+    // The number of responses read by each query
+    private static final int PAGE_SIZE = 50;
+    // The number of pages kept in memory, the least recently shown are dropped first
+    private static final int MAX_CACHED_PAGES = 6;
+
     TableLayout table_layout;
+    private ResponseAdapter mAdapter;
+    private UserStatsTable mUserStats;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_records);
-        Log.d("Reading: ", "Reading all contacts..");
-//        List<UserStats> contacts = db.getAllResponse();
-//
-//        for (UserStats cn : contacts) {
-//            String log = "Id: "+ Integer.toString(cn.getTimestamp())+" ,Name: " + cn.getResponse();
-//            // Writing Contacts to log
-//            Log.d("Name: ", log);
-//        }
         table_layout = (TableLayout) findViewById(R.id.tableLayout1);
-        UserStatsTable db = new UserStatsTable(this);
-        List<UserStats> responses = db.getAllResponse();
-        Cursor cursor = db.readEntry();
-        int rows = db.getCount();
-        int cols = db.getNumCol();
-        cursor.moveToFirst();
+
         //set up the title of each column
-        TableRow row = new TableRow(this);
-        row.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT,
-                LayoutParams.WRAP_CONTENT));
-        for(int k = 0; k < cols; k++){
-            TextView tv = new TextView(this);
-            tv.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT,
-                    LayoutParams.WRAP_CONTENT));
-            tv.setGravity(Gravity.CENTER);
-            tv.setTextSize(18);
-            tv.setPadding(0, 5, 0, 5);
-            if (k == 0) {tv.setText("Time");}
-            else if(k == 1){tv.setText("Step");}
-            else if(k == 2){tv.setText("Response");}
-            row.addView(tv);
-        }
-        table_layout.addView(row);
-        for (int i = 0; i < rows; i++) {
+        bindRow(findViewById(R.id.records_header), "Time", "Lesson", "Step", "Choice", "Correct",
+                "Latency");
 
-            row = new TableRow(this);
-            row.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT,
-                    LayoutParams.WRAP_CONTENT));
+        mAdapter = new ResponseAdapter();
+        ListView listView = (ListView) findViewById(R.id.records_list);
+        listView.setAdapter(mAdapter);
 
-            // inner for loop
-            for (int j = 0; j < cols; j++) {
-                TextView tv = new TextView(this);
-                tv.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT,
-                        LayoutParams.WRAP_CONTENT));
-                //tv.setBackgroundResource(R.drawable.cell_shape);
-                tv.setGravity(Gravity.CENTER);
-                tv.setTextSize(18);
-                tv.setPadding(0, 5, 0, 5);
-                tv.setText(cursor.getString(j));
-                row.addView(tv);
+        // Count the responses and read the rollups, then let the list page in the responses
+        mUserStats = UserStatsTable.getInstance(this);
+        mUserStats.getCountAsync(this, new LoggingCallback<Integer>() {
+            @Override
+            public void onResult(Integer count) {
+                mAdapter.setCount(count);
             }
-            cursor.moveToNext();
-            table_layout.addView(row);
-
-        }
-        cursor.close();
-
+        });
+        LessonStatsTable.getInstance(this).getAllLessonStatsAsync(this,
+                new LoggingCallback<SparseArray<LessonStats>>() {
+                    @Override
+                    public void onResult(SparseArray<LessonStats> lessonStats) {
+                        showLessonStats(lessonStats);
+                    }
+                });
     }
 
     @Override
@@ -115,5 +105,175 @@ public class RecordsActivity extends ActionBarActivity {
         return super.onOptionsItemSelected(item);
     }
 
-}
+    // The progress in each lesson, one row per lesson read from the rollups
+    private void showLessonStats(SparseArray<LessonStats> lessonStats) {
+        if (lessonStats.size() == 0) {
+            return;
+        }
+
+        addRow("Lesson", "Answers", "Correct", "Accuracy", "Best", "Last");
+        for (int i = 0; i < lessonStats.size(); i++) {
+            LessonStats stats = lessonStats.valueAt(i);
+            addRow(Integer.toString(stats.getLessonNum()),
+                    Integer.toString(stats.getAttempts()),
+                    Integer.toString(stats.getCorrect()),
+                    Math.round(stats.getAccuracy() * 100) + "%",
+                    Integer.toString(stats.getBestScore()),
+                    Long.toString(stats.getLastAttempt()));
+        }
+    }
+
+    private void addRow(String... values) {
+        TableRow row = new TableRow(this);
+        row.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT,
+                LayoutParams.WRAP_CONTENT));
 
+        for (String value : values) {
+            TextView tv = new TextView(this);
+            tv.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT,
+                    LayoutParams.WRAP_CONTENT));
+            //tv.setBackgroundResource(R.drawable.cell_shape);
+            tv.setGravity(Gravity.CENTER);
+            tv.setTextSize(18);
+            tv.setPadding(0, 5, 0, 5);
+            tv.setText(value);
+            row.addView(tv);
+        }
+        table_layout.addView(row);
+    }
+
+    // Sets the columns of a row_response_layout row
+    private static void bindRow(View row, String time, String lesson, String step, String choice,
+                                String correct, String latency) {
+        ((TextView) row.findViewById(R.id.response_time)).setText(time);
+        ((TextView) row.findViewById(R.id.response_lesson)).setText(lesson);
+        ((TextView) row.findViewById(R.id.response_step)).setText(step);
+        ((TextView) row.findViewById(R.id.response_choice)).setText(choice);
+        ((TextView) row.findViewById(R.id.response_correct)).setText(correct);
+        ((TextView) row.findViewById(R.id.response_latency)).setText(latency);
+    }
+
+    // Columns that older responses did not record are shown as unknown
+    private static String valueOf(long value) {
+        return (value == UserStats.UNKNOWN) ? "?" : Long.toString(value);
+    }
+
+    // A failed read leaves the screen as it is
+    private abstract static class LoggingCallback<R> implements DatabaseExecutor.Callback<R> {
+        @Override
+        public void onError(Exception error) {
+            Log.e(TAG, "Could not read the records: " + error.getMessage());
+        }
+    }
+
+    // Pages in the responses newest first as their rows are shown. Each page is read with the time
+    // and id of the last response of the page before it, so only that response is kept for every
+    // page seen, and the rows themselves only for the MAX_CACHED_PAGES shown last. Rows of pages
+    // that are still loading are shown blank.
+    private class ResponseAdapter extends BaseAdapter {
+
+        private final LayoutInflater mInflater = LayoutInflater.from(RecordsActivity.this);
+
+        private int mCount = 0;
+        // The response that each page starts after, for every page that can be read, null for the
+        // first page
+        private final List<UserStats> mPageKeys = new ArrayList<>();
+        // The rows of the pages in memory, least recently shown first
+        private final Map<Integer, List<UserStats>> mPages =
+                new LinkedHashMap<Integer, List<UserStats>>(MAX_CACHED_PAGES + 1, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, List<UserStats>> e) {
+                        return size() > MAX_CACHED_PAGES;
+                    }
+                };
+        private final Set<Integer> mLoading = new HashSet<>();
+
+        public ResponseAdapter() {
+            mPageKeys.add(null);
+        }
+
+        public void setCount(int count) {
+            mCount = count;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        // The response at the position, or null while its page is loading
+        @Override
+        public UserStats getItem(int position) {
+            int page = position / PAGE_SIZE;
+            List<UserStats> rows = mPages.get(page);
+            if (rows == null) {
+                loadPage(page);
+                return null;
+            }
+
+            int index = position % PAGE_SIZE;
+            return (index < rows.size()) ? rows.get(index) : null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            // Create new
+            if (convertView == null) {
+                convertView = mInflater.inflate(R.layout.row_response_layout, parent, false);
+            }
+
+            UserStats response = getItem(position);
+            if (response == null) {
+                bindRow(convertView, "", "", "", "", "", "");
+            } else {
+                bindRow(convertView, Long.toString(response.getTimestamp()),
+                        valueOf(response.getLessonNum()), valueOf(response.getStepNum()),
+                        valueOf(response.getChoice()), valueOf(response.getCorrect()),
+                        valueOf(response.getLatency()));
+            }
+            return convertView;
+        }
+
+        // Reads the page on a reader thread, or the last page whose key is known if the list jumped
+        // ahead of it; the pages in between follow as their rows are shown
+        private void loadPage(int page) {
+            final int readPage = Math.min(page, mPageKeys.size() - 1);
+            if (!mLoading.add(readPage)) {
+                return;
+            }
+
+            UserStats key = mPageKeys.get(readPage);
+            long beforeTime = (key == null) ? Long.MAX_VALUE : key.getTimestamp();
+            long beforeId = (key == null) ? Long.MAX_VALUE : key.getId();
+            mUserStats.getResponsesBeforeAsync(RecordsActivity.this, beforeTime, beforeId,
+                    PAGE_SIZE, new LoggingCallback<List<UserStats>>() {
+                        @Override
+                        public void onResult(List<UserStats> rows) {
+                            onPageLoaded(readPage, rows);
+                        }
+
+                        // The page is read again the next time one of its rows is shown
+                        @Override
+                        public void onError(Exception error) {
+                            super.onError(error);
+                            mLoading.remove(readPage);
+                        }
+                    });
+        }
+
+        private void onPageLoaded(int page, List<UserStats> rows) {
+            mLoading.remove(page);
+            mPages.put(page, rows);
+            if (page == mPageKeys.size() - 1 && rows.size() == PAGE_SIZE) {
+                mPageKeys.add(rows.get(rows.size() - 1));
+            }
+            notifyDataSetChanged();
+        }
+    }
+}
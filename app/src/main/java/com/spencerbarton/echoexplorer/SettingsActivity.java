@@ -10,6 +10,8 @@ import android.view.MenuItem;
 public class SettingsActivity extends ActionBarActivity {
 
     public static final String KEY_PREF_AUDIO_DIR = "audio_directions";
+    public static final String KEY_PREF_LEGACY_AUDIO = "legacy_audio";
+    public static final String KEY_PREF_RETRIGGER = "echo_retrigger";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -0,0 +1,204 @@
+package com.spencerbarton.echoexplorer;
+
+import android.media.MediaPlayer;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.spencerbarton.echoexplorer.database.UserStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plays the steps of a lesson, as described by LessonSteps, in the views of a lesson page. Each
+ * step shows its directions and choices, plays its audio directions if they are enabled, and then
+ * plays its echo whenever the echo button is pressed. Directions are only played the first time
+ * a step is shown, and the echo and choices are ignored until they have been.
+ *
+ * Everything a step needs is set up when the steps are set: the choice buttons are a fixed pool,
+ * sized for the step with the most choices, whose text and visibility are rebound for each step,
+ * and the listeners are shared by all steps. Moving between steps allocates nothing and reads no
+ * preferences.
+ */
+class StepEngine {
+
+    /**
+     * Notified when a choice is pressed once the directions of the step have been played.
+     */
+    interface OnChoiceListener {
+
+        /**
+         * @param step The step being played.
+         * @param choice The index of the choice that was pressed.
+         * @param latency The time since the echo was last played in milliseconds, or
+         *                UserStats.UNKNOWN if it has not been.
+         **/
+        void onChoice(LessonStep step, int choice, long latency);
+    }
+
+    private final LessonPlayerActivity mPlayer;
+    private final TextView mDirectionsView;
+    // Holds the choice buttons, null if the page has no choices
+    private final ViewGroup mChoiceGroup;
+    private final OnChoiceListener mChoiceListener;
+    private final List<Button> mChoiceButtons = new ArrayList<>();
+
+    private PlayAudioService mAudioService;
+    private List<LessonStep> mSteps = Collections.emptyList();
+    private boolean[] mDirectionsPlayed = new boolean[0];
+    private int mCurStep = 0;
+    // The step whose directions are playing
+    private int mDirectionsStep = 0;
+    // When the echo was last played, in uptime milliseconds, to measure the response latency
+    private long mEchoTime = -1;
+
+    // Enters echo mode once the directions of a step have been played
+    private final MediaPlayer.OnCompletionListener mDirectionsListener =
+            new MediaPlayer.OnCompletionListener() {
+                @Override
+                public void onCompletion(MediaPlayer mediaPlayer) {
+                    mDirectionsPlayed[mDirectionsStep] = true;
+                }
+            };
+
+    // Shared by the choice buttons, which are tagged with their index
+    private final View.OnClickListener mChoiceClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            onChoice((Integer) view.getTag());
+        }
+    };
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    StepEngine(LessonPlayerActivity player, TextView directionsView, ViewGroup choiceGroup,
+               OnChoiceListener choiceListener) {
+        mPlayer = player;
+        mDirectionsView = directionsView;
+        mChoiceGroup = choiceGroup;
+        mChoiceListener = choiceListener;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Sets the steps of a lesson, and sizes the choice buttons for them
+    void setSteps(List<LessonStep> steps, PlayAudioService service) {
+        mSteps = steps;
+        mAudioService = service;
+        mDirectionsPlayed = new boolean[steps.size()];
+        mCurStep = 0;
+        mEchoTime = -1;
+
+        int maxChoices = 0;
+        for (LessonStep step : steps) {
+            maxChoices = Math.max(maxChoices, step.choices.size());
+        }
+        growChoiceButtons(maxChoices);
+    }
+
+    int getStepCount() {
+        return mSteps.size();
+    }
+
+    int getCurStep() {
+        return mCurStep;
+    }
+
+    // Shows and plays the step at the index
+    void play(int index) {
+        mCurStep = index;
+        mEchoTime = -1;
+        LessonStep step = mSteps.get(index);
+
+        mDirectionsView.setText(step.textDirections);
+        bindChoiceButtons(step);
+        playDirections(index); // Goes into echo mode immediately after
+        prefetchNeighbours();
+    }
+
+    // Clicks without a touch (e.g. from accessibility services) pass a touch time of 0
+    void onEchoBtn(long touchTime) {
+        if (!mSteps.isEmpty()) {
+            playEcho(touchTime);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private void playDirections(int index) {
+        if (mPlayer.isAudioDirectionsEnabled() && !mDirectionsPlayed[index]) {
+            mDirectionsStep = index;
+            mAudioService.playAudio(mSteps.get(index).directionsAudio, mDirectionsListener);
+        } else {
+            mDirectionsPlayed[index] = true;
+            playEcho(0);
+        }
+    }
+
+    private void playEcho(long touchTime) {
+        if (mDirectionsPlayed[mCurStep]) {
+            mAudioService.triggerAudio(mSteps.get(mCurStep).echoAudio, touchTime);
+            mEchoTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    private void onChoice(int choice) {
+        if (mDirectionsPlayed[mCurStep]) {
+            long latency = (mEchoTime < 0) ? UserStats.UNKNOWN :
+                    SystemClock.uptimeMillis() - mEchoTime;
+            mChoiceListener.onChoice(mSteps.get(mCurStep), choice, latency);
+        }
+    }
+
+    // Decode the audio of the steps on either side while the current step plays
+    private void prefetchNeighbours() {
+        if (mCurStep > 0) {
+            mAudioService.prefetchAudio(mSteps.get(mCurStep - 1).audio);
+        }
+        if (mCurStep < mSteps.size() - 1) {
+            mAudioService.prefetchAudio(mSteps.get(mCurStep + 1).audio);
+        }
+    }
+
+    // Adds buttons to the pool until it has count of them, the pool never shrinks
+    private void growChoiceButtons(int count) {
+        while (mChoiceButtons.size() < count) {
+            Button btn = new Button(mPlayer);
+            btn.setTag(mChoiceButtons.size());
+            btn.setOnClickListener(mChoiceClickListener);
+
+            // Install btn, NOTE important that this happen before setting params
+            mChoiceGroup.addView(btn);
+
+            // Set to fill parent
+            ViewGroup.LayoutParams params = btn.getLayoutParams();
+            params.width = ViewGroup.LayoutParams.MATCH_PARENT;
+            btn.setLayoutParams(params);
+
+            mChoiceButtons.add(btn);
+        }
+    }
+
+    // Shows a button for each choice of the step, and hides the rest of the pool
+    private void bindChoiceButtons(LessonStep step) {
+        for (int i = 0; i < mChoiceButtons.size(); i++) {
+            Button btn = mChoiceButtons.get(i);
+            if (i < step.choices.size()) {
+                btn.setText(step.choices.get(i));
+                btn.setVisibility(View.VISIBLE);
+            } else {
+                btn.setVisibility(View.GONE);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.spencerbarton.echoexplorer;
+
+import android.widget.TextView;
+
+import com.spencerbarton.echoexplorer.database.LessonRepository;
+import com.spencerbarton.echoexplorer.database.Tutorial;
+
+import java.io.IOException;
+import java.util.List;
+
+// TODO complete evaluations
+// TODO test - include real audio in db
+
+// Plays the steps of tutorials in the LessonPlayerActivity
+class TutorialPage extends LessonPage<Tutorial> {
+
+    public TutorialPage(LessonPlayerActivity player) {
+        super(player, R.layout.view_tutorial);
+
+        // Tutorials have no choices
+        TextView directionsView = (TextView) mView.findViewById(R.id.tutorial_directions);
+        setEngine(new StepEngine(player, directionsView, null, null));
+    }
+
+    @Override
+    protected List<Tutorial> loadSteps(int lessonNumber) throws IOException {
+
+        // Get sorted tutorial steps
+        return LessonRepository.getInstance(mPlayer).getTutorials(lessonNumber);
+    }
+
+    @Override
+    protected LessonStep describe(Tutorial stepData, PlayAudioService service) {
+        return LessonStep.fromTutorial(stepData, service);
+    }
+
+}
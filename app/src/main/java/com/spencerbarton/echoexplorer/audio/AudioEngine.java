@@ -0,0 +1,745 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.spencerbarton.echoexplorer.R;
+import com.spencerbarton.echoexplorer.RawAudioIndex;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AudioEngine is a low-latency playback engine for the short clips in res/raw. Each clip is
+ * mapped (or, if compressed, decoded) once, and played through a static-mode AudioTrack that
+ * holds a copy of its data. Replaying a clip then only rewinds that track, instead of looking up,
+ * parsing and decoding the resource again like MediaPlayer.create.
+ *
+ * Loaded clips are kept in a PcmCache, which is bounded by a budget in bytes and evicts the least
+ * recently used clips first. Tracks are native and limited per process, and each one holds a
+ * second copy of its clip, so only the tracks of the MAX_TRACKS clips played last are kept. A
+ * track that leaves them, or whose clip is evicted, is released, unless it is playing, in which
+ * case it is released once it is stopped.
+ *
+ * Clips can be prefetched, which loads them on a background thread, so that a later play finds
+ * them already in memory. A play whose clip is still queued for prefetch cancels it and loads the
+ * clip itself, rather than waiting behind the other prefetches on their low-priority thread. The
+ * engine counts how many plays found their clip resident (hits) and how many had to load it first
+ * (misses).
+ *
+ * Raw resources larger than the stream threshold (e.g. long spoken directions) are not loaded at
+ * all, but streamed by a StreamingPlayer through a small fixed ring buffer, so their memory use
+ * does not grow with their length. They are neither cached nor prefetched.
+ *
+ * Trains of clips are rendered by the EchoSequencer into a single clip with exact gaps, and played
+ * through a one-shot static track.
+ *
+ * Besides raw resources, the engine plays echoes rendered by the EchoSynthesizer. Their names
+ * (e.g. "synth:dist=3.5,angle=-45") are resolved to negative keys, which are loaded, cached and
+ * prefetched like any resource id.
+ *
+ * Plays can be given the time of the touch that caused them, in which case the latency until the
+ * first frame is presented is measured with AudioTrack.getTimestamp (API 19+, or the start of
+ * playback on older platforms), and recorded in the LatencyMonitor.
+ *
+ * Only one clip or sequence is played at a time; starting one stops the one that is currently
+ * playing, and cancels its token so its completion is never reported. Completion callbacks are
+ * delivered on the main thread.
+ */
+public class AudioEngine {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = AudioEngine.class.getName();
+
+    /** How long the idle prefetch thread is kept alive, in seconds. */
+    private static final int PREFETCH_KEEP_ALIVE_S = 30;
+    /** How often the presentation timestamp is polled while measuring latency, in ms. */
+    private static final int LATENCY_POLL_MS = 5;
+    /** How long the presentation timestamp is polled before falling back, in ms. */
+    private static final int LATENCY_TIMEOUT_MS = 1000;
+    /** The size of the ring buffer of streamed clips, in bytes. */
+    private static final int STREAM_RING_BYTES = 64 * 1024;
+    /** The number of static tracks kept for replaying clips. */
+    private static final int MAX_TRACKS = 4;
+
+    /** The resources that the clips are loaded from. */
+    private final Resources mResources;
+    /** Delivers marker callbacks and track releases on the main thread. */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /** The loaded clips, keyed by raw resource id or synthetic key. */
+    private final PcmCache<PcmClip> mCache;
+    /** The tracks of the clips played last, least recently played first. Main thread only. */
+    private final LinkedHashMap<Integer, LoadedClip> mTracks =
+            new LinkedHashMap<>(MAX_TRACKS + 1, 0.75f, true);
+    /** The prefetches that are queued or running, keyed by raw resource id. */
+    private final SparseArray<Future<?>> mPending = new SparseArray<>();
+    /** The keys of the synthetic echoes that have been resolved, by name. */
+    private final Map<String, Integer> mSyntheticKeys = new HashMap<>();
+    /** The parameters of the synthetic echoes that have been resolved, by key. */
+    private final SparseArray<EchoSynthesizer.Echo> mSyntheticEchoes = new SparseArray<>();
+    /** The sizes of the raw resources in the APK, or -1 if unknown, by resource id. */
+    private final SparseIntArray mResourceLengths = new SparseIntArray();
+    /** Guards the pending prefetches and synthetic echoes, which the prefetch thread also uses. */
+    private final Object mLock = new Object();
+    /** Runs the prefetches one at a time; its thread exits when there is no work. */
+    private final ThreadPoolExecutor mPrefetchExecutor;
+
+    /** The number of plays that found their clip already loaded. */
+    private final AtomicInteger mHits = new AtomicInteger();
+    /** The number of plays that had to load (or wait for) their clip. */
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    /** Renders the synthetic echoes, created once the first one is loaded. */
+    private EchoSynthesizer mSynthesizer;
+    /** Raw resources larger than this are streamed rather than loaded, in bytes. */
+    private volatile int mStreamThreshold = Integer.MAX_VALUE;
+
+    /** The clip that is currently playing, or null. Only used on the main thread. */
+    private LoadedClip mCurrentClip;
+    /** The clip that is currently streaming, or null. Only used on the main thread. */
+    private StreamingPlayer mCurrentStream;
+    /** The listener to notify when the current clip reaches its end. */
+    private OnCompletionListener mCurrentListener;
+    /** The token of the current playback request, cancelled once it is superseded. */
+    private CancellationToken mCurrentToken;
+
+    /**
+     * Listener for the end of playback of a clip.
+     */
+    public interface OnCompletionListener {
+        public void onCompletion();
+    }
+
+    // A loaded clip together with the static track that holds it
+    private static class LoadedClip {
+        final PcmClip clip;
+        final AudioTrack track;
+
+        // Whether the track is still kept for replaying the clip, only used on the main thread
+        boolean pooled;
+
+        LoadedClip(PcmClip clip, AudioTrack track, boolean pooled) {
+            this.clip = clip;
+            this.track = track;
+            this.pooled = pooled;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Constructs a new engine.
+     *
+     * @param context The context to load the raw resources from.
+     * @param cacheBytes The budget of the clip cache, in bytes.
+     **/
+    public AudioEngine(Context context, long cacheBytes) {
+        mResources = context.getResources();
+        mCache = new PcmCache<>(cacheBytes, mEvictedListener);
+
+        mPrefetchExecutor = new ThreadPoolExecutor(1, 1, PREFETCH_KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AudioPrefetch");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        mPrefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Resolves the name of a clip to the key that it is played with. Names of raw resources
+     * resolve to their resource ids through the generated RawAudioIndex, and names of synthetic
+     * echoes to negative keys.
+     *
+     * @param name The name of the raw resource, or of the synthetic echo.
+     * @return The key of the clip, or 0 if there is no such resource or the echo is malformed.
+     **/
+    public int resolve(String name) {
+        if (!EchoSynthesizer.isSynthetic(name)) {
+            return RawAudioIndex.get(name);
+        }
+
+        synchronized (mLock) {
+            Integer key = mSyntheticKeys.get(name);
+            if (key == null) {
+                try {
+                    EchoSynthesizer.Echo echo = EchoSynthesizer.parse(name);
+                    key = -(mSyntheticKeys.size() + 1);
+                    mSyntheticKeys.put(name, key);
+                    mSyntheticEchoes.put(key, echo);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, e.getMessage());
+                    return 0;
+                }
+            }
+            return key;
+        }
+    }
+
+    /**
+     * @param key The key of a clip.
+     * @return True if the key refers to a synthetic echo rather than a raw resource.
+     **/
+    public static boolean isSynthetic(int key) {
+        return key < 0;
+    }
+
+    /**
+     * Plays the given raw resource, loading it and creating its track if it is not cached. Any
+     * clip that is currently playing is stopped.
+     *
+     * @param resId The raw resource id or synthetic key of the clip to play.
+     * @param listener Notified on the main thread once the clip has played, may be null.
+     * @return The token of this request, cancelled once it is stopped or superseded.
+     * @throws IOException The resource cannot be read or is not a supported WAV file.
+     **/
+    public CancellationToken play(int resId, OnCompletionListener listener) throws IOException {
+        return play(resId, listener, 0);
+    }
+
+    /**
+     * Plays the given clip like play(int, OnCompletionListener), and measures the latency from
+     * the given touch until its first frame is presented.
+     *
+     * @param resId The raw resource id or synthetic key of the clip to play.
+     * @param listener Notified on the main thread once the clip has played, may be null.
+     * @param touchUptimeMs The time of the touch (MotionEvent.getEventTime), or 0 to not measure.
+     * @return The token of this request, cancelled once it is stopped or superseded.
+     * @throws IOException The resource cannot be read or is not a supported WAV file.
+     **/
+    public CancellationToken play(int resId, OnCompletionListener listener, long touchUptimeMs)
+            throws IOException
+    {
+        if (isStreamed(resId)) {
+            CancellationToken token = stream(resId, listener);
+            if (touchUptimeMs > 0) {
+                LatencyMonitor.getInstance().record(getClipName(resId),
+                        SystemClock.uptimeMillis() - touchUptimeMs, LatencyMonitor.METHOD_START);
+            }
+            return token;
+        }
+
+        LoadedClip loaded = acquireTrack(resId);
+        stop();
+        CancellationToken token = start(loaded, listener);
+        if (touchUptimeMs > 0) {
+            measureLatency(loaded, getClipName(resId), touchUptimeMs, token);
+        }
+        return token;
+    }
+
+    /**
+     * Returns the given clip, loading it if it is not cached, for playback outside the engine
+     * (e.g. by the AudioMixer). Only the clip is loaded, no track is created for it. Clips above
+     * the stream threshold should not be loaded this way.
+     *
+     * @param key The raw resource id or synthetic key of the clip.
+     * @return The clip.
+     * @throws IOException The resource cannot be read or is not a supported WAV file.
+     **/
+    public PcmClip getClip(int key) throws IOException {
+        return acquire(key);
+    }
+
+    /**
+     * @param key The raw resource id or synthetic key of a clip.
+     * @return True if the clip is a raw resource above the stream threshold.
+     **/
+    public boolean isStreamed(int key) {
+        if (isSynthetic(key) || key == 0) {
+            return false;
+        }
+
+        // The length is read from the APK the first time, outside of the lock
+        int length;
+        synchronized (mLock) {
+            length = mResourceLengths.get(key, Integer.MIN_VALUE);
+        }
+        if (length == Integer.MIN_VALUE) {
+            length = getResourceLength(key);
+            synchronized (mLock) {
+                mResourceLengths.put(key, length);
+            }
+        }
+        return length > mStreamThreshold;
+    }
+
+    /**
+     * @param key The raw resource id or synthetic key of a clip.
+     * @return The name of the clip, for logs and measurements.
+     **/
+    public String getClipName(int key) {
+        if (isSynthetic(key)) {
+            synchronized (mLock) {
+                EchoSynthesizer.Echo echo = mSyntheticEchoes.get(key);
+                return (echo != null) ? echo.toString() : String.valueOf(key);
+            }
+        }
+
+        try {
+            return mResources.getResourceEntryName(key);
+        } catch (Resources.NotFoundException e) {
+            return String.valueOf(key);
+        }
+    }
+
+    /**
+     * Plays the given raw resources one after another, with gapMs of silence between them. The
+     * whole train is rendered up front and played as a single stream, so the gaps are exact. Any
+     * clip that is currently playing is stopped.
+     *
+     * @param resIds The raw resource ids or synthetic keys to play, in order.
+     * @param gapMs The silence between consecutive clips, in milliseconds.
+     * @param listener Notified on the main thread once the last clip has played, may be null.
+     * @return The token of this request, cancelled once it is stopped or superseded.
+     * @throws IOException A resource cannot be read or is not a supported WAV file.
+     **/
+    public CancellationToken playSequence(int[] resIds, int gapMs, OnCompletionListener listener)
+            throws IOException
+    {
+        PcmClip[] clips = new PcmClip[resIds.length];
+        for (int i = 0; i < resIds.length; i++) {
+            clips[i] = acquire(resIds[i]);
+        }
+
+        PcmClip train;
+        try {
+            train = EchoSequencer.render(clips, gapMs);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        // The train is never pooled, so its track is released once it is stopped
+        stop();
+        return start(new LoadedClip(train, createStaticTrack(train), false), listener);
+    }
+
+    /**
+     * Loads the given clips on a background thread, unless they are already cached or queued.
+     * Their tracks are created when they are played. Keys of 0 (unresolved clips) are ignored, and
+     * so are clips that are streamed, which the background thread finds out.
+     *
+     * @param resIds The raw resource ids or synthetic keys of the clips to prefetch.
+     **/
+    public void prefetch(int... resIds) {
+        synchronized (mLock) {
+            for (final int resId : resIds) {
+                if (resId == 0 || mCache.contains(resId) || mPending.get(resId) != null) {
+                    continue;
+                }
+
+                mPending.put(resId, mPrefetchExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!isStreamed(resId)) {
+                                load(resId);
+                            }
+                        } catch (IOException e) {
+                            Log.e(TAG, "Could not prefetch " + resId + ": " + e.getMessage());
+                        } finally {
+                            synchronized (mLock) {
+                                mPending.remove(resId);
+                            }
+                        }
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Sets the size above which raw resources are streamed instead of loaded whole.
+     *
+     * @param bytes The threshold, in bytes of the resource file.
+     **/
+    public void setStreamThreshold(int bytes) {
+        mStreamThreshold = bytes;
+    }
+
+    /**
+     * @return The number of plays that found their clip already loaded.
+     **/
+    public int getPrefetchHits() {
+        return mHits.get();
+    }
+
+    /**
+     * @return The number of plays that had to load their clip, or wait for its prefetch.
+     **/
+    public int getPrefetchMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return The cache of loaded clips, for tuning and trimming its budget.
+     **/
+    public PcmCache<?> getCache() {
+        return mCache;
+    }
+
+    /**
+     * Stops the clip or sequence that is currently playing, if any, and cancels its token. Its
+     * completion listener is not called.
+     **/
+    public void stop() {
+        if (mCurrentToken != null) {
+            mCurrentToken.cancel();
+            mCurrentToken = null;
+        }
+        if (mCurrentClip != null) {
+            mCurrentClip.track.setPlaybackPositionUpdateListener(null);
+            mCurrentClip.track.stop();
+
+            // The track left the pool while it was playing
+            if (!mCurrentClip.pooled) {
+                mCurrentClip.track.release();
+            }
+            mCurrentClip = null;
+        }
+        if (mCurrentStream != null) {
+            mCurrentStream.stop();
+            mCurrentStream = null;
+        }
+        mCurrentListener = null;
+    }
+
+    /**
+     * Stops playback, cancels the pending prefetches, releases the tracks and evicts all of the
+     * cached clips. The engine may still be used afterwards, in which case clips are loaded again.
+     **/
+    public void release() {
+        stop();
+        for (LoadedClip loaded : mTracks.values()) {
+            releaseTrack(loaded);
+        }
+        mTracks.clear();
+        synchronized (mLock) {
+            for (int i = 0; i < mPending.size(); i++) {
+                mPending.valueAt(i).cancel(false);
+            }
+            mPending.clear();
+        }
+        mCache.evictAll();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Start a stopped static track from its first frame, and report its end to the listener
+    private CancellationToken start(LoadedClip loaded, OnCompletionListener listener) {
+        AudioTrack track = loaded.track;
+
+        // Rewind the static data, then arm the marker at the last frame for the completion
+        track.reloadStaticData();
+        track.setNotificationMarkerPosition(loaded.clip.getFrameCount());
+        track.setPlaybackPositionUpdateListener(mMarkerListener, mHandler);
+
+        mCurrentClip = loaded;
+        mCurrentListener = listener;
+        mCurrentToken = new CancellationToken();
+        track.play();
+
+        return mCurrentToken;
+    }
+
+    // Poll the presentation timestamp of the track until its first frame has been presented,
+    // and record the latency from the touch to that frame
+    private void measureLatency(final LoadedClip loaded, final String clip,
+                                final long touchUptimeMs, final CancellationToken token)
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            LatencyMonitor.getInstance().record(clip, SystemClock.uptimeMillis() - touchUptimeMs,
+                    LatencyMonitor.METHOD_START);
+            return;
+        }
+
+        final long startUptimeMs = SystemClock.uptimeMillis();
+        mHandler.post(new Runnable() {
+            private final AudioTimestamp mTimestamp = new AudioTimestamp();
+
+            @Override
+            public void run() {
+                if (token.isCancelled()) {
+                    return;
+                }
+
+                // The timestamp pairs a presented frame with its time on the uptime clock
+                if (loaded.track.getTimestamp(mTimestamp) && mTimestamp.framePosition > 0) {
+                    double firstFrameMs = mTimestamp.nanoTime / 1e6 -
+                            mTimestamp.framePosition * 1000.0 / loaded.clip.sampleRate;
+                    float latencyMs = (float) (firstFrameMs - touchUptimeMs);
+                    if (latencyMs >= 0f && latencyMs < LATENCY_TIMEOUT_MS) {
+                        LatencyMonitor.getInstance().record(clip, latencyMs,
+                                LatencyMonitor.METHOD_TIMESTAMP);
+                        return;
+                    }
+                }
+
+                if (SystemClock.uptimeMillis() - startUptimeMs < LATENCY_TIMEOUT_MS) {
+                    mHandler.postDelayed(this, LATENCY_POLL_MS);
+                } else {
+                    LatencyMonitor.getInstance().record(clip, startUptimeMs - touchUptimeMs,
+                            LatencyMonitor.METHOD_START);
+                }
+            }
+        });
+    }
+
+    // Stream a long raw resource, the player releases itself once it has played
+    private CancellationToken stream(int resId, final OnCompletionListener listener)
+            throws IOException
+    {
+        final StreamingPlayer player = new StreamingPlayer(mResources, resId, STREAM_RING_BYTES,
+                mHandler);
+        stop();
+
+        mCurrentStream = player;
+        mCurrentToken = player.start(new OnCompletionListener() {
+            @Override
+            public void onCompletion() {
+                if (mCurrentStream == player) {
+                    mCurrentStream = null;
+                }
+                if (listener != null) {
+                    listener.onCompletion();
+                }
+            }
+        });
+        Log.i(TAG, "Streaming clip " + resId + " through a " + player.getRingBytes() +
+                " byte ring");
+        return mCurrentToken;
+    }
+
+    // The size of the raw resource in the APK, or -1 if it is compressed or missing
+    private int getResourceLength(int resId) {
+        try {
+            AssetFileDescriptor fd = mResources.openRawResourceFd(resId);
+            if (fd == null) {
+                return -1;
+            }
+            int length = (int) fd.getLength();
+            fd.close();
+            return length;
+        } catch (Resources.NotFoundException | IOException e) {
+            return -1;
+        }
+    }
+
+    // Get the track of the clip, creating it if the clip was not played recently. Main thread only
+    private LoadedClip acquireTrack(int key) throws IOException {
+        PcmClip clip = acquire(key);
+        LoadedClip loaded = mTracks.get(key);
+        if (loaded != null && loaded.clip == clip) {
+            return loaded;
+        }
+
+        // The clip was loaded again since its track was created
+        if (loaded != null) {
+            mTracks.remove(key);
+            releaseTrack(loaded);
+        }
+
+        loaded = new LoadedClip(clip, createStaticTrack(clip), true);
+        mTracks.put(key, loaded);
+
+        // Release the tracks of the clips played least recently
+        Iterator<LoadedClip> it = mTracks.values().iterator();
+        while (mTracks.size() > MAX_TRACKS) {
+            LoadedClip eldest = it.next();
+            it.remove();
+            releaseTrack(eldest);
+        }
+        return loaded;
+    }
+
+    // Release a track that left the pool, or once it is stopped if it is playing
+    private void releaseTrack(LoadedClip loaded) {
+        loaded.pooled = false;
+        if (loaded != mCurrentClip) {
+            loaded.track.release();
+        }
+    }
+
+    // Get the clip, loading it if needed. A prefetch of the clip that is still queued is cancelled
+    // and the clip loaded here, rather than waiting behind the other prefetches at their low
+    // priority, only a prefetch that is already loading the clip is waited for
+    private PcmClip acquire(int resId) throws IOException {
+        PcmClip clip = mCache.get(resId);
+        if (clip != null) {
+            mHits.incrementAndGet();
+            return clip;
+        }
+        mMisses.incrementAndGet();
+
+        Future<?> pending;
+        synchronized (mLock) {
+            pending = mPending.get(resId);
+            if (pending != null && pending.cancel(false)) {
+                mPending.remove(resId);
+                pending = null;
+            }
+        }
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Prefetch of " + resId + " did not complete: " + e.getMessage());
+            }
+        }
+        return load(resId);
+    }
+
+    // Read or render the clip, unless it is already cached. The lookup was already counted by
+    // acquire, or is a prefetch, so it is not counted again
+    private PcmClip load(int resId) throws IOException {
+        PcmClip clip = mCache.peek(resId);
+        if (clip != null) {
+            return clip;
+        }
+
+        if (isSynthetic(resId)) {
+            long start = System.nanoTime();
+            clip = renderSynthetic(resId);
+            Log.i(TAG, "Synthesized clip " + resId + " in " +
+                    (System.nanoTime() - start) / 1000 + " us");
+        } else {
+            clip = readClip(resId);
+        }
+        mCache.put(resId, clip, clip.getSizeInBytes());
+
+        Log.i(TAG, "Loaded clip " + resId + " (" + clip.getSizeInBytes() + " bytes, " +
+                (clip.isMapped() ? "mapped" : "decoded") + ")");
+        return clip;
+    }
+
+    // Map the clip straight from the APK, decoding it onto the heap only if it is compressed
+    private PcmClip readClip(int resId) throws IOException {
+        PcmClip clip = WavReader.map(mResources, resId);
+        if (clip == null) {
+            clip = WavDecoder.decode(mResources, resId);
+        }
+        return clip;
+    }
+
+    // Render a resolved synthetic echo, reading the source click the first time
+    private PcmClip renderSynthetic(int key) throws IOException {
+        EchoSynthesizer synthesizer;
+        EchoSynthesizer.Echo echo;
+        synchronized (mLock) {
+            echo = mSyntheticEchoes.get(key);
+            if (echo == null) {
+                throw new IOException("No synthetic echo " + key);
+            }
+            if (mSynthesizer == null) {
+                mSynthesizer = new EchoSynthesizer(readClip(R.raw.echo_click));
+            }
+            synthesizer = mSynthesizer;
+        }
+        return synthesizer.render(echo);
+    }
+
+    // Create a static track that holds the whole clip
+    private static AudioTrack createStaticTrack(PcmClip clip) throws IOException {
+        int channelConfig = (clip.channels == 1) ? AudioFormat.CHANNEL_OUT_MONO :
+                AudioFormat.CHANNEL_OUT_STEREO;
+
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, clip.sampleRate,
+                channelConfig, AudioFormat.ENCODING_PCM_16BIT, clip.getSizeInBytes(),
+                AudioTrack.MODE_STATIC);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            track.write(clip.getBytes(), clip.getSizeInBytes(), AudioTrack.WRITE_BLOCKING);
+        } else {
+            // Older platforms can only write arrays, so mapped clips pass through the heap once
+            byte[] array = clip.getArray();
+            int offset = clip.getArrayOffset();
+            if (array == null) {
+                array = new byte[clip.getSizeInBytes()];
+                offset = 0;
+                clip.getBytes().get(array);
+            }
+            track.write(array, offset, clip.getSizeInBytes());
+        }
+
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            throw new IOException("AudioTrack could not initialize (" + clip.channels +
+                    " channels at " + clip.sampleRate + " Hz)");
+        }
+        return track;
+    }
+
+    private final PcmCache.OnEvictedListener<PcmClip> mEvictedListener =
+            new PcmCache.OnEvictedListener<PcmClip>() {
+
+        @Override
+        public void onEvicted(final int key, final PcmClip clip) {
+
+            // Evictions can happen on the prefetch thread, release the track on the main thread
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    LoadedClip loaded = mTracks.get(key);
+                    if (loaded != null && loaded.clip == clip) {
+                        mTracks.remove(key);
+                        releaseTrack(loaded);
+                    }
+                }
+            });
+        }
+    };
+
+    private final AudioTrack.OnPlaybackPositionUpdateListener mMarkerListener =
+            new AudioTrack.OnPlaybackPositionUpdateListener() {
+
+        @Override
+        public void onMarkerReached(AudioTrack track) {
+            if (mCurrentClip != null && track == mCurrentClip.track &&
+                    !mCurrentToken.isCancelled()) {
+                OnCompletionListener listener = mCurrentListener;
+                mCurrentListener = null;
+                if (listener != null) {
+                    listener.onCompletion();
+                }
+            }
+        }
+
+        @Override
+        public void onPeriodicNotification(AudioTrack track) {
+            // Not used
+        }
+    };
+}
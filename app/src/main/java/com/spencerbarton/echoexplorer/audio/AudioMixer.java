@@ -0,0 +1,471 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * AudioMixer is a small software mixer for short clips that may be triggered in rapid succession,
+ * such as echoes played on every press of the echo button. It has a fixed pool of voices, and
+ * mixes the active ones into a single stereo stream-mode AudioTrack on its own thread. So however
+ * fast clips are triggered, there is one track, one thread and at most VOICE_COUNT clips playing.
+ *
+ * The mix buffers and voices are allocated up front, and the mix loop does not allocate. Clips are
+ * read in place (see PcmClip.getSample), mono clips are played on both channels, and the sum is
+ * clamped to 16 bits. Clips must be at the mixer's sample rate; there is no resampling.
+ *
+ * Triggering a clip that is already playing follows the retrigger policy. When every voice is
+ * busy, the voice that started first is stolen. After a short idle period the track is paused, and
+ * the thread waits for the next trigger, so an idle mixer costs no CPU.
+ *
+ * Triggers can carry the time of the touch that caused them, in which case the latency until the
+ * clip's first frame is presented is recorded in the LatencyMonitor.
+ *
+ * If the track cannot be initialized (e.g. every track of the device is in use), or stops taking
+ * writes, the mixer is unavailable and ignores triggers. Callers check isAvailable() and play
+ * their clips some other way.
+ */
+public class AudioMixer {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = AudioMixer.class.getName();
+
+    /** The number of voices, the most clips that play at once. */
+    public static final int VOICE_COUNT = 4;
+    /** The output sample rate, in Hz. */
+    public static final int SAMPLE_RATE = 44100;
+
+    /** The number of frames mixed per write to the track. */
+    private static final int MIX_FRAMES = 256;
+    /** The number of output channels. */
+    private static final int CHANNELS = 2;
+    /** How long the mixer plays silence before it pauses the track, in frames. */
+    private static final int IDLE_FRAMES = SAMPLE_RATE / 2;
+    /** How long a latency measurement waits for a presentation timestamp, in frames. */
+    private static final int LATENCY_TIMEOUT_FRAMES = SAMPLE_RATE;
+
+    /**
+     * What happens when a clip is triggered while it is already playing.
+     */
+    public enum RetriggerPolicy {
+        /** The playing voice starts the clip over. */
+        RESTART,
+        /** The clip starts again on another voice, over the one that is playing. */
+        OVERLAP,
+        /** The trigger is ignored until the clip has finished. */
+        IGNORE
+    }
+
+    /** A voice of the pool, which plays a single clip at a time. Guarded by mLock. */
+    private static class Voice {
+        PcmClip clip;
+        String name;
+        int key;
+        /** The next frame of the clip to mix. */
+        int position;
+        /** The order in which the voices were started, to find the oldest. */
+        long startOrder;
+        /** The time of the touch that triggered the clip, or 0. */
+        long touchUptimeMs;
+
+        boolean isActive() {
+            return clip != null;
+        }
+
+        void clear() {
+            clip = null;
+            name = null;
+        }
+    }
+
+    private final Voice[] mVoices = new Voice[VOICE_COUNT];
+    /** The sum of the voices for one write, before clamping. */
+    private final int[] mMixBuffer = new int[MIX_FRAMES * CHANNELS];
+    /** The clamped mix that is written to the track. */
+    private final short[] mOutBuffer = new short[MIX_FRAMES * CHANNELS];
+    /** Receives the presentation timestamps of the track when measuring latency (API 19+). */
+    private final AudioTimestamp mTimestamp;
+    /** The latencies waiting for a timestamp: clip names, touch times and first frames. */
+    private final String[] mPendingNames = new String[VOICE_COUNT];
+    private final long[] mPendingTouches = new long[VOICE_COUNT];
+    private final long[] mPendingFrames = new long[VOICE_COUNT];
+    /** Guards the voices, the policy and the state of the mixer thread. */
+    private final Object mLock = new Object();
+    /** The track of the mix, or null if it could not be initialized. */
+    private final AudioTrack mTrack;
+    /** The mixer thread, or null if there is no track. */
+    private final Thread mThread;
+
+    private RetriggerPolicy mPolicy = RetriggerPolicy.RESTART;
+    private long mNextStartOrder = 0;
+    private boolean mReleased = false;
+    /** Whether the track stopped taking writes, which ends the mixer thread. */
+    private boolean mFailed = false;
+    /** The number of voices that were stolen, for tuning VOICE_COUNT. */
+    private int mStolenCount = 0;
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Constructs a new mixer, and starts its thread. The mixer must be released once it is no
+     * longer needed. If its track cannot be initialized, the mixer is constructed unavailable.
+     **/
+    public AudioMixer() {
+        for (int i = 0; i < VOICE_COUNT; i++) {
+            mVoices[i] = new Voice();
+        }
+        mTimestamp = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) ?
+                new AudioTimestamp() : null;
+
+        int minBytes = AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        int bufferBytes = Math.max(minBytes, MIX_FRAMES * CHANNELS * PcmClip.BYTES_PER_SAMPLE);
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT, bufferBytes,
+                AudioTrack.MODE_STREAM);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            Log.e(TAG, "AudioTrack could not initialize, the mixer is unavailable");
+            track.release();
+            mTrack = null;
+            mThread = null;
+            return;
+        }
+        mTrack = track;
+
+        mThread = new Thread(mMixLoop, "AudioMixer");
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Whether the mixer can play triggered clips, false if its track could not be
+     *         initialized or has failed.
+     **/
+    public boolean isAvailable() {
+        synchronized (mLock) {
+            return mTrack != null && !mFailed && !mReleased;
+        }
+    }
+
+    /**
+     * Sets what happens when a clip is triggered while it is already playing.
+     *
+     * @param policy The retrigger policy.
+     **/
+    public void setRetriggerPolicy(RetriggerPolicy policy) {
+        synchronized (mLock) {
+            mPolicy = policy;
+        }
+    }
+
+    /**
+     * Starts playing the given clip on a voice, following the retrigger policy if it is already
+     * playing, and stealing the oldest voice if they are all busy.
+     *
+     * @param key The key that identifies the clip, to recognise retriggers.
+     * @param name The name of the clip, for latency measurements.
+     * @param clip The clip to play, at SAMPLE_RATE.
+     * @param touchUptimeMs The time of the touch that caused the trigger, or 0 to not measure.
+     * @return False if the trigger was ignored, the clip cannot be mixed, or the mixer is not
+     *         available.
+     **/
+    public boolean trigger(int key, String name, PcmClip clip, long touchUptimeMs) {
+        if (clip.sampleRate != SAMPLE_RATE || clip.channels > CHANNELS) {
+            Log.e(TAG, "Cannot mix " + name + " (" + clip.channels + " channels at " +
+                    clip.sampleRate + " Hz)");
+            return false;
+        }
+
+        synchronized (mLock) {
+            if (mTrack == null || mFailed || mReleased) {
+                return false;
+            }
+
+            Voice voice = findPlaying(key);
+            if (voice != null && mPolicy == RetriggerPolicy.IGNORE) {
+                return false;
+            }
+            if (voice == null || mPolicy == RetriggerPolicy.OVERLAP) {
+                voice = findFree();
+            }
+            if (voice == null) {
+                voice = findOldest();
+                mStolenCount++;
+            }
+
+            voice.clip = clip;
+            voice.name = name;
+            voice.key = key;
+            voice.position = 0;
+            voice.startOrder = mNextStartOrder++;
+            voice.touchUptimeMs = touchUptimeMs;
+            mLock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Silences every voice.
+     **/
+    public void stopAll() {
+        synchronized (mLock) {
+            for (Voice voice : mVoices) {
+                voice.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The number of voices that were stolen because all of them were busy.
+     **/
+    public int getStolenCount() {
+        synchronized (mLock) {
+            return mStolenCount;
+        }
+    }
+
+    /**
+     * Stops the mixer thread and releases the track. The mixer cannot be used afterwards.
+     * Releasing a mixer more than once has no effect.
+     **/
+    public void release() {
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mLock.notifyAll();
+        }
+        if (mTrack == null) {
+            return;
+        }
+        mTrack.stop(); // Returns the mixer thread from a blocking write
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mTrack.release();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private Voice findPlaying(int key) {
+        for (Voice voice : mVoices) {
+            if (voice.isActive() && voice.key == key) {
+                return voice;
+            }
+        }
+        return null;
+    }
+
+    private Voice findFree() {
+        for (Voice voice : mVoices) {
+            if (!voice.isActive()) {
+                return voice;
+            }
+        }
+        return null;
+    }
+
+    private Voice findOldest() {
+        Voice oldest = mVoices[0];
+        for (Voice voice : mVoices) {
+            if (voice.startOrder < oldest.startOrder) {
+                oldest = voice;
+            }
+        }
+        return oldest;
+    }
+
+    // Mix the next MIX_FRAMES of every active voice into the out buffer, and return whether any
+    // voice was active. Voices that reach the end of their clip are freed.
+    private boolean mix(long writtenFrames) {
+        Arrays.fill(mMixBuffer, 0);
+        boolean active = false;
+
+        for (Voice voice : mVoices) {
+            if (!voice.isActive()) {
+                continue;
+            }
+            active = true;
+
+            PcmClip clip = voice.clip;
+            int frames = Math.min(MIX_FRAMES, clip.getFrameCount() - voice.position);
+            if (clip.channels == 1) {
+                for (int i = 0; i < frames; i++) {
+                    int sample = clip.getSample(voice.position + i);
+                    mMixBuffer[2 * i] += sample;
+                    mMixBuffer[2 * i + 1] += sample;
+                }
+            } else {
+                int first = voice.position * CHANNELS;
+                for (int i = 0; i < frames * CHANNELS; i++) {
+                    mMixBuffer[i] += clip.getSample(first + i);
+                }
+            }
+
+            // The first frame of the clip is in this write, so its latency can be measured
+            if (voice.position == 0 && voice.touchUptimeMs > 0) {
+                queueLatency(voice.name, voice.touchUptimeMs, writtenFrames);
+            }
+
+            voice.position += frames;
+            if (voice.position >= clip.getFrameCount()) {
+                voice.clear();
+            }
+        }
+
+        for (int i = 0; i < mMixBuffer.length; i++) {
+            mOutBuffer[i] = (short) Math.max(Short.MIN_VALUE,
+                    Math.min(Short.MAX_VALUE, mMixBuffer[i]));
+        }
+        return active;
+    }
+
+    // Wait for the presentation of the given written frame to measure the latency of its touch.
+    // Without timestamps (before API 19), the latency is measured to the time of the mix.
+    private void queueLatency(String name, long touchUptimeMs, long frame) {
+        if (mTimestamp == null) {
+            LatencyMonitor.getInstance().record(name, SystemClock.uptimeMillis() - touchUptimeMs,
+                    LatencyMonitor.METHOD_START);
+            return;
+        }
+
+        for (int i = 0; i < VOICE_COUNT; i++) {
+            if (mPendingNames[i] == null) {
+                mPendingNames[i] = name;
+                mPendingTouches[i] = touchUptimeMs;
+                mPendingFrames[i] = frame;
+                return;
+            }
+        }
+    }
+
+    // Record the pending latencies whose frames have been presented, or given up on
+    private void resolveLatencies(long writtenFrames) {
+        boolean timestamped = readTimestamp();
+
+        for (int i = 0; i < VOICE_COUNT; i++) {
+            if (mPendingNames[i] == null) {
+                continue;
+            }
+
+            if (timestamped && mTimestamp.framePosition >= mPendingFrames[i]) {
+                double frameMs = mTimestamp.nanoTime / 1e6 +
+                        (mPendingFrames[i] - mTimestamp.framePosition) * 1000.0 / SAMPLE_RATE;
+                LatencyMonitor.getInstance().record(mPendingNames[i],
+                        (float) (frameMs - mPendingTouches[i]), LatencyMonitor.METHOD_TIMESTAMP);
+                mPendingNames[i] = null;
+            } else if (writtenFrames - mPendingFrames[i] > LATENCY_TIMEOUT_FRAMES) {
+                Log.i(TAG, "No timestamp for the latency of " + mPendingNames[i]);
+                mPendingNames[i] = null;
+            }
+        }
+    }
+
+    // Read the presentation timestamp of the track, false until it has presented a frame
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean readTimestamp() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT &&
+                mTrack.getTimestamp(mTimestamp) && mTimestamp.framePosition > 0;
+    }
+
+    // Forget the pending latencies, whose frames were flushed
+    private void clearLatencies() {
+        Arrays.fill(mPendingNames, null);
+    }
+
+    private final Runnable mMixLoop = new Runnable() {
+        @Override
+        public void run() {
+            long writtenFrames = 0; // Frames written since the track last started
+            int idleFrames = IDLE_FRAMES;
+            boolean playing = false;
+
+            while (true) {
+                boolean active;
+                synchronized (mLock) {
+
+                    // Pause once idle, and wait for the next trigger
+                    while (!mReleased && idleFrames >= IDLE_FRAMES && findActive() == null) {
+                        if (playing) {
+                            mTrack.pause();
+                            mTrack.flush();
+                            clearLatencies();
+                            playing = false;
+                        }
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mReleased) {
+                        return;
+                    }
+                    if (!playing) {
+                        writtenFrames = 0;
+                    }
+                    active = mix(writtenFrames);
+                }
+
+                idleFrames = active ? 0 : idleFrames + MIX_FRAMES;
+                try {
+                    if (!playing) {
+                        mTrack.play();
+                        playing = true;
+                    }
+                    if (mTrack.write(mOutBuffer, 0, mOutBuffer.length) < 0) {
+                        throw new IllegalStateException("write failed");
+                    }
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Could not play the mix, stopping the mixer: " + e.getMessage());
+                    fail();
+                    return;
+                }
+                writtenFrames += MIX_FRAMES;
+
+                if (mTimestamp != null) {
+                    synchronized (mLock) {
+                        resolveLatencies(writtenFrames);
+                    }
+                }
+            }
+        }
+
+        // Make the mixer unavailable, and silence its voices
+        private void fail() {
+            synchronized (mLock) {
+                mFailed = true;
+                for (Voice voice : mVoices) {
+                    voice.clear();
+                }
+            }
+        }
+
+        private Voice findActive() {
+            for (Voice voice : mVoices) {
+                if (voice.isActive()) {
+                    return voice;
+                }
+            }
+            return null;
+        }
+    };
+}
@@ -0,0 +1,20 @@
+package com.spencerbarton.echoexplorer.audio;
+
+/**
+ * CancellationToken is handed to every playback request, and is checked by the callbacks that the
+ * request leaves pending (completion markers, delayed steps of a sequence). Once a request is
+ * superseded or stopped, its token is cancelled, and any stale callback becomes a no-op instead of
+ * acting on whatever is playing now.
+ */
+public class CancellationToken {
+
+    private volatile boolean mCancelled = false;
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+}
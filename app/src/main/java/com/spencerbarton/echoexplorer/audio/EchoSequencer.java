@@ -0,0 +1,63 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * EchoSequencer renders a train of clips separated by silence into a single clip, so that the
+ * whole train can be played as one stream. The gaps are counted in frames, which makes their
+ * timing exact to the sample regardless of the load on the main thread.
+ */
+public class EchoSequencer {
+
+    /**
+     * Renders the clips one after another into a single clip, with gapMs of silence between
+     * consecutive clips. Mono clips are duplicated to both channels if any clip is stereo.
+     *
+     * @param clips The clips to render, in order.
+     * @param gapMs The silence between consecutive clips, in milliseconds.
+     * @return A new clip holding the whole train.
+     * @throws IllegalArgumentException There are no clips, or their sample rates differ.
+     **/
+    public static PcmClip render(PcmClip[] clips, int gapMs) {
+        if (clips.length == 0) {
+            throw new IllegalArgumentException("No clips to sequence");
+        }
+
+        // Find the output layout
+        int sampleRate = clips[0].sampleRate;
+        int channels = 1;
+        long frames = 0;
+        for (PcmClip clip : clips) {
+            if (clip.sampleRate != sampleRate) {
+                throw new IllegalArgumentException("Cannot sequence clips at " + sampleRate +
+                        " Hz and " + clip.sampleRate + " Hz");
+            }
+            channels = Math.max(channels, clip.channels);
+            frames += clip.getFrameCount();
+        }
+        int gapFrames = (int) ((long) gapMs * sampleRate / 1000);
+        frames += (long) gapFrames * (clips.length - 1);
+
+        // Copy each clip in at its offset, the gaps are left zeroed
+        short[] samples = new short[(int) (frames * channels)];
+        int offset = 0;
+        for (PcmClip clip : clips) {
+            ShortBuffer source = clip.getSamples();
+            if (clip.channels == channels) {
+                int count = source.remaining();
+                source.get(samples, offset, count);
+                offset += count;
+            } else {
+                while (source.hasRemaining()) {
+                    short sample = source.get();
+                    for (int c = 0; c < channels; c++) {
+                        samples[offset++] = sample;
+                    }
+                }
+            }
+            offset += gapFrames * channels;
+        }
+
+        return new PcmClip(samples, channels, sampleRate);
+    }
+}
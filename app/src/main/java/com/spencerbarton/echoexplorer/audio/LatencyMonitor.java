@@ -0,0 +1,232 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LatencyMonitor collects the tap-to-sound latencies of the current session, that is the time
+ * from a press on the echo button to the first audible sample of the echo. There is a single
+ * monitor per process, so the session lasts as long as the app.
+ *
+ * Each sample records how it was measured. Timestamp samples come from AudioTrack.getTimestamp
+ * (API 19+), and include the output latency of the device. Start samples are the time at which
+ * playback was started, and so underestimate the latency by the output latency.
+ *
+ * The monitor reports the p50, p95 and p99 of the latencies, overall and for each clip, along with
+ * a histogram, and can export the raw samples as a CSV file.
+ */
+public class LatencyMonitor {
+
+    /** The method of samples measured with the presentation timestamp of the first frame. */
+    public static final String METHOD_TIMESTAMP = "timestamp";
+    /** The method of samples measured at the start of playback. */
+    public static final String METHOD_START = "start";
+
+    /** The most samples kept in a session, later samples are dropped. */
+    private static final int MAX_SAMPLES = 10000;
+    /** The width of the histogram buckets, in milliseconds. */
+    private static final int BUCKET_MS = 10;
+    /** The number of histogram buckets, the last one holds everything above. */
+    private static final int BUCKET_COUNT = 20;
+
+    /** The monitor of this process. */
+    private static final LatencyMonitor sInstance = new LatencyMonitor();
+
+    /** The samples of this session, in the order they were recorded. */
+    private final List<Sample> mSamples = new ArrayList<>();
+    /** The number of samples dropped once the session was full. */
+    private int mDropped = 0;
+
+    /**
+     * A single measured latency.
+     */
+    public static class Sample {
+
+        /** The wall clock time at which the sample was recorded, in ms since the epoch. */
+        public final long time;
+        /** The name of the clip that was played. */
+        public final String clip;
+        /** The latency from the touch to the first sample, in milliseconds. */
+        public final float latencyMs;
+        /** How the latency was measured, METHOD_TIMESTAMP or METHOD_START. */
+        public final String method;
+
+        public Sample(long time, String clip, float latencyMs, String method) {
+            this.time = time;
+            this.clip = clip;
+            this.latencyMs = latencyMs;
+            this.method = method;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return The monitor of this process.
+     **/
+    public static LatencyMonitor getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param clip The name of the clip that was played.
+     * @param latencyMs The latency from the touch to the first sample, in milliseconds.
+     * @param method How the latency was measured, METHOD_TIMESTAMP or METHOD_START.
+     **/
+    public synchronized void record(String clip, float latencyMs, String method) {
+        if (mSamples.size() >= MAX_SAMPLES) {
+            mDropped++;
+            return;
+        }
+        mSamples.add(new Sample(System.currentTimeMillis(), clip, latencyMs, method));
+    }
+
+    /**
+     * Discards the samples of the session.
+     **/
+    public synchronized void reset() {
+        mSamples.clear();
+        mDropped = 0;
+    }
+
+    /**
+     * @return The number of samples in the session.
+     **/
+    public synchronized int getSampleCount() {
+        return mSamples.size();
+    }
+
+    /**
+     * @return The percentiles of the session overall and for each clip, and a histogram, as text.
+     **/
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        if (mSamples.isEmpty()) {
+            return "No latency samples yet, press the echo button in a lesson.";
+        }
+
+        // Group the latencies by clip, sorted by name
+        Map<String, List<Float>> byClip = new TreeMap<>();
+        float[] all = new float[mSamples.size()];
+        int timestamps = 0;
+        for (int i = 0; i < all.length; i++) {
+            Sample sample = mSamples.get(i);
+            all[i] = sample.latencyMs;
+            if (METHOD_TIMESTAMP.equals(sample.method)) {
+                timestamps++;
+            }
+
+            List<Float> latencies = byClip.get(sample.clip);
+            if (latencies == null) {
+                latencies = new ArrayList<>();
+                byClip.put(sample.clip, latencies);
+            }
+            latencies.add(sample.latencyMs);
+        }
+
+        report.append(String.format(Locale.US, "%d samples (%d by timestamp, %d at start)",
+                all.length, timestamps, all.length - timestamps));
+        if (mDropped > 0) {
+            report.append(", ").append(mDropped).append(" dropped");
+        }
+        report.append("\n\n");
+
+        report.append(String.format(Locale.US, "%-24s %5s %7s %7s %7s\n", "clip", "n", "p50",
+                "p95", "p99"));
+        appendPercentiles(report, "all", all);
+        for (Map.Entry<String, List<Float>> entry : byClip.entrySet()) {
+            List<Float> latencies = entry.getValue();
+            float[] values = new float[latencies.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = latencies.get(i);
+            }
+            appendPercentiles(report, entry.getKey(), values);
+        }
+
+        report.append("\n");
+        appendHistogram(report, all);
+        return report.toString();
+    }
+
+    /**
+     * Writes the samples of the session to the given file as CSV, with a header row.
+     *
+     * @param file The file to write, which is replaced if it exists.
+     * @throws IOException The file cannot be written.
+     **/
+    public synchronized void export(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("time,clip,method,latency_ms");
+            for (Sample sample : mSamples) {
+                // Clip names of synthetic echoes contain commas, so they are quoted
+                writer.println(String.format(Locale.US, "%d,\"%s\",%s,%.2f", sample.time,
+                        sample.clip, sample.method, sample.latencyMs));
+            }
+            if (writer.checkError()) {
+                throw new IOException("Could not write " + file);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns a percentile of the given latencies, using the nearest rank.
+     *
+     * @param sorted The latencies, in ascending order.
+     * @param percentile The percentile to return, in (0, 100].
+     * @return The latency at the percentile, or 0 if there are none.
+     **/
+    public static float percentile(float[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0f;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private static void appendPercentiles(StringBuilder report, String clip, float[] latencies) {
+        Arrays.sort(latencies);
+        report.append(String.format(Locale.US, "%-24s %5d %7.1f %7.1f %7.1f\n", clip,
+                latencies.length, percentile(latencies, 50), percentile(latencies, 95),
+                percentile(latencies, 99)));
+    }
+
+    private static void appendHistogram(StringBuilder report, float[] latencies) {
+        int[] counts = new int[BUCKET_COUNT];
+        int most = 0;
+        for (float latency : latencies) {
+            int bucket = Math.max(0, Math.min(BUCKET_COUNT - 1, (int) (latency / BUCKET_MS)));
+            most = Math.max(most, ++counts[bucket]);
+        }
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            String range = (i < BUCKET_COUNT - 1) ?
+                    String.format(Locale.US, "%3d-%3d ms", i * BUCKET_MS, (i + 1) * BUCKET_MS) :
+                    String.format(Locale.US, "   %3d+ ms", i * BUCKET_MS);
+            report.append(range).append(String.format(Locale.US, " %5d ", counts[i]));
+            int bar = (most == 0) ? 0 : (counts[i] * 30 + most - 1) / most;
+            for (int j = 0; j < bar; j++) {
+                report.append('#');
+            }
+            report.append('\n');
+        }
+    }
+}
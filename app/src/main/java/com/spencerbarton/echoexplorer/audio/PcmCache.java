@@ -0,0 +1,196 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PcmCache is a least-recently-used cache of loaded clips, keyed by raw resource id, and bounded
+ * by a budget in bytes rather than a number of entries. When an insertion pushes the cache over
+ * its budget, the least recently used entries are evicted and handed to the eviction listener,
+ * which releases whatever native resources they hold.
+ *
+ * The cache keeps statistics for tuning the budget: the hit rate of lookups, the number of bytes
+ * resident, and the number of evictions. All methods are thread-safe.
+ */
+public class PcmCache<V> {
+
+    /** The entries, in access order (least recently used first). */
+    private final LinkedHashMap<Integer, Entry<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Notified of every entry that is evicted or removed. */
+    private final OnEvictedListener<V> mListener;
+
+    /** The budget, in bytes. */
+    private long mMaxBytes;
+    /** The sum of the sizes of the resident entries, in bytes. */
+    private long mResidentBytes = 0;
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mEvictionCount = 0;
+
+    /**
+     * Listener for entries leaving the cache.
+     */
+    public interface OnEvictedListener<V> {
+        public void onEvicted(int key, V value);
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxBytes The budget of the cache, in bytes.
+     * @param listener Notified of every entry that leaves the cache, may be null.
+     **/
+    public PcmCache(long maxBytes, OnEvictedListener<V> listener) {
+        mMaxBytes = maxBytes;
+        mListener = listener;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Looks up the entry for the key, marking it as the most recently used one. The lookup is
+     * counted as a hit or a miss.
+     *
+     * @param key The raw resource id.
+     * @return The cached value, or null if it is not resident.
+     **/
+    public synchronized V get(int key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Looks up the entry for the key like get, marking it as the most recently used one, but
+     * without counting the lookup. For callers that already counted it.
+     *
+     * @param key The raw resource id.
+     * @return The cached value, or null if it is not resident.
+     **/
+    public synchronized V peek(int key) {
+        Entry<V> entry = mEntries.get(key);
+        return (entry != null) ? entry.value : null;
+    }
+
+    /**
+     * Checks if the key is resident, without counting a lookup or changing the eviction order.
+     *
+     * @param key The raw resource id.
+     * @return True if the key is resident.
+     **/
+    public synchronized boolean contains(int key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Inserts the value as the most recently used entry, replacing any entry with the same key,
+     * then evicts entries until the cache is within its budget. An entry larger than the whole
+     * budget is evicted immediately.
+     *
+     * @param key The raw resource id.
+     * @param value The value to cache.
+     * @param bytes The size of the value, in bytes.
+     **/
+    public synchronized void put(int key, V value, long bytes) {
+        Entry<V> previous = mEntries.put(key, new Entry<>(value, bytes));
+        mResidentBytes += bytes;
+        if (previous != null) {
+            mResidentBytes -= previous.bytes;
+            notifyEvicted(key, previous);
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Evicts the least recently used entries until at most maxBytes are resident.
+     *
+     * @param maxBytes The number of bytes that may stay resident.
+     **/
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Integer, Entry<V>>> it = mEntries.entrySet().iterator();
+        while (mResidentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Integer, Entry<V>> eldest = it.next();
+            it.remove();
+            mResidentBytes -= eldest.getValue().bytes;
+            mEvictionCount++;
+            notifyEvicted(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Evicts every entry.
+     **/
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * Changes the budget of the cache, evicting entries if it shrinks.
+     *
+     * @param maxBytes The new budget, in bytes.
+     **/
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return The fraction of lookups that were hits, or 0 if there have been none.
+     **/
+    public synchronized float getHitRate() {
+        int lookups = mHitCount + mMissCount;
+        return (lookups == 0) ? 0 : (float) mHitCount / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PcmCache[maxBytes=%d,residentBytes=%d,entries=%d,hits=%d," +
+                "misses=%d,hitRate=%d%%,evictions=%d]", mMaxBytes, mResidentBytes,
+                mEntries.size(), mHitCount, mMissCount, (int) (getHitRate() * 100),
+                mEvictionCount);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private void notifyEvicted(int key, Entry<V> entry) {
+        if (mListener != null) {
+            mListener.onEvicted(key, entry.value);
+        }
+    }
+}
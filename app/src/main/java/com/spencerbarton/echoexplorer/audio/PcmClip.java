@@ -0,0 +1,141 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * PcmClip holds a single clip of 16-bit linear PCM audio. The samples are interleaved when the
+ * clip has more than one channel (left, right, left, right, ...), which is the layout expected by
+ * AudioTrack.
+ *
+ * The samples are stored as little-endian bytes, either in a buffer on the Java heap (decoded
+ * clips), or in a read-only buffer mapped directly onto the resource file (mapped clips), in which
+ * case the samples never occupy the Java heap.
+ */
+public class PcmClip {
+
+    /** The size of a single sample, in bytes. */
+    public static final int BYTES_PER_SAMPLE = 2;
+
+    /** The interleaved little-endian samples of the clip, from position 0 to the limit. */
+    private final ByteBuffer mData;
+    /** The number of interleaved channels (1 for mono, 2 for stereo). */
+    public final int channels;
+    /** The sample rate of the clip, in Hz. */
+    public final int sampleRate;
+
+    /**
+     * Constructs a new clip holding a little-endian copy of the given samples.
+     *
+     * @param samples The interleaved 16-bit samples.
+     * @param channels The number of interleaved channels.
+     * @param sampleRate The sample rate, in Hz.
+     **/
+    public PcmClip(short[] samples, int channels, int sampleRate) {
+        this(toBytes(samples), channels, sampleRate);
+    }
+
+    /**
+     * Constructs a new clip around the given sample bytes. The bytes are not copied.
+     *
+     * @param data The interleaved little-endian 16-bit samples, from position 0 to the limit.
+     * @param channels The number of interleaved channels.
+     * @param sampleRate The sample rate, in Hz.
+     **/
+    public PcmClip(ByteBuffer data, int channels, int sampleRate) {
+        mData = data.order(ByteOrder.LITTLE_ENDIAN);
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return A new read-only view of the sample bytes, positioned at the first sample.
+     **/
+    public ByteBuffer getBytes() {
+        return mData.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return A new view of the samples, positioned at the first sample.
+     **/
+    public ShortBuffer getSamples() {
+        return getBytes().asShortBuffer();
+    }
+
+    /**
+     * Reads a single sample in place, without creating a view of the samples.
+     *
+     * @param index The index of the sample, across all channels.
+     * @return The sample.
+     **/
+    public short getSample(int index) {
+        return mData.getShort(index * BYTES_PER_SAMPLE);
+    }
+
+    /**
+     * @return True if the samples are mapped from a file rather than held on the Java heap.
+     **/
+    public boolean isMapped() {
+        return mData.isDirect();
+    }
+
+    /**
+     * @return The backing array of the sample bytes, or null if the clip is mapped.
+     **/
+    public byte[] getArray() {
+        return mData.hasArray() ? mData.array() : null;
+    }
+
+    /**
+     * @return The offset of the first sample byte in the backing array.
+     **/
+    public int getArrayOffset() {
+        return mData.arrayOffset();
+    }
+
+    /**
+     * @return The number of samples in the clip, across all channels.
+     **/
+    public int getSampleCount() {
+        return mData.limit() / BYTES_PER_SAMPLE;
+    }
+
+    /**
+     * @return The number of frames in the clip, where a frame holds one sample per channel.
+     **/
+    public int getFrameCount() {
+        return getSampleCount() / channels;
+    }
+
+    /**
+     * @return The size of the sample data, in bytes.
+     **/
+    public int getSizeInBytes() {
+        return mData.limit();
+    }
+
+    /**
+     * @return The number of bytes of sample data held on the Java heap.
+     **/
+    public int getHeapBytes() {
+        return isMapped() ? 0 : getSizeInBytes();
+    }
+
+    /**
+     * @return The duration of the clip, in milliseconds.
+     **/
+    public long getDurationMs() {
+        return (getFrameCount() * 1000L) / sampleRate;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private static ByteBuffer toBytes(short[] samples) {
+        ByteBuffer data = ByteBuffer.allocate(samples.length * BYTES_PER_SAMPLE);
+        data.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(samples);
+        return data;
+    }
+}
@@ -0,0 +1,138 @@
+package com.spencerbarton.echoexplorer.audio;
+
+/**
+ * PcmRingBuffer is a fixed-size, blocking ring buffer of PCM bytes between one producer thread
+ * and one consumer thread. The producer blocks while the buffer is full, and the consumer blocks
+ * while it is empty, so the memory used stays the same however much audio passes through it.
+ *
+ * The capacity, and the length of every write and read, must be a multiple of ALIGNMENT. This
+ * keeps every read a whole number of frames for both mono and stereo 16-bit audio.
+ */
+public class PcmRingBuffer {
+
+    /** The granularity of the capacity, writes and reads, in bytes. */
+    public static final int ALIGNMENT = 4;
+
+    /** The storage of the buffer. */
+    private final byte[] mBuffer;
+    /** The index of the next byte to read. */
+    private int mReadPos = 0;
+    /** The number of bytes that are buffered. */
+    private int mSize = 0;
+    /** Whether the producer has written everything it will write. */
+    private boolean mEndOfStream = false;
+    /** Whether the buffer was closed, which aborts both sides. */
+    private boolean mClosed = false;
+
+    /**
+     * Constructs a new, empty ring buffer.
+     *
+     * @param capacity The size of the buffer in bytes, a multiple of ALIGNMENT.
+     **/
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity % ALIGNMENT != 0) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is not a positive " +
+                    "multiple of " + ALIGNMENT);
+        }
+        mBuffer = new byte[capacity];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Writes all of the given bytes, blocking while the buffer is full.
+     *
+     * @param src The bytes to write.
+     * @param offset The index of the first byte to write.
+     * @param length The number of bytes to write, a multiple of ALIGNMENT.
+     * @return False if the buffer was closed before all of the bytes were written.
+     * @throws InterruptedException The thread was interrupted while waiting.
+     **/
+    public synchronized boolean write(byte[] src, int offset, int length)
+            throws InterruptedException
+    {
+        checkAligned(length);
+        while (length > 0) {
+            while (mSize == mBuffer.length && !mClosed) {
+                wait();
+            }
+            if (mClosed) {
+                return false;
+            }
+
+            // Copy up to the end of the free space, or of the storage, whichever comes first
+            int writePos = (mReadPos + mSize) % mBuffer.length;
+            int count = Math.min(length, Math.min(mBuffer.length - mSize,
+                    mBuffer.length - writePos));
+            System.arraycopy(src, offset, mBuffer, writePos, count);
+            mSize += count;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to length bytes, blocking while the buffer is empty and the producer has not
+     * reached the end of its stream.
+     *
+     * @param dst The array to read into.
+     * @param offset The index in dst of the first byte read.
+     * @param length The largest number of bytes to read, a multiple of ALIGNMENT.
+     * @return The number of bytes read, or -1 once the stream has ended or the buffer was closed.
+     * @throws InterruptedException The thread was interrupted while waiting.
+     **/
+    public synchronized int read(byte[] dst, int offset, int length) throws InterruptedException {
+        checkAligned(length);
+        while (mSize == 0 && !mEndOfStream && !mClosed) {
+            wait();
+        }
+        if (mClosed || mSize == 0) {
+            return -1;
+        }
+
+        int count = Math.min(length, Math.min(mSize, mBuffer.length - mReadPos));
+        System.arraycopy(mBuffer, mReadPos, dst, offset, count);
+        mReadPos = (mReadPos + count) % mBuffer.length;
+        mSize -= count;
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * Marks the end of the stream, after which reads drain the buffer and then return -1.
+     **/
+    public synchronized void endOfStream() {
+        mEndOfStream = true;
+        notifyAll();
+    }
+
+    /**
+     * Closes the buffer, waking and aborting the producer and consumer. Buffered bytes are lost.
+     **/
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return The size of the buffer, in bytes.
+     **/
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private static void checkAligned(int length) {
+        if (length < 0 || length % ALIGNMENT != 0) {
+            throw new IllegalArgumentException("Length " + length + " is not a multiple of " +
+                    ALIGNMENT);
+        }
+    }
+}
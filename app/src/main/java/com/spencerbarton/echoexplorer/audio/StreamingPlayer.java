@@ -0,0 +1,365 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import android.content.res.Resources;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * StreamingPlayer plays a long raw resource through a stream-mode AudioTrack, without ever
+ * holding the whole clip in memory. A reader thread reads the samples from the resource into a
+ * fixed-size PcmRingBuffer, and a writer thread drains the ring into the track. The memory used is
+ * the ring, two small chunk arrays and the track's own buffer, whatever the length of the clip.
+ *
+ * A player plays its clip once. It releases its track once the clip has played or is stopped, and
+ * never while the writer thread may still be inside the track, so a stopped writer releases the
+ * track itself on its way out.
+ *
+ * The completion fires at a marker on the last frame of the clip. If the stream ends early (the
+ * resource is truncated or cannot be read), the marker is moved back to the last frame written,
+ * and if the writer fails, the track is released and the completion delivered at once, so that a
+ * listener always hears of the end of a clip that was not stopped.
+ */
+public class StreamingPlayer {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = StreamingPlayer.class.getName();
+
+    /** The size of the chunks moved by the reader and writer threads, in bytes. */
+    private static final int CHUNK_BYTES = 8 * 1024;
+    /** The factor by which the track's buffer exceeds the smallest buffer it allows. */
+    private static final int TRACK_BUFFER_FACTOR = 2;
+    /** How long stop waits for the writer thread to leave the track, in milliseconds. */
+    private static final int STOP_TIMEOUT_MS = 200;
+
+    /** The raw resource, positioned at its first sample once the header is read. */
+    private final InputStream mStream;
+    /** The format and size of the samples in the stream. */
+    private final WavDecoder.Header mHeader;
+    /** The ring between the reader and writer threads. */
+    private final PcmRingBuffer mRing;
+    /** The stream-mode track that the clip is played through. */
+    private final AudioTrack mTrack;
+    /** Delivers the completion on the main thread. */
+    private final Handler mHandler;
+    /** Cancelled once the player is stopped. */
+    private final CancellationToken mToken = new CancellationToken();
+
+    /** Reads the resource into the ring. */
+    private Thread mReaderThread;
+    /** Drains the ring into the track. */
+    private Thread mWriterThread;
+    /** The listener to notify when the clip reaches its end. Only used on the handler's thread. */
+    private AudioEngine.OnCompletionListener mListener;
+    /** The number of frames in the clip, where the completion marker is set. */
+    private int mFrameCount;
+    /** Whether stop() was called. Only used on the handler's thread. */
+    private boolean mStopped = false;
+    /** Whether the track was released, or is to be once the writer exits. Guarded by this. */
+    private boolean mReleased = false;
+    /** Whether the writer thread has left the track for good. Guarded by this. */
+    private boolean mWriterExited = true;
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Opens the given raw resource and creates the track that it is streamed into.
+     *
+     * @param resources The resources to open the raw resource from.
+     * @param resId The id of the raw resource to stream.
+     * @param ringBytes The size of the ring buffer, a multiple of PcmRingBuffer.ALIGNMENT.
+     * @param handler The handler of the thread that completions are delivered on.
+     * @throws IOException The resource cannot be read, or is not a supported WAV file.
+     **/
+    public StreamingPlayer(Resources resources, int resId, int ringBytes, Handler handler)
+            throws IOException
+    {
+        mHandler = handler;
+        mRing = new PcmRingBuffer(ringBytes);
+
+        try {
+            mStream = resources.openRawResource(resId);
+        } catch (Resources.NotFoundException e) {
+            throw new IOException("No raw resource " + resId);
+        }
+
+        try {
+            mHeader = WavDecoder.readHeader(new DataInputStream(mStream));
+            mTrack = createStreamTrack(mHeader);
+        } catch (IOException e) {
+            mStream.close();
+            throw e;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Starts the reader and writer threads, and with them playback.
+     *
+     * @param listener Notified on the main thread once the clip has played, may be null.
+     * @return The token of this playback, cancelled once it is stopped.
+     **/
+    public CancellationToken start(AudioEngine.OnCompletionListener listener) {
+        mListener = listener;
+
+        // The marker counts frames written since play, so it fires once the last one is heard
+        mFrameCount = mHeader.dataSize / getFrameBytes();
+        mTrack.setNotificationMarkerPosition(mFrameCount);
+        mTrack.setPlaybackPositionUpdateListener(mMarkerListener, mHandler);
+
+        mReaderThread = new Thread(mReader, "AudioStreamReader");
+        mWriterThread = new Thread(mWriter, "AudioStreamWriter");
+        mWriterThread.setPriority(Thread.MAX_PRIORITY);
+        synchronized (this) {
+            mWriterExited = false;
+        }
+        mReaderThread.start();
+        mWriterThread.start();
+        return mToken;
+    }
+
+    /**
+     * Stops playback and releases the track. The completion listener is not called. Must be
+     * called on the thread that completions are delivered on.
+     **/
+    public void stop() {
+        // The token may already be cancelled by its holder, which still needs the track stopped
+        if (mStopped) {
+            return;
+        }
+        mStopped = true;
+        mToken.cancel();
+        if (isReleased()) {
+            return; // Completed, or failed
+        }
+        mRing.close();
+
+        // Stopping the track returns the writer from a blocking write
+        mTrack.setPlaybackPositionUpdateListener(null);
+        mTrack.stop();
+        if (mWriterThread != null) {
+            try {
+                mWriterThread.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Left to the writer if it is still inside the track
+        release();
+    }
+
+    /**
+     * @return The size of the ring buffer, in bytes.
+     **/
+    public int getRingBytes() {
+        return mRing.getCapacity();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Releases the track now if the writer has exited, otherwise once it does
+    private synchronized void release() {
+        if (!mReleased) {
+            mReleased = true;
+            if (mWriterExited) {
+                mTrack.release();
+            }
+        }
+    }
+
+    // Called by the writer as it exits, releases the track if that was put off until now
+    private synchronized void onWriterExited() {
+        mWriterExited = true;
+        if (mReleased) {
+            mTrack.release();
+        }
+    }
+
+    private synchronized boolean isReleased() {
+        return mReleased;
+    }
+
+    private int getFrameBytes() {
+        return mHeader.channels * PcmClip.BYTES_PER_SAMPLE;
+    }
+
+    // Called by the writer once the ring is drained short of the end of the clip, moves the
+    // completion to the last frame written, or completes now if it has already been played
+    private void onStreamEndedEarly(int writtenFrames) {
+        Log.w(TAG, "Stream ended after " + writtenFrames + " of " + mFrameCount + " frames");
+        if (writtenFrames > 0) {
+            mTrack.setNotificationMarkerPosition(writtenFrames);
+        }
+        if (writtenFrames == 0 || mTrack.getPlaybackHeadPosition() >= writtenFrames) {
+            mHandler.post(mCompletion);
+        }
+    }
+
+    // Releases the track and notifies the listener, on the handler's thread, unless stopped
+    private void complete() {
+        if (mToken.isCancelled()) {
+            return;
+        }
+        release();
+
+        AudioEngine.OnCompletionListener listener = mListener;
+        mListener = null;
+        if (listener != null) {
+            listener.onCompletion();
+        }
+    }
+
+    private static AudioTrack createStreamTrack(WavDecoder.Header header) throws IOException {
+        int channelConfig = (header.channels == 1) ? AudioFormat.CHANNEL_OUT_MONO :
+                AudioFormat.CHANNEL_OUT_STEREO;
+        int minBytes = AudioTrack.getMinBufferSize(header.sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBytes <= 0) {
+            throw new IOException("Unsupported stream format (" + header.channels +
+                    " channels at " + header.sampleRate + " Hz)");
+        }
+
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, header.sampleRate,
+                channelConfig, AudioFormat.ENCODING_PCM_16BIT, minBytes * TRACK_BUFFER_FACTOR,
+                AudioTrack.MODE_STREAM);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            throw new IOException("AudioTrack could not initialize (" + header.channels +
+                    " channels at " + header.sampleRate + " Hz)");
+        }
+        return track;
+    }
+
+    // Reads the samples from the resource into the ring, then marks the end of the stream
+    private final Runnable mReader = new Runnable() {
+        @Override
+        public void run() {
+            byte[] chunk = new byte[CHUNK_BYTES];
+            DataInputStream in = new DataInputStream(new BufferedInputStream(mStream,
+                    CHUNK_BYTES));
+            int remaining = mHeader.dataSize;
+
+            try {
+                while (remaining > 0 && !mToken.isCancelled()) {
+                    int count = Math.min(remaining, CHUNK_BYTES);
+                    in.readFully(chunk, 0, count);
+                    remaining -= count;
+
+                    // Pad a final odd mono frame with silence to keep the ring aligned
+                    int aligned = count;
+                    while (aligned % PcmRingBuffer.ALIGNMENT != 0) {
+                        chunk[aligned++] = 0;
+                    }
+                    if (!mRing.write(chunk, 0, aligned)) {
+                        return;
+                    }
+                }
+                mRing.endOfStream();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read the stream: " + e.getMessage());
+                mRing.endOfStream();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(TAG, e.getMessage());
+                }
+            }
+        }
+    };
+
+    // Drains the ring into the track, which blocks while the track's buffer is full
+    private final Runnable mWriter = new Runnable() {
+        @Override
+        public void run() {
+            byte[] chunk = new byte[CHUNK_BYTES];
+            long writtenBytes = 0;
+            boolean failed = false;
+
+            try {
+                // Play before the first write, a stream track that is not playing may take less
+                // than a chunk, and holds frames until it is started
+                mTrack.play();
+
+                int count;
+                while ((count = mRing.read(chunk, 0, CHUNK_BYTES)) > 0) {
+
+                    // A write may be short, write the rest of the chunk until it is all taken
+                    int offset = 0;
+                    while (offset < count) {
+                        if (mToken.isCancelled()) {
+                            return;
+                        }
+                        int written = mTrack.write(chunk, offset, count - offset);
+                        if (written < 0) {
+                            Log.e(TAG, "Could not write the stream: " + written);
+                            failed = true;
+                            return;
+                        }
+                        offset += written;
+                        writtenBytes += written;
+                    }
+                }
+
+                int writtenFrames = (int) (writtenBytes / getFrameBytes());
+                if (writtenFrames < mFrameCount && !mToken.isCancelled()) {
+                    onStreamEndedEarly(writtenFrames);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IllegalStateException e) {
+                // The track was stopped underneath the writer, or failed
+                Log.i(TAG, "Stream stopped: " + e.getMessage());
+                failed = !mToken.isCancelled();
+            } finally {
+                onWriterExited();
+
+                // The clip cannot play on, so the reader is stopped and the track released
+                if (failed) {
+                    mRing.close();
+                    release();
+                    mHandler.post(mCompletion);
+                }
+            }
+        }
+    };
+
+    // Completes without waiting for the marker, posted when the stream ends early or fails
+    private final Runnable mCompletion = new Runnable() {
+        @Override
+        public void run() {
+            complete();
+        }
+    };
+
+    private final AudioTrack.OnPlaybackPositionUpdateListener mMarkerListener =
+            new AudioTrack.OnPlaybackPositionUpdateListener() {
+
+        @Override
+        public void onMarkerReached(AudioTrack track) {
+            complete();
+        }
+
+        @Override
+        public void onPeriodicNotification(AudioTrack track) {
+            // Not used
+        }
+    };
+}
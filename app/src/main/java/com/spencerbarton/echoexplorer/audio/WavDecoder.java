@@ -0,0 +1,184 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import android.content.res.Resources;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * WavDecoder decodes uncompressed RIFF/WAVE files into PcmClip objects. Only 16-bit linear PCM
+ * data is supported, which is the format of every clip in res/raw. Unknown chunks (e.g. LIST
+ * metadata) are skipped.
+ *
+ * WavDecoder reads the whole clip onto the Java heap, see WavReader for mapping it instead.
+ */
+public class WavDecoder {
+
+    /** The format tag of uncompressed linear PCM data in the fmt chunk. */
+    private static final int WAVE_FORMAT_PCM = 1;
+    /** The only sample size that is supported, in bits. */
+    private static final int BITS_PER_SAMPLE = 16;
+
+    /**
+     * The format and size of the samples of a WAV file, read from its fmt and data chunks.
+     */
+    public static class Header {
+
+        /** The number of interleaved channels. */
+        public final int channels;
+        /** The sample rate, in Hz. */
+        public final int sampleRate;
+        /** The size of the samples, in bytes. */
+        public final int dataSize;
+
+        Header(int channels, int sampleRate, int dataSize) {
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+            this.dataSize = dataSize;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes the given raw resource into a clip.
+     *
+     * @param resources The resources to open the raw resource from.
+     * @param resId The id of the raw resource (R.raw.*).
+     * @return The decoded clip.
+     * @throws IOException The resource cannot be read, or is not a supported WAV file.
+     **/
+    public static PcmClip decode(Resources resources, int resId) throws IOException {
+        InputStream stream = resources.openRawResource(resId);
+        try {
+            return decode(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Decodes a WAV file from the given stream into a clip. The stream is not closed.
+     *
+     * @param stream The stream positioned at the start of the RIFF header.
+     * @return The decoded clip.
+     * @throws IOException The stream cannot be read, or is not a supported WAV file.
+     **/
+    public static PcmClip decode(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        Header header = readHeader(in);
+
+        // The samples are already little-endian, so they are used as they are read
+        byte[] data = new byte[header.dataSize];
+        in.readFully(data);
+        return new PcmClip(ByteBuffer.wrap(data), header.channels, header.sampleRate);
+    }
+
+    /**
+     * Reads a WAV file from the given stream up to the start of its samples, for callers that
+     * read the samples themselves (e.g. to stream them). The stream is not closed.
+     *
+     * @param in The stream positioned at the start of the RIFF header.
+     * @return The format and size of the samples, which follow in the stream.
+     * @throws IOException The stream cannot be read, or is not a supported WAV file.
+     **/
+    public static Header readHeader(DataInputStream in) throws IOException {
+        if (readTag(in) != 0x46464952 /* RIFF */) {
+            throw new IOException("Not a RIFF file");
+        }
+        readInt(in); // Size of the RIFF chunk
+        if (readTag(in) != 0x45564157 /* WAVE */) {
+            throw new IOException("Not a WAVE file");
+        }
+
+        int channels = -1;
+        int sampleRate = -1;
+
+        // Walk the chunks until the data chunk is found
+        while (true) {
+            int tag = readTag(in);
+            int size = readInt(in);
+            if (size < 0) {
+                throw new IOException("WAV chunk of " + size + " bytes");
+            }
+
+            if (tag == 0x20746d66 /* fmt  */) {
+                if (size < 16) {
+                    throw new IOException("WAV fmt chunk of " + size + " bytes is too short");
+                }
+                int format = readShort(in);
+                channels = readShort(in);
+                sampleRate = readInt(in);
+                readInt(in);   // Byte rate
+                readShort(in); // Block align
+                int bitsPerSample = readShort(in);
+                skipFully(in, size - 16);
+
+                if (format != WAVE_FORMAT_PCM || bitsPerSample != BITS_PER_SAMPLE) {
+                    throw new IOException("Unsupported WAV format " + format + " with " +
+                            bitsPerSample + " bits per sample");
+                }
+                checkFormat(channels, sampleRate);
+            } else if (tag == 0x61746164 /* data */) {
+                if (channels <= 0) {
+                    throw new IOException("WAV data chunk precedes the fmt chunk");
+                }
+                return new Header(channels, sampleRate, size);
+            } else {
+                skipFully(in, size);
+            }
+
+            // Chunks are padded to an even number of bytes
+            if ((size & 1) != 0) {
+                skipFully(in, 1);
+            }
+        }
+    }
+
+    /**
+     * Checks that the format read from a fmt chunk can be played.
+     *
+     * @param channels The number of channels, 1 or 2.
+     * @param sampleRate The sample rate, in Hz.
+     * @throws IOException The format cannot be played.
+     **/
+    static void checkFormat(int channels, int sampleRate) throws IOException {
+        if (channels < 1 || channels > 2 || sampleRate <= 0) {
+            throw new IOException("Unsupported WAV format (" + channels + " channels at " +
+                    sampleRate + " Hz)");
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Chunk tags are compared as little-endian ints, so "RIFF" reads as 0x46464952
+    private static int readTag(DataInputStream in) throws IOException {
+        return readInt(in);
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShort(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xffff;
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated WAV chunk");
+            }
+            count -= skipped;
+        }
+    }
+}
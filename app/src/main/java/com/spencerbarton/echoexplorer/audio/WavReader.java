@@ -0,0 +1,133 @@
+package com.spencerbarton.echoexplorer.audio;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * WavReader opens uncompressed RIFF/WAVE raw resources without reading their samples onto the Java
+ * heap. The resource is opened through its AssetFileDescriptor, which points into the APK, and the
+ * file is mapped read-only. Only the fmt and data chunk headers are parsed; the returned clip is a
+ * view onto the mapped data chunk, whose pages are loaded by the kernel as they are played.
+ *
+ * This only works for resources that are stored uncompressed in the APK (see aaptOptions in
+ * build.gradle). For anything else, map returns null, and WavDecoder should be used instead.
+ */
+public class WavReader {
+
+    /** The format tag of uncompressed linear PCM data in the fmt chunk. */
+    private static final int WAVE_FORMAT_PCM = 1;
+    /** The only sample size that is supported, in bits. */
+    private static final int BITS_PER_SAMPLE = 16;
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Maps the given raw resource, and returns a clip that views its data chunk.
+     *
+     * @param resources The resources to open the raw resource from.
+     * @param resId The id of the raw resource (R.raw.*).
+     * @return The mapped clip, or null if the resource is compressed and cannot be mapped.
+     * @throws IOException The resource cannot be read, or is not a supported WAV file.
+     **/
+    public static PcmClip map(Resources resources, int resId) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = resources.openRawResourceFd(resId);
+        } catch (Resources.NotFoundException e) {
+            throw new IOException("No raw resource " + resId);
+        }
+        if (fd == null) {
+            return null; // Compressed in the APK
+        }
+
+        try {
+            if (fd.getLength() < 0) {
+                return null;
+            }
+
+            // The mapping stays valid once the channel and descriptor are closed
+            FileInputStream stream = new FileInputStream(fd.getFileDescriptor());
+            try {
+                MappedByteBuffer map = stream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        fd.getStartOffset(), fd.getLength());
+                return parse(map);
+            } finally {
+                stream.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    /**
+     * Parses the chunk headers of a WAV file held in the given buffer, and returns a clip that
+     * views its data chunk. The samples are not copied.
+     *
+     * @param wav The buffer holding the whole WAV file, from position 0.
+     * @return The clip viewing the data chunk of the buffer.
+     * @throws IOException The buffer does not hold a supported WAV file.
+     **/
+    public static PcmClip parse(ByteBuffer wav) throws IOException {
+        wav.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (wav.limit() < 12 || wav.getInt(0) != 0x46464952 /* RIFF */ ||
+                wav.getInt(8) != 0x45564157 /* WAVE */) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+
+        int channels = -1;
+        int sampleRate = -1;
+
+        // Walk the chunk headers until the data chunk is found
+        int offset = 12;
+        while (offset + 8 <= wav.limit()) {
+            int tag = wav.getInt(offset);
+            int size = wav.getInt(offset + 4);
+            int body = offset + 8;
+
+            // Every chunk must lie within the file, or the walk could end out of it or never end
+            if (size < 0 || size > wav.limit() - body) {
+                throw new IOException("Truncated WAV chunk of " + size + " bytes at " + offset);
+            }
+
+            if (tag == 0x20746d66 /* fmt  */) {
+                if (size < 16) {
+                    throw new IOException("WAV fmt chunk of " + size + " bytes is too short");
+                }
+                int format = wav.getShort(body) & 0xffff;
+                channels = wav.getShort(body + 2) & 0xffff;
+                sampleRate = wav.getInt(body + 4);
+                int bitsPerSample = wav.getShort(body + 14) & 0xffff;
+
+                if (format != WAVE_FORMAT_PCM || bitsPerSample != BITS_PER_SAMPLE) {
+                    throw new IOException("Unsupported WAV format " + format + " with " +
+                            bitsPerSample + " bits per sample");
+                }
+                WavDecoder.checkFormat(channels, sampleRate);
+            } else if (tag == 0x61746164 /* data */) {
+                if (channels <= 0) {
+                    throw new IOException("WAV data chunk precedes the fmt chunk");
+                }
+
+                ByteBuffer view = wav.duplicate();
+                view.position(body);
+                view.limit(body + size);
+                return new PcmClip(view.slice(), channels, sampleRate);
+            }
+
+            // Chunks are padded to an even number of bytes
+            offset = body + size + (size & 1);
+        }
+
+        throw new IOException("WAV file has no data chunk");
+    }
+}
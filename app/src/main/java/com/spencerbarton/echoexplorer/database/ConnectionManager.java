@@ -0,0 +1,173 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * ConnectionManager shares a single read-only connection to each static database across the
+ * process. The first table to acquire a database installs it from the assets folder if needed and
+ * opens it, and every later table shares that connection instead of opening its own.
+ *
+ * The connections are reference counted. A table acquires the connection when it is constructed
+ * and releases it when it is closed. A connection that is no longer referenced stays open, so the
+ * next table does not pay for opening it again, until the application is trimmed. A connection
+ * that is still referenced when the application is trimmed is closed once its last table closes.
+ *
+ * The counters of open connections and of open calls let tests and debug builds check that no
+ * connection leaks, and that the database is opened only once per process.
+ */
+public class ConnectionManager {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = ConnectionManager.class.getName();
+
+    /** The shared connections of the process, keyed by database name. Guarded by the class. */
+    private static final Map<String, Connection> sConnections = new HashMap<>();
+
+    /** The number of times a static database was opened from disk in this process. */
+    private static int sOpenCalls = 0;
+
+    /**
+     * A shared connection, and the number of tables that hold it.
+     */
+    private static class Connection {
+
+        /** The connection to the database. */
+        final SQLiteDatabase database;
+        /** The number of tables that have acquired the connection and not yet released it. */
+        int references = 0;
+        /** Whether the connection is closed as soon as its last table releases it. */
+        boolean closeWhenIdle = false;
+
+        Connection(SQLiteDatabase database) {
+            this.database = database;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * The connection manager is never instantiated, all of its state is process-wide.
+     **/
+    private ConnectionManager() {
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Acquires the shared, read-only connection to the given static database, opening it if this
+     * process has no open connection to it. Each call must be matched by a call to release().
+     *
+     * @param context The application's context. Used to install the database from the assets
+     *                folder.
+     * @param dbName The name of the database file (not the full path, only the basename).
+     * @return The shared connection to the database.
+     * @throws SQLiteException The database file is not properly formatted.
+     * @throws IOException The database file is not writeable or readable, or the dbName does
+     *                     does not exist in the assets folder.
+     **/
+    public static synchronized SQLiteDatabase acquire(Context context, String dbName) throws
+            SQLiteException, IOException
+    {
+        Connection connection = sConnections.get(dbName);
+        if (connection == null || !connection.database.isOpen()) {
+            connection = new Connection(Database.openStaticDatabase(context, dbName, null));
+            sConnections.put(dbName, connection);
+            sOpenCalls++;
+        }
+
+        connection.references++;
+        connection.closeWhenIdle = false;
+        return connection.database;
+    }
+
+    /**
+     * Releases a connection acquired with acquire(). The connection stays open for later tables,
+     * unless the application was trimmed while it was held.
+     *
+     * @param dbName The name of the database that was acquired.
+     **/
+    public static synchronized void release(String dbName) {
+        Connection connection = sConnections.get(dbName);
+        if (connection == null || connection.references == 0) {
+            Log.e(TAG, "Released " + dbName + " more times than it was acquired");
+            return;
+        }
+
+        connection.references--;
+        if (connection.references == 0 && connection.closeWhenIdle) {
+            close(dbName, connection);
+        }
+    }
+
+    /**
+     * Closes the connections that no table holds, and marks the others to be closed once their
+     * last table releases them. Called when the application is trimmed.
+     *
+     * @param level The trim level passed to onTrimMemory, or TRIM_MEMORY_COMPLETE on low memory.
+     **/
+    public static synchronized void trim(int level) {
+        // Connections are cheap to keep while the UI is visible, and reopened on the next screen
+        if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+
+        Iterator<Map.Entry<String, Connection>> entries = sConnections.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Connection> entry = entries.next();
+            Connection connection = entry.getValue();
+            if (connection.references == 0) {
+                Log.i(TAG, "Closing idle database: " + entry.getKey());
+                connection.database.close();
+                entries.remove();
+            } else {
+                connection.closeWhenIdle = true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of connections to static databases that are currently open.
+     **/
+    public static synchronized int getOpenConnectionCount() {
+        return sConnections.size();
+    }
+
+    /**
+     * @return The number of times a static database was opened from disk in this process.
+     **/
+    public static synchronized int getOpenCallCount() {
+        return sOpenCalls;
+    }
+
+    /**
+     * @param dbName The name of a static database.
+     * @return The number of tables that currently hold the connection to the database.
+     **/
+    public static synchronized int getReferenceCount(String dbName) {
+        Connection connection = sConnections.get(dbName);
+        return (connection == null) ? 0 : connection.references;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private static void close(String dbName, Connection connection) {
+        Log.i(TAG, "Closing database: " + dbName);
+        connection.database.close();
+        sConnections.remove(dbName);
+    }
+}
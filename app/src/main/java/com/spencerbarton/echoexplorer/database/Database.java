@@ -5,21 +5,14 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
-import android.os.Build;
-import android.os.Environment;
 import android.util.Log;
 
-import com.spencerbarton.echoexplorer.BuildConfig;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.Array;
-import java.util.Scanner;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 
 /**
  * Database is an abstract base class for all database objects that implements basic functionality
@@ -35,7 +28,13 @@ import java.util.Scanner;
  *
  * The database object is completely opaque, and contains all of the information necessary for
  * accessing a database: a handle to the SQLiteDatabase object that represents the connection to the
- * database.
+ * database. Static databases are read-only, so all of their tables share one connection per
+ * process through the ConnectionManager. A database object must be closed once it is no longer
+ * needed, which releases its connection.
+ *
+ * Queries and inserts can also be run asynchronously with queryAsync() and insertRowAsync(), which
+ * run them on the DatabaseExecutor and deliver their results on the main thread. A database object
+ * must not be closed while its asynchronous requests are pending.
  *
  * @author Brandon Perez (bmperez)
  * @author Spencer Barton (sbarton)
@@ -45,14 +44,125 @@ public abstract class Database<T> {
     /** The tag that identifies this class. Used for debugging. */
     private static final String TAG = Database.class.getName();
 
-    /** The suffix to append to database paths to get the version file. */
-    private static final String VERSION_FILE_BASE = "_version.txt";
-
     /** The handle to the SQLiteDatabase object representing the connection to the database.. */
     private final SQLiteDatabase mDatabase;
+    /** The name of the database file. */
+    private final String mDatabaseName;
+    /** Indicates whether the connection is a shared one to a static database. */
+    private final boolean mStaticDatabase;
+    /** Indicates whether this database object has been closed. */
+    private boolean mClosed = false;
     /** The cursor factory that is used for custom cursors. */
     private final SQLiteDatabase.CursorFactory mCursorFactory = null;
 
+    /**
+     * A RowMapper packs the rows of a single cursor into objects of type T. The indexes of the
+     * columns it reads are resolved once, when the mapper is created for the cursor, so mapping a
+     * row only reads its typed values by index. Rows can also be packed into a holder that is
+     * reused from row to row, so a query allocates nothing per row.
+     **/
+    public interface RowMapper<T> {
+
+        /**
+         * @param cursor The cursor that the mapper was created for, positioned on a row.
+         * @return A new object holding the columns of the current row.
+         **/
+        T mapRow(Cursor cursor);
+
+        /**
+         * @param cursor The cursor that the mapper was created for, positioned on a row.
+         * @param reuse The object to overwrite with the columns of the current row, or null. Its
+         *              fields that are not columns are left as they are.
+         * @return The reused object holding the current row, or a new one if reuse is null or
+         *         the mapper cannot reuse objects.
+         **/
+        T mapRow(Cursor cursor, T reuse);
+    }
+
+    /**
+     * A RowVisitor is handed the rows of a query one at a time by forEachRow(). The row is a
+     * holder that is reused for the next row, so visitors that keep rows must copy them.
+     **/
+    public interface RowVisitor<T> {
+
+        /**
+         * @param row The next row of the query, valid until the visitor returns.
+         * @return True to continue with the next row, false to stop the query.
+         **/
+        boolean visitRow(T row);
+    }
+
+    /**
+     * A RowIterator maps the rows of a query one at a time, as they are iterated, so a query of
+     * any size is processed in constant memory. The cursor of the query is closed as soon as the
+     * last row has been returned. Callers that stop iterating early must close the iterator.
+     **/
+    public static class RowIterator<T> implements Iterator<T>, Closeable {
+
+        /** The cursor with the results of the query. */
+        private final Cursor mCursor;
+        /** Maps the current row of the cursor. */
+        private final RowMapper<T> mMapper;
+        /** Indicates whether the cursor has been closed. */
+        private boolean mClosed = false;
+
+        /**
+         * @param cursor The cursor to iterate over, which the iterator takes ownership of.
+         * @param mapper The row mapper created for the cursor.
+         **/
+        RowIterator(Cursor cursor, RowMapper<T> mapper) {
+            mCursor = cursor;
+            mMapper = mapper;
+            if (!mCursor.moveToFirst()) {
+                close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mClosed;
+        }
+
+        @Override
+        public T next() {
+            return next(null);
+        }
+
+        /**
+         * Maps the next row into the given holder, instead of a new object.
+         *
+         * @param reuse The object to overwrite with the next row, or null for a new one.
+         * @return The object holding the next row.
+         **/
+        public T next(T reuse) {
+            if (mClosed) {
+                throw new NoSuchElementException();
+            }
+
+            T row = mMapper.mapRow(mCursor, reuse);
+            if (!mCursor.moveToNext()) {
+                close();
+            }
+            return row;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Query results are read-only");
+        }
+
+        /**
+         * Closes the cursor of the query. Closing an iterator more than once has no effect.
+         **/
+        @Override
+        public void close() {
+            if (!mClosed) {
+                mClosed = true;
+                mCursor.close();
+            }
+        }
+    }
+
     //----------------------------------------------------------------------------------------------
     // Constructor
     //----------------------------------------------------------------------------------------------
@@ -74,8 +184,33 @@ public abstract class Database<T> {
     public Database(Context context, String databaseName, boolean staticDatabase) throws
             SQLiteException, IOException
     {
-        if (staticDatabase) {
-            mDatabase = openStaticDatabase(context, databaseName, mCursorFactory);
+        this(context, databaseName, staticDatabase, true);
+    }
+
+    /**
+     * Constructs a new database object, which only connects to the database if asked to. Tables
+     * that can serve their rows without SQLite (see LessonSnapshot) use this to skip the
+     * connection. Their queries and changes then throw an IllegalStateException.
+     *
+     * @param context The application's context. Used to access the assets folder of the
+     *                application.
+     * @param databaseName The name of the database file (not the full path, only the basename).
+     * @param staticDatabase Indicates whether or not this database is static.
+     * @param connect Indicates whether or not to connect to the database.
+     * @throws SQLiteException The database file is not properly formatted.
+     * @throws IOException The database file is not writeable or readable, or the dbName does
+     *                     does not exist in the assets folder (if the database is static).
+     **/
+    protected Database(Context context, String databaseName, boolean staticDatabase,
+            boolean connect) throws SQLiteException, IOException
+    {
+        mDatabaseName = databaseName;
+        mStaticDatabase = staticDatabase;
+
+        if (!connect) {
+            mDatabase = null;
+        } else if (staticDatabase) {
+            mDatabase = ConnectionManager.acquire(context, databaseName);
         } else {
             mDatabase = openDatabase(databaseName, context, mCursorFactory);
         }
@@ -85,17 +220,38 @@ public abstract class Database<T> {
     // Public Methods
     //----------------------------------------------------------------------------------------------
 
+    /**
+     * Closes this database object. The shared connection of a static database is released to the
+     * ConnectionManager, while the connection of a dynamic database is closed. Closing a database
+     * object more than once has no effect.
+     **/
+    public void close()
+    {
+        if (mClosed || mDatabase == null) {
+            return;
+        }
+        mClosed = true;
+
+        if (mStaticDatabase) {
+            ConnectionManager.release(mDatabaseName);
+        } else {
+            mDatabase.close();
+        }
+    }
+
     /**
      * Runs the specified query on the database, and buffers the result of the query in a Cursor
      * object, which will pull the results from disk as needed. Returns a handle to this Cursor
-     * object.
+     * object, which the caller must close. Prefer iterateQuery() or forEachRow(), which close it.
      *
      * @param query The SQL query string.
      * @param args Arguments passed into the 'WHERE' clause of the query. Each argument must match
      *             with a corresponding '?' in query.
      * @return A handle to a cursor object representing the result of the query.
+     * @throws IllegalStateException The table has no connection (see the constructor).
      **/
     public Cursor bufferedQuery(String query, String[] args)  {
+        checkConnected();
         return mDatabase.rawQuery(query, args);
     }
 
@@ -114,13 +270,120 @@ public abstract class Database<T> {
     {
         Cursor result = bufferedQuery(query, args);
 
-        if (result.getCount() == 0) {
-            return null;
-        } else {
-            return getAllEntries(result, cls);
+        try {
+            if (result.getCount() == 0) {
+                return null;
+            } else {
+                return getAllEntries(result, cls);
+            }
+        } finally {
+            result.close();
         }
     }
 
+    /**
+     * Runs the specified query on the database, and returns an iterator that maps its rows to the
+     * appropriate type one at a time, without collecting them. The iterator closes the cursor of
+     * the query once it is exhausted, and must be closed by callers that stop early.
+     *
+     * @param query The SQL query string.
+     * @param args Arguments passed into the 'WHERE' clause of the query. Each argument must match
+     *             with a corresponding '?' in query.
+     * @return An iterator over the results of the query.
+     **/
+    public RowIterator<T> iterateQuery(String query, String[] args)
+    {
+        Cursor result = bufferedQuery(query, args);
+        try {
+            return new RowIterator<>(result, newRowMapper(result));
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the specified query on the database, and hands its rows to the visitor one at a time,
+     * until the rows run out or the visitor stops. Every row is packed into the same holder (see
+     * RowVisitor). The cursor of the query is always closed, even if the visitor throws.
+     *
+     * @param query The SQL query string.
+     * @param args Arguments passed into the 'WHERE' clause of the query. Each argument must match
+     *             with a corresponding '?' in query.
+     * @param visitor The visitor to hand the rows to.
+     * @return The number of rows that were visited.
+     **/
+    public int forEachRow(String query, String[] args, RowVisitor<T> visitor)
+    {
+        RowIterator<T> rows = iterateQuery(query, args);
+        T row = null;
+        int visited = 0;
+        try {
+            while (rows.hasNext()) {
+                visited++;
+                row = rows.next(row);
+                if (!visitor.visitRow(row)) {
+                    break;
+                }
+            }
+        } finally {
+            rows.close();
+        }
+        return visited;
+    }
+
+    /**
+     * Runs the specified query on a reader thread of the DatabaseExecutor, and delivers its
+     * results, as unbufferedQuery() returns them, to the callback on the main thread.
+     *
+     * @param owner The owner of the request, usually the calling activity, whose requests are
+     *              cancelled when it is destroyed. May be null.
+     * @param query The SQL query string.
+     * @param args Arguments passed into the 'WHERE' clause of the query. Each argument must match
+     *             with a corresponding '?' in query.
+     * @param cls The class object of the type T. Used to create an generic array of type T.
+     * @param callback Called on the main thread with the results, or null.
+     * @return The request, which can be cancelled or waited on.
+     * @throws IllegalStateException The table has no connection (see the constructor).
+     **/
+    public DatabaseExecutor.Request<T[]> queryAsync(Object owner, final String query,
+            final String[] args, final Class<T> cls, DatabaseExecutor.Callback<T[]> callback)
+    {
+        checkConnected();
+        return DatabaseExecutor.getInstance().read(owner, new Callable<T[]>() {
+            @Override
+            public T[] call() {
+                return unbufferedQuery(query, args, cls);
+            }
+        }, callback);
+    }
+
+    /**
+     * Inserts the given row entry into the specified table on the writer thread of the
+     * DatabaseExecutor, after every change submitted before it.
+     *
+     * @param owner The owner of the request, usually the calling activity. The row is inserted
+     *              even if it is destroyed first, but the callback is then not called. May be
+     *              null.
+     * @param table The table to insert into.
+     * @param row The row entry to insert into the table.
+     * @param callback Called on the main thread once the row is inserted, or null.
+     * @return The request, which can be cancelled or waited on.
+     * @throws IllegalStateException The table has no connection (see the constructor).
+     **/
+    public DatabaseExecutor.Request<Void> insertRowAsync(Object owner, final String table,
+            final T row, DatabaseExecutor.Callback<Void> callback)
+    {
+        checkConnected();
+        return DatabaseExecutor.getInstance().write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                insertRow(table, row);
+                return null;
+            }
+        }, callback);
+    }
+
     /**
      * Provides a convenient wrapper for a Cursor object to access the contents of a column by its
      * name. Given a cursor object, and a column name, returns the value stored in that column of
@@ -137,7 +400,8 @@ public abstract class Database<T> {
     /**
      * Given a Cursor object, retrieves all of the entries in the Cursor object and stores them
      * into a generic array of type T. This function retrieves all of the entries in the Cursor
-     * object, regardless of its current position (the function moves to the first entry).
+     * object, regardless of its current position (the function moves to the first entry). The
+     * cursor is left open for the caller to close.
      *
      * @param cursor The Cursor object to retrieve the entries from.
      * @param cls The class object of the type T. Used to create an generic array of type T.
@@ -145,7 +409,8 @@ public abstract class Database<T> {
      **/
     public T[] getAllEntries(Cursor cursor, Class<T> cls)
     {
-        T[] results = (T[]) Array.newInstance(cls, cursor.getCount());
+        T[] results = newArray(cls, cursor.getCount());
+        RowMapper<T> mapper = newRowMapper(cursor);
 
         // Move to the first result in the cursor
         cursor.moveToFirst();
@@ -153,7 +418,7 @@ public abstract class Database<T> {
         // Iterate over the entries, and collect them into an array
         int i = 0;
         while (!cursor.isAfterLast()) {
-            results[i] = packRow(cursor);
+            results[i] = mapper.mapRow(cursor);
             cursor.moveToNext();
             i++;
         }
@@ -171,9 +436,22 @@ public abstract class Database<T> {
      **/
     public void insertRow(String table, T row) throws SQLiteException
     {
-        ContentValues mapping = unpackRow(row);
+        insertValues(table, unpackRow(row));
+    }
 
-        if (mDatabase.insert(table, null, mapping) == -1) {
+    /**
+     * Inserts a row with the given values into the specified table. Subclasses use this to insert
+     * the rows of child tables that their rows are spread over.
+     *
+     * @param table The table to insert into.
+     * @param values A ContentValues object, where each column name maps to its value.
+     * @throws SQLiteException The insertion is unsuccessful for any reason.
+     * @throws IllegalStateException The table has no connection (see the constructor).
+     **/
+    protected void insertValues(String table, ContentValues values) throws SQLiteException
+    {
+        checkConnected();
+        if (mDatabase.insert(table, null, values) == -1) {
             throw new SQLiteException();
         }
     }
@@ -189,14 +467,55 @@ public abstract class Database<T> {
      * @param whereArgs The arguments to use for the WHERE clause. There must be exactly as many
      *                  entries in this array as there are '?' in the whereClause.
      * @throws SQLiteException The deletion is unsuccessful for any reason.
+     * @throws IllegalStateException The table has no connection (see the constructor).
      **/
     public void delete(String table, String whereClause, String[] whereArgs) throws SQLiteException
     {
+        checkConnected();
         if (mDatabase.delete(table, whereClause, whereArgs) == 0) {
             throw new SQLiteException();
         }
     }
 
+    /**
+     * Creates the row mapper used to pack every row of the given cursor. Subclasses should override
+     * this to resolve their column indexes once for the cursor, and read typed values. By default,
+     * every row is packed into a new object with packRow().
+     *
+     * @param cursor The Cursor object with the results of a query.
+     * @return A row mapper for the rows of the cursor.
+     **/
+    protected RowMapper<T> newRowMapper(Cursor cursor)
+    {
+        return new RowMapper<T>() {
+            @Override
+            public T mapRow(Cursor cursor) {
+                return packRow(cursor);
+            }
+
+            // packRow() always creates its row
+            @Override
+            public T mapRow(Cursor cursor, T reuse) {
+                return packRow(cursor);
+            }
+        };
+    }
+
+    /**
+     * Creates the array that the rows of a query are collected into. By default, the array is
+     * created reflectively from the class object. Subclasses backed by a generated TableSchema
+     * should override this to use the schema's newArray(), which keeps reflection out of queries.
+     *
+     * @param cls The class object of the type T.
+     * @param size The length of the array.
+     * @return A new array of type T.
+     **/
+    @SuppressWarnings("unchecked")
+    protected T[] newArray(Class<T> cls, int size)
+    {
+        return (T[]) Array.newInstance(cls, size);
+    }
+
     /**
      * The abstract method which takes a Cursor object from the result of query, and packs the
      * columns from a query result into the generic type T, which represents the schema of the
@@ -225,9 +544,10 @@ public abstract class Database<T> {
 
     /**
      * Opens up the static, readonly database corresponding to dbName. If the database does not
-     * exist on disk or the application has been updated, then it is retrieved from the assets
-     * folder, copied to the database directory, and opened. Otherwise, the database is simply
-     * opened.
+     * exist on disk or differs from the one in the assets folder, then it is installed from the
+     * assets folder by the DatabaseInstaller, or the install started when the process started is
+     * waited on. Tables share the connection through the ConnectionManager, which is the only
+     * caller.
      *
      * @param context The application's context. Used to access the assets folder of the
      *                application.
@@ -237,33 +557,13 @@ public abstract class Database<T> {
      * @throws IOException The database file is not writeable or readable, or the dbName does
      *                     does not exist in the assets folder.
      **/
-    private static SQLiteDatabase openStaticDatabase(Context context, String dbName,
+    static SQLiteDatabase openStaticDatabase(Context context, String dbName,
             SQLiteDatabase.CursorFactory cursorFactory) throws SQLiteException, IOException
     {
         Log.i(TAG, "Opening up database: " + dbName);
-        String dbDir = context.getApplicationInfo().dataDir + "/databases/";
-        String dbPath = dbDir + dbName;
-        String versionPath = dbDir + dbName + VERSION_FILE_BASE;
-
-        /* If the database does not exist or the application has been updated, then copy it in from
-         * the assets folder of the application. Then, update the version file on disk, which tracks
-         * the version of application this database corresponds to.
-         */
-        File dbFile = new File(dbPath);
-        if (!dbFile.exists()) {
-            Log.i(TAG, "Database does not exist. Copying database in from the assets folder");
-
-            // Create the database directory if it does not exist
-            File dbDirectory = new File(dbDir);
-            if (!dbDirectory.exists()) {
-                dbDirectory.mkdir();
-            }
-            copyDbFromAssets(context, dbName, dbPath);
-            writeVersionFile(versionPath);
-        } else if (applicationUpdated(versionPath)) {
-            copyDbFromAssets(context, dbName, dbPath);
-            writeVersionFile(versionPath);
-        }
+        String dbPath = context.getApplicationInfo().dataDir + "/databases/" + dbName;
+
+        DatabaseInstaller.await(context, dbName);
 
         // Open the database
         return SQLiteDatabase.openDatabase(dbPath, cursorFactory, SQLiteDatabase.OPEN_READONLY);
@@ -287,98 +587,16 @@ public abstract class Database<T> {
     }
 
     /**
-     * Copies the database corresponding to dbName from the assets folder to the destination path
-     * destPath. If the destPath already exists, then it is overwritten with the file in the assets
-     * folder of the application.
-     *
-     * @param context The application's context. Used to access the assets folder of the
-     *                application.
-     * @param dbName The name of the database to copy from the assets folder.
-     * @param destPath The place to copy the database to.
-     * @throws IOException The destination file is not writeable or readable, or the dbName does
-     *                     does not exist in the assets folder.
-     **/
-    private static void copyDbFromAssets(Context context, String dbName, String destPath) throws
-            IOException
-    {
-        // Open the database in assets and the destination path
-        InputStream source = openDbFromAssets(context, dbName);
-        OutputStream dest = new FileOutputStream(destPath);
-
-        final int bufSize = 1024;
-        byte[] buffer = new byte[bufSize];
-
-        // Copy the database to the destination one segment at a time.
-        int bytesRead = source.read(buffer);
-        while (bytesRead != -1) {
-            dest.write(buffer, 0, bufSize);
-            bytesRead = source.read(buffer);
-        }
-
-        // Flush the destination file, and close both files
-        dest.flush();
-        dest.close();
-        source.close();
-    }
-
-    /**
-     * Opens the database in the assets folder corresponding to dbName.
-     *
-     * @param context The application's context. Used to access the assets folder of the
-     *                application.
-     * @param dbName The name of the database to open from the assets folder.
-     * @return A handle to the open file corresponding to the dbName file in the assets folder.
-     * @throws IOException The file dbName does not exist in the assets folder.
-     **/
-    private static InputStream openDbFromAssets(Context context, String dbName) throws IOException {
-        return context.getAssets().open(dbName);
-    }
-
-    /**
-     * Checks if the application has been updated since the application was last run. The
-     * version is kept track of on an on-disk file that simply holds the version code of the last
-     * time the application was run. This is necessary because when the application is updated (or
-     * reloaded from Android Studio), the database may have been updated. Without the version file,
-     * we would not know when to update the database with a new one from the assets folder.
+     * Checks that this database object has a connection to run queries and changes on, which
+     * tables constructed without connecting do not.
      *
-     * @param versionPath The path to the version file, which tracks the version of the application
-     *                    the last time it was run.
-     * @return True if the application has been updated (or is new), false otherwise.
-     * @throws FileNotFoundException This exception will never be thrown.
+     * @throws IllegalStateException The database object has no connection.
      **/
-    private static boolean applicationUpdated(String versionPath) throws FileNotFoundException
+    private void checkConnected()
     {
-        File versionFile = new File(versionPath);
-
-        // If the version file does not exist, then this is a new application, so it is updated
-        if (!versionFile.exists()) {
-            return true;
+        if (mDatabase == null) {
+            throw new IllegalStateException(getClass().getSimpleName() + " is served from the " +
+                    "snapshot of " + mDatabaseName + " and has no connection to query");
         }
-
-        // Attempt to get the current version of the application
-        int curVersion = BuildConfig.VERSION_CODE;
-
-        // Read the application version that was last written to disk, and compare
-        Scanner scanner = new Scanner(versionFile);
-        int oldVersion = scanner.nextInt();
-
-        return (oldVersion != curVersion);
-    }
-
-    /**
-     * Updates the version file on disk with the current version of the application.
-     *
-     * @param versionPath The path to the version file.
-     * @throws IOException The version file is not readable or writeable.
-     **/
-    private static void writeVersionFile(String versionPath) throws IOException
-    {
-        // Get the current application version.
-        int curVersion = BuildConfig.VERSION_CODE;
-
-        // Write the new version out to the file
-        FileWriter versionWriter = new FileWriter(versionPath);
-        versionWriter.write(Integer.toString(curVersion));
-        versionWriter.close();
     }
 }
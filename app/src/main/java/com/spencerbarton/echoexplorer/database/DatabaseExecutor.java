@@ -0,0 +1,325 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * DatabaseExecutor runs the asynchronous queries and inserts of the database classes off the main
+ * thread, and delivers their results on the main thread. Inserts run one at a time on a single
+ * writer thread, in the order they were submitted, while queries run in parallel on a small pool
+ * of reader threads.
+ *
+ * Every request is a Request, a future that can be cancelled or waited on, and may have a Callback
+ * that is called on the main thread once the request completes, unless it was cancelled first.
+ * A request may have an owner, usually the activity that made it. The requests of an owner are
+ * cancelled with cancelAll(), which install() arranges to happen automatically when an activity is
+ * destroyed. On versions without activity lifecycle callbacks, results are instead dropped once
+ * their activity is finishing. Writes are never cancelled with their owner, as a change must not
+ * be lost because the activity that made it went away; only their callbacks are dropped.
+ */
+public class DatabaseExecutor {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = DatabaseExecutor.class.getName();
+
+    /** The number of threads that run queries in parallel. */
+    private static final int READER_THREADS = 2;
+
+    /** The executor of the process. Guarded by the class. */
+    private static DatabaseExecutor sInstance = null;
+
+    /** Runs the inserts, one at a time. */
+    private final ExecutorService mWriter;
+    /** Runs the queries. */
+    private final ExecutorService mReaders;
+    /** Delivers the results on the main thread. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** The pending requests of each owner. Guarded by this. */
+    private final Map<Object, Set<Request<?>>> mRequestsByOwner = new HashMap<>();
+
+    /**
+     * Called on the main thread with the result of a request.
+     **/
+    public interface Callback<R> {
+
+        /**
+         * @param result The result of the request.
+         **/
+        void onResult(R result);
+
+        /**
+         * @param error The exception that the request failed with.
+         **/
+        void onError(Exception error);
+    }
+
+    /**
+     * A request submitted to the executor. Cancelling a request that is waiting keeps it from
+     * running, and cancelling one that is running keeps its result from being delivered.
+     **/
+    public static class Request<R> extends FutureTask<R> {
+
+        /** The executor that the request was submitted to. */
+        private final DatabaseExecutor mExecutor;
+        /** The owner of the request, or null. */
+        private final Object mOwner;
+        /** Called with the result of the request, or null. */
+        private final Callback<R> mCallback;
+        /** Whether the request is a write, which runs even once its owner is gone. */
+        private final boolean mWrite;
+        /** Whether the owner went away, so the callback is not called. */
+        private volatile boolean mOrphaned = false;
+
+        private Request(DatabaseExecutor executor, Object owner, Callable<R> task,
+                Callback<R> callback, boolean write)
+        {
+            super(task);
+            mExecutor = executor;
+            mOwner = owner;
+            mCallback = callback;
+            mWrite = write;
+        }
+
+        @Override
+        protected void done() {
+            mExecutor.remove(this);
+            if (mCallback != null && !isCancelled()) {
+                mExecutor.mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Cancels the request. Its callback is not called, even if it has already completed.
+         **/
+        public void cancel() {
+            cancel(false);
+        }
+
+        // Calls the callback on the main thread, unless the request or its owner went away since
+        private void deliver() {
+            boolean ownerFinishing = (mOwner instanceof Activity) &&
+                    ((Activity) mOwner).isFinishing();
+            if (isCancelled() || mOrphaned || ownerFinishing) {
+                return;
+            }
+
+            R result;
+            try {
+                result = get();
+            } catch (CancellationException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Log.e(TAG, "Database request failed: " + cause);
+                mCallback.onError((cause instanceof Exception) ? (Exception) cause :
+                        new RuntimeException(cause));
+                return;
+            }
+            mCallback.onResult(result);
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    private DatabaseExecutor() {
+        mWriter = Executors.newSingleThreadExecutor(newThreadFactory("DatabaseWriter"));
+        mReaders = Executors.newFixedThreadPool(READER_THREADS,
+                newThreadFactory("DatabaseReader"));
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @return The executor of the process.
+     **/
+    public static synchronized DatabaseExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new DatabaseExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Cancels the requests of each activity when it is destroyed. Called once, when the process
+     * starts. Activity lifecycle callbacks need Ice Cream Sandwich, on older versions the results
+     * of a finishing activity are dropped instead.
+     *
+     * @param application The application of the process.
+     **/
+    public static void install(Application application) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            registerLifecycleCallbacks(application);
+        }
+    }
+
+    /**
+     * Runs the query on a reader thread.
+     *
+     * @param owner The owner of the request, whose requests are cancelled together, or null.
+     * @param query Runs the query and returns its result.
+     * @param callback Called on the main thread with the result, or null.
+     * @return The submitted request.
+     **/
+    public <R> Request<R> read(Object owner, Callable<R> query, Callback<R> callback) {
+        return submit(mReaders, owner, query, callback, false);
+    }
+
+    /**
+     * Runs the insert, or any other change, on the writer thread, after every change submitted
+     * before it. The change is made even if its owner is destroyed first, in which case only the
+     * callback is dropped; the change is only kept from running by cancelling the request itself.
+     *
+     * @param owner The owner of the request, whose callback is dropped once it is destroyed, or
+     *              null.
+     * @param write Makes the change and returns its result.
+     * @param callback Called on the main thread with the result, or null.
+     * @return The submitted request.
+     **/
+    public <R> Request<R> write(Object owner, Callable<R> write, Callback<R> callback) {
+        return submit(mWriter, owner, write, callback, true);
+    }
+
+    /**
+     * Cancels every pending read of the owner, and drops the callbacks of its pending writes,
+     * which still run.
+     *
+     * @param owner The owner of the requests.
+     **/
+    public void cancelAll(Object owner) {
+        Set<Request<?>> requests;
+        synchronized (this) {
+            requests = mRequestsByOwner.remove(owner);
+        }
+        if (requests != null) {
+            for (Request<?> request : new ArrayList<>(requests)) {
+                if (request.mWrite) {
+                    request.mOrphaned = true;
+                } else {
+                    request.cancel();
+                }
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    private <R> Request<R> submit(ExecutorService executor, Object owner, Callable<R> task,
+            Callback<R> callback, boolean write)
+    {
+        Request<R> request = new Request<>(this, owner, task, callback, write);
+        if (owner != null) {
+            synchronized (this) {
+                Set<Request<?>> requests = mRequestsByOwner.get(owner);
+                if (requests == null) {
+                    requests = new HashSet<>();
+                    mRequestsByOwner.put(owner, requests);
+                }
+                requests.add(request);
+            }
+        }
+        executor.execute(request);
+        return request;
+    }
+
+    // Forgets a completed request
+    private synchronized void remove(Request<?> request) {
+        if (request.mOwner == null) {
+            return;
+        }
+
+        Set<Request<?>> requests = mRequestsByOwner.get(request.mOwner);
+        if (requests != null) {
+            requests.remove(request);
+            if (requests.isEmpty()) {
+                mRequestsByOwner.remove(request.mOwner);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void registerLifecycleCallbacks(Application application) {
+        application.registerActivityLifecycleCallbacks(
+                new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                getInstance().cancelAll(activity);
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+        });
+    }
+
+    // Names the threads, and runs them in the background so they do not compete with the UI
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                mCount++;
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + "-" + mCount);
+            }
+        };
+    }
+}
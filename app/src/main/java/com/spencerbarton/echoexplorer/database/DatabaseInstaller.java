@@ -0,0 +1,339 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.spencerbarton.echoexplorer.BuildConfig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * DatabaseInstaller installs the static databases that are provided in the assets folder into the
+ * application's database directory. A database is copied to a temporary file with a large buffer,
+ * the copy is verified against the CRC32 checksum of the asset, and the temporary file is then
+ * renamed over the database, so a database is never left half-written.
+ *
+ * An install can be started on a background thread with installAsync(), typically when the
+ * process starts, and waited on with await() before the database is opened. Each database is
+ * installed at most once per process.
+ *
+ * The version file next to each database holds the version code of the application and the
+ * checksum of the asset that was installed. The asset is only read again when the version code
+ * changes, and only copied when its checksum changes, so debug builds, whose version code is
+ * bumped on every build, do not recopy an unchanged database.
+ */
+public class DatabaseInstaller {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = DatabaseInstaller.class.getName();
+
+    /** The name of the static database that holds the lessons. */
+    public static final String LESSON_DATABASE = "LessonDatabase";
+
+    /** The suffix to append to database paths to get the version file. */
+    private static final String VERSION_FILE_BASE = "_version.txt";
+    /** The suffix to append to a path to get the temporary file it is written through. */
+    private static final String TEMP_FILE_BASE = ".tmp";
+    /** The size of the buffer used to copy and checksum files, in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The installs started in this process, keyed by database name. Guarded by the class. */
+    private static final Map<String, Install> sInstalls = new HashMap<>();
+
+    /**
+     * The install of a single database, which can be waited on by any thread.
+     */
+    private static class Install implements Runnable {
+
+        /** The application's context. */
+        private final Context mContext;
+        /** The name of the database to install. */
+        private final String mDbName;
+        /** Whether the install has finished, successfully or not. */
+        private boolean mDone = false;
+        /** The error that the install failed with, or null. */
+        private IOException mError = null;
+
+        Install(Context context, String dbName) {
+            mContext = context;
+            mDbName = dbName;
+        }
+
+        @Override
+        public void run() {
+            IOException error = null;
+            try {
+                installDatabase(mContext, mDbName);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException("Could not install " + mDbName + ": " + e.getMessage());
+            }
+
+            // A failed install is forgotten, so that the next caller tries again
+            if (error != null) {
+                Log.e(TAG, error.getMessage());
+                synchronized (DatabaseInstaller.class) {
+                    sInstalls.remove(mDbName);
+                }
+            }
+
+            synchronized (this) {
+                mError = error;
+                mDone = true;
+                notifyAll();
+            }
+        }
+
+        synchronized void await() throws IOException {
+            try {
+                while (!mDone) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while installing " + mDbName);
+            }
+
+            if (mError != null) {
+                throw mError;
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * The installer is never instantiated, all of its state is process-wide.
+     **/
+    private DatabaseInstaller() {
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Starts installing the given static database on a background thread, unless it is already
+     * installed or being installed in this process. Returns immediately.
+     *
+     * @param context The application's context. Used to access the assets folder.
+     * @param dbName The name of the database in the assets folder.
+     **/
+    public static void installAsync(Context context, String dbName) {
+        Install install;
+        synchronized (DatabaseInstaller.class) {
+            if (sInstalls.containsKey(dbName)) {
+                return;
+            }
+            install = new Install(context.getApplicationContext(), dbName);
+            sInstalls.put(dbName, install);
+        }
+
+        new Thread(install, "DatabaseInstaller").start();
+    }
+
+    /**
+     * Waits until the given static database is installed. If no install was started in this
+     * process, the database is installed on the calling thread.
+     *
+     * @param context The application's context. Used to access the assets folder.
+     * @param dbName The name of the database in the assets folder.
+     * @throws IOException The database could not be copied from the assets folder, or the copy
+     *                     does not match the asset.
+     **/
+    public static void await(Context context, String dbName) throws IOException {
+        Install install;
+        boolean started = false;
+        synchronized (DatabaseInstaller.class) {
+            install = sInstalls.get(dbName);
+            if (install == null) {
+                install = new Install(context.getApplicationContext(), dbName);
+                sInstalls.put(dbName, install);
+                started = true;
+            }
+        }
+
+        if (started) {
+            install.run();
+        }
+        install.await();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Installs the database corresponding to dbName from the assets folder, unless the installed
+     * database already matches the asset.
+     *
+     * @param context The application's context. Used to access the assets folder.
+     * @param dbName The name of the database to install.
+     * @throws IOException The database could not be copied, or the copy does not match the asset.
+     **/
+    private static void installDatabase(Context context, String dbName) throws IOException {
+        String dbDir = context.getApplicationInfo().dataDir + "/databases/";
+        File dbFile = new File(dbDir + dbName);
+        File versionFile = new File(dbDir + dbName + VERSION_FILE_BASE);
+        int curVersion = BuildConfig.VERSION_CODE;
+
+        /* If the database is installed, it is only checked against the asset when the application
+         * has been updated. Then it is only copied if the asset has changed.
+         */
+        long[] stamp = readVersionFile(versionFile);
+        if (dbFile.exists() && stamp != null) {
+            if (stamp[0] == curVersion) {
+                return;
+            }
+
+            long assetChecksum = checksumAsset(context, dbName);
+            if (assetChecksum == stamp[1]) {
+                Log.i(TAG, dbName + " is unchanged, keeping the installed copy");
+                writeVersionFile(versionFile, curVersion, assetChecksum);
+                return;
+            }
+        }
+
+        Log.i(TAG, "Installing " + dbName + " from the assets folder");
+        File dbDirectory = new File(dbDir);
+        if (!dbDirectory.exists() && !dbDirectory.mkdirs()) {
+            throw new IOException("Could not create " + dbDir);
+        }
+
+        // Copy to a temporary file, and check that what landed on disk matches the asset
+        File tempFile = new File(dbFile.getPath() + TEMP_FILE_BASE);
+        long assetChecksum = copyAsset(context, dbName, tempFile);
+        long copyChecksum = checksum(new FileInputStream(tempFile));
+        if (copyChecksum != assetChecksum) {
+            tempFile.delete();
+            throw new IOException("The copy of " + dbName + " does not match the asset");
+        }
+
+        rename(tempFile, dbFile);
+        writeVersionFile(versionFile, curVersion, assetChecksum);
+    }
+
+    /**
+     * Copies the asset dbName to the given file, overwriting it, and syncs it to disk.
+     *
+     * @return The CRC32 checksum of the asset.
+     * @throws IOException The asset is missing, or the file cannot be written.
+     **/
+    private static long copyAsset(Context context, String dbName, File dest) throws IOException {
+        CheckedInputStream source = new CheckedInputStream(context.getAssets().open(dbName),
+                new CRC32());
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(dest);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = source.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+
+            out.flush();
+            out.getFD().sync();
+            return source.getChecksum().getValue();
+        } finally {
+            source.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return The CRC32 checksum of the asset dbName.
+     * @throws IOException The asset is missing or cannot be read.
+     **/
+    private static long checksumAsset(Context context, String dbName) throws IOException {
+        return checksum(context.getAssets().open(dbName));
+    }
+
+    /**
+     * Reads the given stream to its end and closes it.
+     *
+     * @return The CRC32 checksum of the contents of the stream.
+     * @throws IOException The stream cannot be read.
+     **/
+    private static long checksum(InputStream in) throws IOException {
+        CheckedInputStream source = new CheckedInputStream(in, new CRC32());
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (source.read(buffer) != -1) {
+                // Only the checksum is needed
+            }
+            return source.getChecksum().getValue();
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Reads the version code and checksum from the given version file. Files written by older
+     * versions of the application only hold the version code, and are treated as missing.
+     *
+     * @return The version code and the checksum, or null if the file is missing or malformed.
+     **/
+    private static long[] readVersionFile(File versionFile) {
+        if (!versionFile.exists()) {
+            return null;
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(versionFile));
+            try {
+                String[] fields = reader.readLine().trim().split("\\s+");
+                if (fields.length != 2) {
+                    return null;
+                }
+                return new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])};
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Ignoring malformed version file " + versionFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the given version file with the version code and checksum of the installed
+     * database, going through a temporary file so it is never half-written.
+     *
+     * @throws IOException The version file is not writeable.
+     **/
+    private static void writeVersionFile(File versionFile, int version, long checksum) throws
+            IOException
+    {
+        File tempFile = new File(versionFile.getPath() + TEMP_FILE_BASE);
+        FileWriter versionWriter = new FileWriter(tempFile);
+        try {
+            versionWriter.write(version + " " + checksum);
+        } finally {
+            versionWriter.close();
+        }
+        rename(tempFile, versionFile);
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            from.delete();
+            throw new IOException("Could not rename " + from + " to " + to);
+        }
+    }
+}
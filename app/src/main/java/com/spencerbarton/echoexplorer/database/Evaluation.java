@@ -1,11 +1,8 @@
 package com.spencerbarton.echoexplorer.database;
 
-import android.util.Log;
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -24,26 +21,41 @@ import java.util.List;
  *
  * @author Brandon Perez (bmperez)
  **/
+@Table("EvaluationStep")
 public class Evaluation {
 
     /** The tag that identifies this class. Used for debugging. */
     private static final String TAG = Evaluation.class.getName();
 
     /** The lesson number (id) of the lesson that this evaluation belongs to. */
+    @Column("lessonNumber")
     public int lessonNumber;
     /** The ordering with respect to other evaluations in the same lesson. */
+    @Column("stepNumber")
     public int stepNumber;
     /** The name of the file used to provide audio directions for the evaluation. */
+    @Column("directionsAudioFile")
     public String directionsAudioFile;
-    /** The name of the file that contains the echo for this evaluation. */
+    /** The name of the echo file, or of a synthetic echo (e.g. "synth:dist=3.5,angle=-45"). */
+    @Column("echoAudioFile")
     public String echoAudioFile;
     /** The text directions to display on screen. */
+    @Column("textDirections")
     public String textDirections;
-    /** The possible options that the user can choose from. */
+    /** The possible options that the user can choose from, stored in the EvaluationOption table.
+     *  Empty if the evaluation has no options. */
     public List<String> responseOptions;
     /** The correct response from the responseOptions. */
+    @Column("correctResponse")
     public int correctResponse;
 
+    /**
+     * Constructs an empty Evaluation object, whose columns are filled in by EvaluationSchema, and
+     * whose options are filled in by EvaluationTable.
+     **/
+    Evaluation() {
+    }
+
     /**
      * Constructs a new Evaluation object using the parameters passed in by the user.
      *
@@ -52,12 +64,11 @@ public class Evaluation {
      * @param directionsAudioFile The file to use for audio direction.
      * @param echoAudioFile The file to use for the echo.
      * @param textDirections The directions to display on screen for the evaluation.
-     * @param responseOptions The responses that the user can choose from. This should be formatted
-     *                        as a JSON array, able to be parsed.
+     * @param responseOptions The responses that the user can choose from.
      * @param correctResponse The correct response from response options.
      **/
     public Evaluation(int lessonNumber, int stepNumber, String directionsAudioFile,
-                      String echoAudioFile, String textDirections, String responseOptions,
+                      String echoAudioFile, String textDirections, List<String> responseOptions,
                       int correctResponse)
     {
         this.lessonNumber = lessonNumber;
@@ -65,34 +76,7 @@ public class Evaluation {
         this.directionsAudioFile = directionsAudioFile;
         this.echoAudioFile = echoAudioFile;
         this.textDirections = textDirections;
-        this.responseOptions = parseResponseOptions(responseOptions);
+        this.responseOptions = responseOptions;
         this.correctResponse = correctResponse;
     }
-
-    /**
-     * Parses the provided responseOptions string as a JSON array, then converts this to a string
-     * list with each possible response.
-     *
-     * @param responseOptions The responses that the user can choose from. This should be formatted
-     *                        as a JSON array, able to be parsed.
-     * @return A string list corresponding to possible options that the user can choose from.
-     **/
-    private List<String> parseResponseOptions(String responseOptions) {
-        List<String> options = new ArrayList<>();
-
-        // Parse json
-        try {
-            JSONArray json = new JSONArray(responseOptions);
-            Log.i(TAG, "Parsed " + json.toString());
-
-            for (int i = 0; i < json.length(); i++) {
-                options.add(json.getString(i));
-            }
-
-        } catch (JSONException e) {
-            Log.e(TAG, e.getMessage());
-        }
-
-        return options;
-    }
-}
\ No newline at end of file
+}
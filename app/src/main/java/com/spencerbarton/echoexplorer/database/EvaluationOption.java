@@ -0,0 +1,54 @@
+package com.spencerbarton.echoexplorer.database;
+
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
+
+/**
+ * The EvaluationOption class represents the schema of the EvaluationOption table. An instance of
+ * this class represents a single row of the EvaluationOption table, which is one of the response
+ * options of an evaluation.
+ *
+ * Options are identified by the lesson number and step number of the evaluation they belong to,
+ * and by their option number, which orders them with respect to the other options of the
+ * evaluation. The correctResponse of an evaluation is the option number of its correct option.
+ * EvaluationTable collects the options of each evaluation into its responseOptions list.
+ **/
+@Table("EvaluationOption")
+public class EvaluationOption {
+
+    /** The lesson number (id) of the lesson that the evaluation of this option belongs to. */
+    @Column("lessonNumber")
+    public int lessonNumber;
+    /** The step number of the evaluation that this option belongs to. */
+    @Column("stepNumber")
+    public int stepNumber;
+    /** The ordering with respect to other options of the same evaluation. */
+    @Column("optionNumber")
+    public int optionNumber;
+    /** The text of the option, displayed on its button. */
+    @Column("text")
+    public String text;
+
+    /**
+     * Constructs an empty EvaluationOption object, whose columns are filled in by
+     * EvaluationOptionSchema.
+     **/
+    EvaluationOption() {
+    }
+
+    /**
+     * Constructs a new EvaluationOption object using the parameters passed in by the user.
+     *
+     * @param lessonNumber The lesson number of the evaluation the option belongs to.
+     * @param stepNumber The step number of the evaluation the option belongs to.
+     * @param optionNumber The ordering of this option with respect to others of the evaluation.
+     * @param text The text of the option.
+     **/
+    public EvaluationOption(int lessonNumber, int stepNumber, int optionNumber, String text)
+    {
+        this.lessonNumber = lessonNumber;
+        this.stepNumber = stepNumber;
+        this.optionNumber = optionNumber;
+        this.text = text;
+    }
+}
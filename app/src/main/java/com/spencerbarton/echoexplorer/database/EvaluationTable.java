@@ -7,9 +7,6 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,7 +19,11 @@ import java.util.List;
  *
  * The Evaluation table has the following schema:
  *     Evaluation(_id, lessonNumber, stepNumber, directionsAudioFile, echoAudioFile, textDirections,
- *                responseOptions, correctResponse)
+ *                correctResponse)
+ *
+ * The response options of each evaluation are stored in order in the EvaluationOption table, and
+ * are collected into the responseOptions list of the Evaluation objects:
+ *     EvaluationOption(_id, lessonNumber, stepNumber, optionNumber, text)
  *
  * @author Brandon Perez (bmperez)
  **/
@@ -34,26 +35,30 @@ public class EvaluationTable extends Database<Evaluation> {
     /** The name of the database that contains the Evaluation table. */
     private static final String DB_NAME = "LessonDatabase";
     /** The name of the evaluation table. */
-    private static final String TABLE_NAME = "EvaluationStep";
+    private static final String TABLE_NAME = EvaluationSchema.TABLE;
+    /** The name of the table that holds the response options of the evaluations. */
+    private static final String OPTION_TABLE_NAME = EvaluationOptionSchema.TABLE;
 
     /** The name of the column that corresponds to the row number in table. Used by Cursor objects
      *  to order the results of a query. */
     private static final String _idCol = "_id";
     /** The name of the column that contains the number of the lesson the evaluation belongs to. */
-    private static final String LESSON_NUMBER_COL = "lessonNumber";
+    private static final String LESSON_NUMBER_COL = EvaluationSchema.LESSON_NUMBER;
     /** The name of the column that contains the step number of the evaluation. This provides an
      *  ordering of the evaluations in a lesson. */
-    private static final String STEP_NUMBER_COL = "stepNumber";
-    /** The name of the column that contains the audio directions file name. */
-    private static final String AUDIO_DIR_COL = "directionsAudioFile";
-    /** The name of the column that contains the echo file name. */
-    private static final String ECHO_COL = "echoAudioFile";
-    /** The name of the column that contains the text directions for the evaluation. */
-    private static final String TEXT_DIR_COL = "textDirections";
-    /** The name of the column that contains the response options for the evaluation. */
-    private static final String RESPONSE_OPT_COL = "responseOptions";
-    /** The name of the column that contains the correct response from the response options. */
-    private static final String CORRECT_RESPONSE_COL = "correctResponse";
+    private static final String STEP_NUMBER_COL = EvaluationSchema.STEP_NUMBER;
+    /** The name of the column that contains the number of an option. This provides an ordering of
+     *  the options of an evaluation. */
+    private static final String OPTION_NUMBER_COL = EvaluationOptionSchema.OPTION_NUMBER;
+
+    /** Selects the rows of a single step, in both tables. */
+    private static final String STEP_WHERE = LESSON_NUMBER_COL + " = ? and " + STEP_NUMBER_COL +
+            " = ?";
+    /** Selects the rows of a single lesson, in both tables. */
+    private static final String LESSON_WHERE = LESSON_NUMBER_COL + " = ?";
+
+    /** The snapshot that rows are served from, or null if they are queried from the database. */
+    private final LessonSnapshot mSnapshot;
 
     //----------------------------------------------------------------------------------------------
     // Constructor
@@ -69,7 +74,22 @@ public class EvaluationTable extends Database<Evaluation> {
      *                     does not exist in the assets folder (if the database is static).
      **/
     public EvaluationTable(Context context) throws SQLiteException, IOException {
-        super(context, DB_NAME, true);
+        this(context, LessonSnapshot.getInstance(context));
+    }
+
+    /**
+     * Constructs an EvaluationTable object that serves its rows from the given lesson snapshot, and
+     * only connects to the database if there is no snapshot.
+     *
+     * @param context The application's context. Used by the Database base class.
+     * @param snapshot The lesson snapshot, or null to query the database.
+     * @throws SQLiteException The database file is not properly formatted.
+     * @throws IOException The database file is not writeable or readable, or the dbName does
+     *                     does not exist in the assets folder (if the database is static).
+     **/
+    EvaluationTable(Context context, LessonSnapshot snapshot) throws SQLiteException, IOException {
+        super(context, DB_NAME, true, snapshot == null);
+        mSnapshot = snapshot;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -81,32 +101,50 @@ public class EvaluationTable extends Database<Evaluation> {
      * the next entry in the Cursor object, and packs it into a new Evaluation object. Returns a
      * handle to this new object.
      *
+     * This is a compatibility path, which resolves the column indexes on every call. Callers that
+     * pack the rows of a cursor one at a time should iterate them with iterateQuery() instead.
+     *
      * This implements the abstract method in the Database superclass.
      *
      * @param cursor The Cursor object to pack the next entry into the Evaluation object.
      * @return A new Evaluation object, with the information from the next cursor entry.
      **/
     public Evaluation packRow(Cursor cursor) {
+        return newRowMapper(cursor).mapRow(cursor);
+    }
 
-        int lessonNumber = Integer.parseInt(getColumnByName(cursor,
-                LESSON_NUMBER_COL));
-        int stepNumber = Integer.parseInt(getColumnByName(cursor,
-                STEP_NUMBER_COL));
-        String audioDirFile = getColumnByName(cursor, AUDIO_DIR_COL);
-        String echoFile = getColumnByName(cursor, ECHO_COL);
-        String textDir = getColumnByName(cursor, TEXT_DIR_COL);
-        String responseOptions = getColumnByName(cursor, RESPONSE_OPT_COL);
-        int correctResponse = Integer.parseInt(getColumnByName(cursor,
-                CORRECT_RESPONSE_COL));
-
-        return new Evaluation(lessonNumber, stepNumber, audioDirFile, echoFile, textDir,
-                responseOptions, correctResponse);
+    /**
+     * Creates a row mapper for the given cursor with the generated EvaluationSchema, which resolves
+     * the indexes of the Evaluation columns once, and reads them with typed getters.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param cursor The Cursor object with the results of a query on the Evaluation table.
+     * @return A row mapper that packs the rows of the cursor into Evaluation objects.
+     **/
+    @Override
+    protected RowMapper<Evaluation> newRowMapper(Cursor cursor) {
+        return EvaluationSchema.INSTANCE.newRowMapper(cursor);
+    }
+
+    /**
+     * Creates the array that query results are collected into, without reflection.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param cls The class object of the Evaluation type.
+     * @param size The length of the array.
+     * @return A new array of Evaluation objects.
+     **/
+    @Override
+    protected Evaluation[] newArray(Class<Evaluation> cls, int size) {
+        return EvaluationSchema.INSTANCE.newArray(size);
     }
 
     /**
      * Given an Evaluation object, converts it into a ContentValues object (dictionary), effectively
-     * unpacking the row. The name of each column in the Lesson table maps to the corresponding
-     * value provided Lesson object.
+     * unpacking the row. The name of each column in the Evaluation table maps to the corresponding
+     * value provided Evaluation object. The response options are unpacked by insertRow().
      *
      * This implements the abstract method in the Database superclass.
      *
@@ -115,18 +153,32 @@ public class EvaluationTable extends Database<Evaluation> {
      **/
     public ContentValues unpackRow(Evaluation evaluation)
     {
-        ContentValues mapping = new ContentValues();
-
-        mapping.put(LESSON_NUMBER_COL, Integer.toString(evaluation.lessonNumber));
-        mapping.put(STEP_NUMBER_COL, Integer.toString(evaluation.stepNumber));
-        mapping.put(AUDIO_DIR_COL, evaluation.directionsAudioFile);
-        mapping.put(ECHO_COL, evaluation.echoAudioFile);
-        mapping.put(TEXT_DIR_COL, evaluation.textDirections);
-        // FIXME: Need to convert response options back to a JSON string
-        mapping.put(RESPONSE_OPT_COL, "");
-        mapping.put(CORRECT_RESPONSE_COL, evaluation.correctResponse);
-
-        return mapping;
+        return EvaluationSchema.INSTANCE.toContentValues(evaluation);
+    }
+
+    /**
+     * Inserts the given evaluation into the specified table, and each of its response options into
+     * the EvaluationOption table, numbered in the order of the list. The options are written back
+     * exactly as they were read.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param table The table to insert the evaluation into.
+     * @param evaluation The evaluation to insert.
+     * @throws SQLiteException The insertion is unsuccessful for any reason.
+     **/
+    @Override
+    public void insertRow(String table, Evaluation evaluation) throws SQLiteException
+    {
+        super.insertRow(table, evaluation);
+
+        List<String> options = evaluation.responseOptions;
+        for (int i = 0; (options != null) && (i < options.size()); i++) {
+            EvaluationOption option = new EvaluationOption(evaluation.lessonNumber,
+                    evaluation.stepNumber, i, options.get(i));
+            insertValues(OPTION_TABLE_NAME,
+                    EvaluationOptionSchema.INSTANCE.toContentValues(option));
+        }
     }
 
     /**
@@ -139,11 +191,15 @@ public class EvaluationTable extends Database<Evaluation> {
      *         exists, and null otherwise.
      **/
     public Evaluation getRow(int lessonNumber, int stepNumber) {
-        String query = "SELECT * FROM " + TABLE_NAME + " where " + LESSON_NUMBER_COL + " = ? and " +
-                STEP_NUMBER_COL + " = ?";
+        if (mSnapshot != null) {
+            return mSnapshot.getEvaluation(lessonNumber, stepNumber);
+        }
+
+        String query = "SELECT * FROM " + TABLE_NAME + " where " + STEP_WHERE;
 
         String[] args = {Integer.toString(lessonNumber), Integer.toString(stepNumber)};
         Evaluation[] result = unbufferedQuery(query, args, Evaluation.class);
+        attachOptions(result, STEP_WHERE, args);
         Log.e(TAG + ".getRow", "Querying for row with lessonId=" + Integer.toString(lessonNumber) +
                 " and stepNumber=" + Integer.toString(stepNumber));
 
@@ -164,11 +220,16 @@ public class EvaluationTable extends Database<Evaluation> {
      * @return An array of Evaluation objects, sorted by step number.
      **/
     public Evaluation[] getAllRows(int lessonNumber) {
-        String query = "SELECT * FROM " + TABLE_NAME + " where " + LESSON_NUMBER_COL + " = ? " +
-                "ORDER BY " + STEP_NUMBER_COL + " ASC";
+        if (mSnapshot != null) {
+            return mSnapshot.getEvaluations(lessonNumber);
+        }
+
+        String query = "SELECT * FROM " + TABLE_NAME + " where " + LESSON_WHERE + " ORDER BY " +
+                STEP_NUMBER_COL + " ASC";
 
         String[] args = {Integer.toString(lessonNumber)};
         Evaluation[] result = unbufferedQuery(query, args, Evaluation.class);
+        attachOptions(result, LESSON_WHERE, args);
 
         Log.i(TAG +".getevaluations", "Querying for all steps of evaluation " +
                 Integer.toString(lessonNumber));
@@ -189,10 +250,15 @@ public class EvaluationTable extends Database<Evaluation> {
      *         (ascending).
      **/
     public Evaluation[] getAllRows() {
+        if (mSnapshot != null) {
+            return mSnapshot.getEvaluations();
+        }
+
         String query = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + LESSON_NUMBER_COL + " ASC, "
-                + " ASC";
+                + STEP_NUMBER_COL + " ASC";
 
         Evaluation[] result = unbufferedQuery(query, null, Evaluation.class);
+        attachOptions(result, null, null);
         Log.e(TAG +".getevaluations", "Querying for all evaluation steps");
 
         // The cursor is empty, the table is empty
@@ -202,4 +268,65 @@ public class EvaluationTable extends Database<Evaluation> {
 
         return result;
     }
-}
\ No newline at end of file
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the response options of the given evaluations from the EvaluationOption table, and
+     * collects them into the responseOptions list of each evaluation. The options are selected with
+     * the same WHERE clause as the evaluations, and both are ordered by lesson number, then step
+     * number, so they are matched in a single pass over the options.
+     *
+     * @param evaluations The evaluations, ordered by lesson number then step number, or null.
+     * @param where The WHERE clause that selected the evaluations, or null if it selected all.
+     * @param args The arguments of the WHERE clause.
+     **/
+    private void attachOptions(Evaluation[] evaluations, String where, String[] args) {
+        if (evaluations == null) {
+            return;
+        }
+
+        String query = "SELECT * FROM " + OPTION_TABLE_NAME +
+                ((where == null) ? "" : " where " + where) + " ORDER BY " + LESSON_NUMBER_COL +
+                " ASC, " + STEP_NUMBER_COL + " ASC, " + OPTION_NUMBER_COL + " ASC";
+
+        Cursor cursor = bufferedQuery(query, args);
+        RowIterator<EvaluationOption> options = new RowIterator<>(cursor,
+                EvaluationOptionSchema.INSTANCE.newRowMapper(cursor));
+        try {
+            EvaluationOption option = options.hasNext() ? options.next() : null;
+            for (Evaluation evaluation : evaluations) {
+                List<String> responseOptions = new ArrayList<>();
+
+                // Skip the options of steps that are not evaluations, then take this step's
+                int order;
+                while ((option != null) && ((order = compareSteps(option, evaluation)) <= 0)) {
+                    if (order == 0) {
+                        responseOptions.add(option.text);
+                    }
+                    option = options.hasNext() ? options.next() : null;
+                }
+                evaluation.responseOptions = responseOptions;
+            }
+        } finally {
+            options.close();
+        }
+    }
+
+    /**
+     * Orders an option and an evaluation by lesson number, then step number.
+     *
+     * @return A negative number, zero, or a positive number if the option belongs to a step before,
+     *         the same as, or after the evaluation.
+     **/
+    private static int compareSteps(EvaluationOption option, Evaluation evaluation) {
+        if (option.lessonNumber != evaluation.lessonNumber) {
+            return (option.lessonNumber < evaluation.lessonNumber) ? -1 : 1;
+        } else if (option.stepNumber != evaluation.stepNumber) {
+            return (option.stepNumber < evaluation.stepNumber) ? -1 : 1;
+        }
+        return 0;
+    }
+}
@@ -1,5 +1,8 @@
 package com.spencerbarton.echoexplorer.database;
 
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
+
 /**
  * The Lesson class represents the schema of the Lesson table. An instance of this class represents
  * a single row of the Lesson table, and contains all of the fields/columns in that table.
@@ -16,6 +19,7 @@ package com.spencerbarton.echoexplorer.database;
  *
  * @author Brandon Perez (bmperez)
  **/
+@Table("Lesson")
 public class Lesson {
 
     /** The tag that identifies this class. Used for debugging. */
@@ -28,15 +32,25 @@ public class Lesson {
 
     /** Uniquely identifies the lesson. Also provides the ordering in the list view with respect
      * to other lessons. */
+    @Column("lessonNumber")
     public int lessonNumber;
     /** The name of the lesson, displayed in the list view. */
+    @Column("name")
     public String name;
     /** The description of the lesson, displayed in the list view under the name. */
+    @Column("description")
     public String description;
     /** The type of the lesson. One of {'evaluation', 'tutorial'}. Tutorial lessons contain only
      * tutorials, and evaluation lessons contains only evaluations (tests). */
+    @Column("type")
     public String type;
 
+    /**
+     * Constructs an empty Lesson object, whose columns are filled in by LessonSchema.
+     **/
+    Lesson() {
+    }
+
     /**
      * Constructs a new Lesson object using the parameters passed in by the user.
      *
@@ -0,0 +1,321 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * LessonRepository holds the whole lesson catalog, the lessons and the steps of every lesson, in
+ * memory for the life of the process. The catalog is read from the lesson tables once, on a
+ * background thread, and every activity then reads from the repository, so moving between lessons
+ * never touches the disk again.
+ *
+ * The steps are indexed by lesson number. Every list handed out is an unmodifiable view, shared by
+ * all of the activities, so a caller that needs to reorder one (e.g. to shuffle evaluations) must
+ * copy it first.
+ *
+ * The load is started with load(), typically when the process starts. Callers on the main thread
+ * should wait for it with whenLoaded(). The getters block until the catalog is loaded, and start
+ * the load if nothing has.
+ */
+public class LessonRepository {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = LessonRepository.class.getName();
+
+    /** The repository of the process. Guarded by the class. */
+    private static LessonRepository sInstance = null;
+
+    /** The application's context, used to open the lesson tables. */
+    private final Context mContext;
+    /** Delivers the load to the listeners on the main thread. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** The listeners waiting for the load to finish. Guarded by this. */
+    private final List<OnLoadedListener> mListeners = new ArrayList<>();
+
+    /** Whether a load is running. Guarded by this. */
+    private boolean mLoading = false;
+    /** Whether the catalog is loaded. Guarded by this. */
+    private boolean mLoaded = false;
+    /** The error that the last load failed with, or null. Guarded by this. */
+    private IOException mError = null;
+
+    /** All of the lessons, ordered by lesson number. */
+    private List<Lesson> mLessons;
+    /** The lessons keyed by lesson number. */
+    private SparseArray<Lesson> mLessonsByNumber;
+    /** The position of each lesson in mLessons, keyed by lesson number. */
+    private SparseIntArray mLessonIndexes;
+    /** The tutorials of each lesson, ordered by step number, keyed by lesson number. */
+    private SparseArray<List<Tutorial>> mTutorials;
+    /** The evaluations of each lesson, ordered by step number, keyed by lesson number. */
+    private SparseArray<List<Evaluation>> mEvaluations;
+
+    /**
+     * Notified on the main thread once the catalog is loaded, or could not be.
+     */
+    public interface OnLoadedListener {
+
+        /**
+         * @param repository The loaded repository.
+         **/
+        void onLessonsLoaded(LessonRepository repository);
+
+        /**
+         * @param error Why the catalog could not be loaded.
+         **/
+        void onLessonsFailed(IOException error);
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    private LessonRepository(Context context) {
+        mContext = context;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @param context Any context of the application.
+     * @return The repository of the process.
+     **/
+    public static synchronized LessonRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LessonRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts loading the catalog on a background thread, unless it is loaded or loading. A load
+     * that failed is started again.
+     **/
+    public synchronized void load() {
+        if (mLoaded || mLoading) {
+            return;
+        }
+        mLoading = true;
+        mError = null;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadCatalog();
+            }
+        }, "LessonRepository").start();
+    }
+
+    /**
+     * Calls the listener on the main thread once the catalog is loaded, starting the load if
+     * needed. If the catalog is already loaded, the listener is still called from the main
+     * thread's queue rather than from this call.
+     *
+     * @param listener The listener to notify.
+     **/
+    public void whenLoaded(OnLoadedListener listener) {
+        synchronized (this) {
+            if (!mLoaded) {
+                mListeners.add(listener);
+                load();
+                return;
+            }
+        }
+        deliver(listener, null);
+    }
+
+    /**
+     * @return All of the lessons, ordered by lesson number.
+     * @throws IOException The catalog could not be loaded.
+     **/
+    public List<Lesson> getLessons() throws IOException {
+        awaitLoaded();
+        return mLessons;
+    }
+
+    /**
+     * @param lessonNumber The number of a lesson.
+     * @return The lesson, or null if there is no such lesson.
+     * @throws IOException The catalog could not be loaded.
+     **/
+    public Lesson getLesson(int lessonNumber) throws IOException {
+        awaitLoaded();
+        return mLessonsByNumber.get(lessonNumber);
+    }
+
+    /**
+     * @param lessonNumber The number of a lesson.
+     * @return The position of the lesson in getLessons(), or -1 if there is no such lesson.
+     * @throws IOException The catalog could not be loaded.
+     **/
+    public int getLessonIndex(int lessonNumber) throws IOException {
+        awaitLoaded();
+        return mLessonIndexes.get(lessonNumber, -1);
+    }
+
+    /**
+     * @param lessonNumber The number of a lesson.
+     * @return The tutorials of the lesson, ordered by step number, empty if there are none.
+     * @throws IOException The catalog could not be loaded.
+     **/
+    public List<Tutorial> getTutorials(int lessonNumber) throws IOException {
+        awaitLoaded();
+        List<Tutorial> tutorials = mTutorials.get(lessonNumber);
+        return (tutorials == null) ? Collections.<Tutorial>emptyList() : tutorials;
+    }
+
+    /**
+     * @param lessonNumber The number of a lesson.
+     * @return The evaluations of the lesson, ordered by step number, empty if there are none.
+     * @throws IOException The catalog could not be loaded.
+     **/
+    public List<Evaluation> getEvaluations(int lessonNumber) throws IOException {
+        awaitLoaded();
+        List<Evaluation> evaluations = mEvaluations.get(lessonNumber);
+        return (evaluations == null) ? Collections.<Evaluation>emptyList() : evaluations;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Blocks until the catalog is loaded, starting the load if needed
+    private synchronized void awaitLoaded() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+
+        load();
+        try {
+            while (mLoading) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the lessons");
+        }
+
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    // Reads the catalog from the lesson tables, then publishes it and notifies the listeners
+    private void loadCatalog() {
+        IOException error = null;
+        try {
+            LessonTable lessonTable = new LessonTable(mContext);
+            Lesson[] lessons = lessonTable.getAllRows();
+            lessonTable.close();
+
+            TutorialTable tutorialTable = new TutorialTable(mContext);
+            Tutorial[] tutorials = tutorialTable.getAllRows();
+            tutorialTable.close();
+
+            EvaluationTable evaluationTable = new EvaluationTable(mContext);
+            Evaluation[] evaluations = evaluationTable.getAllRows();
+            evaluationTable.close();
+
+            index(lessons, tutorials, evaluations);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("Could not load the lessons: " + e.getMessage());
+        }
+
+        List<OnLoadedListener> listeners;
+        synchronized (this) {
+            mLoading = false;
+            mLoaded = (error == null);
+            mError = error;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+            notifyAll();
+        }
+
+        if (error != null) {
+            Log.e(TAG, error.getMessage());
+        } else {
+            Log.i(TAG, "Loaded " + mLessons.size() + " lessons");
+        }
+        for (OnLoadedListener listener : listeners) {
+            deliver(listener, error);
+        }
+    }
+
+    // Builds the indexes, which are published to other threads by the lock in loadCatalog
+    private void index(Lesson[] lessons, Tutorial[] tutorials, Evaluation[] evaluations) {
+        List<Lesson> lessonList = (lessons == null) ? new ArrayList<Lesson>() :
+                Arrays.asList(lessons);
+        mLessons = Collections.unmodifiableList(lessonList);
+        mLessonsByNumber = new SparseArray<>(lessonList.size());
+        mLessonIndexes = new SparseIntArray(lessonList.size());
+        for (int i = 0; i < lessonList.size(); i++) {
+            Lesson lesson = lessonList.get(i);
+            mLessonsByNumber.put(lesson.lessonNumber, lesson);
+            mLessonIndexes.put(lesson.lessonNumber, i);
+        }
+
+        // The steps come ordered by lesson then step number, so each lesson's steps are a run
+        SparseArray<List<Tutorial>> tutorialsByLesson = new SparseArray<>();
+        if (tutorials != null) {
+            for (Tutorial tutorial : tutorials) {
+                List<Tutorial> steps = tutorialsByLesson.get(tutorial.lessonNumber);
+                if (steps == null) {
+                    steps = new ArrayList<>();
+                    tutorialsByLesson.put(tutorial.lessonNumber, steps);
+                }
+                steps.add(tutorial);
+            }
+        }
+        for (int i = 0; i < tutorialsByLesson.size(); i++) {
+            tutorialsByLesson.setValueAt(i, Collections.unmodifiableList(
+                    tutorialsByLesson.valueAt(i)));
+        }
+        mTutorials = tutorialsByLesson;
+
+        SparseArray<List<Evaluation>> evaluationsByLesson = new SparseArray<>();
+        if (evaluations != null) {
+            for (Evaluation evaluation : evaluations) {
+                evaluation.responseOptions = Collections.unmodifiableList(
+                        evaluation.responseOptions);
+                List<Evaluation> steps = evaluationsByLesson.get(evaluation.lessonNumber);
+                if (steps == null) {
+                    steps = new ArrayList<>();
+                    evaluationsByLesson.put(evaluation.lessonNumber, steps);
+                }
+                steps.add(evaluation);
+            }
+        }
+        for (int i = 0; i < evaluationsByLesson.size(); i++) {
+            evaluationsByLesson.setValueAt(i, Collections.unmodifiableList(
+                    evaluationsByLesson.valueAt(i)));
+        }
+        mEvaluations = evaluationsByLesson;
+    }
+
+    private void deliver(final OnLoadedListener listener, final IOException error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    listener.onLessonsLoaded(LessonRepository.this);
+                } else {
+                    listener.onLessonsFailed(error);
+                }
+            }
+        });
+    }
+}
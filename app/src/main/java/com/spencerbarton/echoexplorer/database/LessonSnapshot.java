@@ -0,0 +1,403 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LessonSnapshot serves the read-only lesson content (the Lesson, TutorialStep and EvaluationStep
+ * tables) from a compact binary snapshot of the LessonDatabase, which is compiled by the
+ * generateLessonSnapshot task in build.gradle and stored uncompressed in the assets folder. The
+ * snapshot is memory-mapped, so opening it costs no SQLite connection, no cursor windows, and no
+ * parsing of numbers. The lesson tables use it when it is available, and fall back to SQLite
+ * otherwise.
+ *
+ * The snapshot is big-endian, and laid out as follows. All indexes and counts are ints, and a
+ * string index of -1 is a null string.
+ *
+ *     Header (60 bytes):
+ *         magic ("ELSN"), format version, CRC32 of the LessonDatabase (long),
+ *         lesson count, tutorial count, evaluation count, option count, string count,
+ *         offsets of the lessons, tutorials, evaluations, options, string index and string data
+ *     Lessons, sorted by lesson number (32 bytes each):
+ *         lessonNumber, name, type, description,
+ *         first tutorial, tutorial count, first evaluation, evaluation count
+ *     Tutorials, sorted by lesson then step number (20 bytes each):
+ *         lessonNumber, stepNumber, directionsAudioFile, echoAudioFile, textDirections
+ *     Evaluations, sorted by lesson then step number (32 bytes each):
+ *         lessonNumber, stepNumber, directionsAudioFile, echoAudioFile, textDirections,
+ *         first option, option count, correctResponse
+ *     Options: the string index of each response option
+ *     String index: string count + 1 byte offsets into the string data
+ *     String data: the UTF-8 bytes of every distinct string
+ *
+ * The steps of each lesson are contiguous, and the lesson records index them, so the steps of a
+ * lesson are found with a binary search over the lessons. Strings are decoded the first time they
+ * are read, and shared afterwards.
+ */
+public class LessonSnapshot {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = LessonSnapshot.class.getName();
+
+    /** The name of the snapshot in the assets folder. */
+    static final String ASSET_NAME = "LessonDatabase.snapshot";
+
+    /** The first int of every snapshot. */
+    private static final int MAGIC = 0x454C534E; // ELSN
+    /** The version of the layout that this reader understands. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The size of the header, in bytes. */
+    private static final int HEADER_SIZE = 60;
+    /** The size of a lesson record, in bytes. */
+    private static final int LESSON_RECORD_SIZE = 32;
+    /** The size of a tutorial record, in bytes. */
+    private static final int TUTORIAL_RECORD_SIZE = 20;
+    /** The size of an evaluation record, in bytes. */
+    private static final int EVALUATION_RECORD_SIZE = 32;
+
+    /** The charset of the string data. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The snapshot of the process, once opened. Guarded by the class. */
+    private static LessonSnapshot sInstance = null;
+    /** Whether opening the snapshot was attempted in this process. Guarded by the class. */
+    private static boolean sOpened = false;
+
+    /** The mapped (or, if it is compressed, read) snapshot. Only read with absolute gets. */
+    private final ByteBuffer mBuffer;
+    /** The CRC32 checksum of the LessonDatabase that the snapshot was compiled from. */
+    private final long mSourceChecksum;
+    /** The number of records in each section. */
+    private final int mLessonCount;
+    private final int mTutorialCount;
+    private final int mEvaluationCount;
+    private final int mOptionCount;
+    private final int mStringCount;
+    /** The offset of each section from the start of the snapshot. */
+    private final int mLessonsOffset;
+    private final int mTutorialsOffset;
+    private final int mEvaluationsOffset;
+    private final int mOptionsOffset;
+    private final int mStringIndexOffset;
+    private final int mStringDataOffset;
+    /** The strings that have been decoded. Strings are immutable, so racing decodes are benign. */
+    private final String[] mStrings;
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Constructs a snapshot that reads from the given buffer, and checks its header.
+     *
+     * @param buffer The whole snapshot, from position 0.
+     * @throws IOException The buffer does not hold a snapshot this reader understands.
+     **/
+    LessonSnapshot(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a lesson snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported lesson snapshot version " + buffer.getInt(4));
+        }
+
+        mSourceChecksum = buffer.getLong(8);
+        mLessonCount = buffer.getInt(16);
+        mTutorialCount = buffer.getInt(20);
+        mEvaluationCount = buffer.getInt(24);
+        mOptionCount = buffer.getInt(28);
+        mStringCount = buffer.getInt(32);
+        mLessonsOffset = buffer.getInt(36);
+        mTutorialsOffset = buffer.getInt(40);
+        mEvaluationsOffset = buffer.getInt(44);
+        mOptionsOffset = buffer.getInt(48);
+        mStringIndexOffset = buffer.getInt(52);
+        mStringDataOffset = buffer.getInt(56);
+
+        checkSection(mLessonsOffset, mLessonCount, LESSON_RECORD_SIZE);
+        checkSection(mTutorialsOffset, mTutorialCount, TUTORIAL_RECORD_SIZE);
+        checkSection(mEvaluationsOffset, mEvaluationCount, EVALUATION_RECORD_SIZE);
+        checkSection(mOptionsOffset, mOptionCount, 4);
+        checkSection(mStringIndexOffset, mStringCount + 1, 4);
+        checkSection(mStringDataOffset, buffer.getInt(mStringIndexOffset + mStringCount * 4), 1);
+
+        mStrings = new String[mStringCount];
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the lesson snapshot of the process, mapping it the first time. If the snapshot is
+     * missing or cannot be read, null is returned, then and on every later call, and the lesson
+     * tables use SQLite instead.
+     *
+     * @param context The application's context. Used to access the assets folder.
+     * @return The snapshot, or null if it is not available.
+     **/
+    public static synchronized LessonSnapshot getInstance(Context context) {
+        if (!sOpened) {
+            sOpened = true;
+            try {
+                sInstance = new LessonSnapshot(mapAsset(context, ASSET_NAME));
+                Log.i(TAG, "Mapped the lesson snapshot of LessonDatabase " +
+                        Long.toHexString(sInstance.mSourceChecksum));
+            } catch (IOException e) {
+                Log.e(TAG, "Lesson snapshot unavailable, using SQLite: " + e.getMessage());
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return The CRC32 checksum of the LessonDatabase that the snapshot was compiled from.
+     **/
+    public long getSourceChecksum() {
+        return mSourceChecksum;
+    }
+
+    /**
+     * @return All of the lessons, ordered by lesson number, or null if there are none.
+     **/
+    public Lesson[] getLessons() {
+        if (mLessonCount == 0) {
+            return null;
+        }
+
+        Lesson[] lessons = new Lesson[mLessonCount];
+        for (int i = 0; i < mLessonCount; i++) {
+            lessons[i] = readLesson(i);
+        }
+        return lessons;
+    }
+
+    /**
+     * @param lessonNumber The number of the lesson to retrieve the tutorials for.
+     * @return The tutorials of the lesson, ordered by step number, or null if there are none.
+     **/
+    public Tutorial[] getTutorials(int lessonNumber) {
+        int lesson = findLesson(lessonNumber);
+        if (lesson < 0) {
+            return null;
+        }
+        int record = mLessonsOffset + lesson * LESSON_RECORD_SIZE;
+        return readTutorials(mBuffer.getInt(record + 16), mBuffer.getInt(record + 20));
+    }
+
+    /**
+     * @return All of the tutorials, ordered by lesson then step number, or null if there are none.
+     **/
+    public Tutorial[] getTutorials() {
+        return readTutorials(0, mTutorialCount);
+    }
+
+    /**
+     * @param lessonNumber The lesson number of the lesson that the tutorial belongs to.
+     * @param stepNumber The step number of the tutorial in the given lesson.
+     * @return The tutorial, or null if it does not exist.
+     **/
+    public Tutorial getTutorial(int lessonNumber, int stepNumber) {
+        Tutorial[] tutorials = getTutorials(lessonNumber);
+        if (tutorials != null) {
+            for (Tutorial tutorial : tutorials) {
+                if (tutorial.stepNumber == stepNumber) {
+                    return tutorial;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param lessonNumber The number of the lesson to retrieve the evaluations for.
+     * @return The evaluations of the lesson, ordered by step number, or null if there are none.
+     **/
+    public Evaluation[] getEvaluations(int lessonNumber) {
+        int lesson = findLesson(lessonNumber);
+        if (lesson < 0) {
+            return null;
+        }
+        int record = mLessonsOffset + lesson * LESSON_RECORD_SIZE;
+        return readEvaluations(mBuffer.getInt(record + 24), mBuffer.getInt(record + 28));
+    }
+
+    /**
+     * @return All of the evaluations, ordered by lesson then step number, or null if there are
+     *         none.
+     **/
+    public Evaluation[] getEvaluations() {
+        return readEvaluations(0, mEvaluationCount);
+    }
+
+    /**
+     * @param lessonNumber The lesson number of the lesson that the evaluation belongs to.
+     * @param stepNumber The step number of the evaluation in the given lesson.
+     * @return The evaluation, or null if it does not exist.
+     **/
+    public Evaluation getEvaluation(int lessonNumber, int stepNumber) {
+        Evaluation[] evaluations = getEvaluations(lessonNumber);
+        if (evaluations != null) {
+            for (Evaluation evaluation : evaluations) {
+                if (evaluation.stepNumber == stepNumber) {
+                    return evaluation;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the snapshot of the process, so the next call to getInstance maps it again. Used
+     * by the benchmarks to measure a cold load.
+     **/
+    static synchronized void reset() {
+        sInstance = null;
+        sOpened = false;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Maps the given asset if it is stored uncompressed, and reads it onto the heap otherwise.
+     **/
+    private static ByteBuffer mapAsset(Context context, String name) throws IOException {
+        try {
+            AssetFileDescriptor fd = context.getAssets().openFd(name);
+            try {
+                // The mapping stays valid once the channel and descriptor are closed
+                FileInputStream stream = new FileInputStream(fd.getFileDescriptor());
+                try {
+                    return stream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                            fd.getStartOffset(), fd.getLength());
+                } finally {
+                    stream.close();
+                }
+            } finally {
+                fd.close();
+            }
+        } catch (IOException e) {
+            // openFd fails on compressed assets, which can still be read
+            Log.i(TAG, "Reading " + name + " onto the heap: " + e.getMessage());
+        }
+
+        InputStream in = context.getAssets().open(name);
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    private void checkSection(int offset, int count, int recordSize) throws IOException {
+        if (offset < HEADER_SIZE || count < 0 ||
+                (long) offset + (long) count * recordSize > mBuffer.limit()) {
+            throw new IOException("Truncated lesson snapshot");
+        }
+    }
+
+    // Binary search of the lesson records, which are sorted by lesson number
+    private int findLesson(int lessonNumber) {
+        int low = 0;
+        int high = mLessonCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int number = mBuffer.getInt(mLessonsOffset + mid * LESSON_RECORD_SIZE);
+            if (number < lessonNumber) {
+                low = mid + 1;
+            } else if (number > lessonNumber) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Lesson readLesson(int index) {
+        int record = mLessonsOffset + index * LESSON_RECORD_SIZE;
+        return new Lesson(mBuffer.getInt(record), getString(mBuffer.getInt(record + 4)),
+                getString(mBuffer.getInt(record + 12)), getString(mBuffer.getInt(record + 8)));
+    }
+
+    private Tutorial[] readTutorials(int first, int count) {
+        if (count == 0) {
+            return null;
+        }
+
+        Tutorial[] tutorials = new Tutorial[count];
+        for (int i = 0; i < count; i++) {
+            int record = mTutorialsOffset + (first + i) * TUTORIAL_RECORD_SIZE;
+            tutorials[i] = new Tutorial(mBuffer.getInt(record), mBuffer.getInt(record + 4),
+                    getString(mBuffer.getInt(record + 8)), getString(mBuffer.getInt(record + 12)),
+                    getString(mBuffer.getInt(record + 16)));
+        }
+        return tutorials;
+    }
+
+    private Evaluation[] readEvaluations(int first, int count) {
+        if (count == 0) {
+            return null;
+        }
+
+        Evaluation[] evaluations = new Evaluation[count];
+        for (int i = 0; i < count; i++) {
+            int record = mEvaluationsOffset + (first + i) * EVALUATION_RECORD_SIZE;
+            int firstOption = mBuffer.getInt(record + 20);
+            int optionCount = mBuffer.getInt(record + 24);
+
+            List<String> options = new ArrayList<>(optionCount);
+            for (int j = 0; j < optionCount; j++) {
+                options.add(getString(mBuffer.getInt(mOptionsOffset + (firstOption + j) * 4)));
+            }
+
+            evaluations[i] = new Evaluation(mBuffer.getInt(record), mBuffer.getInt(record + 4),
+                    getString(mBuffer.getInt(record + 8)), getString(mBuffer.getInt(record + 12)),
+                    getString(mBuffer.getInt(record + 16)), options,
+                    mBuffer.getInt(record + 28));
+        }
+        return evaluations;
+    }
+
+    private String getString(int index) {
+        if (index < 0) {
+            return null;
+        }
+
+        String string = mStrings[index];
+        if (string == null) {
+            int start = mBuffer.getInt(mStringIndexOffset + index * 4);
+            int end = mBuffer.getInt(mStringIndexOffset + (index + 1) * 4);
+            byte[] bytes = new byte[end - start];
+
+            ByteBuffer data = mBuffer.duplicate();
+            data.position(mStringDataOffset + start);
+            data.get(bytes);
+            string = new String(bytes, UTF_8);
+            mStrings[index] = string;
+        }
+        return string;
+    }
+}
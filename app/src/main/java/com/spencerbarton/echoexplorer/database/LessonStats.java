@@ -1,14 +1,76 @@
 package com.spencerbarton.echoexplorer.database;
 
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
+
 /**
  * Created by Susan on 5/25/15.
+ *
+ * The progress of the user in a single lesson, a row of the lesson_stats table. The row is rolled
+ * up from the lesson's responses as they are inserted, see LessonStatsTable. A session is one run
+ * of the evaluation of the lesson, and its score is the number of steps answered correctly in it.
  */
+@Table("lesson_stats")
 public class LessonStats {
-    int mTimestamp;
-    String mResponse;
 
-    public LessonStats(int mTimestamp, String mResponse){
-        this.mResponse = mResponse;
-        this.mTimestamp = mTimestamp;
+    // Columns, package-private so that LessonStatsSchema can fill them in
+    @Column("lessonNumber")
+    int _mLessonNum;
+    @Column("attempts")
+    int _mAttempts;
+    @Column("correct")
+    int _mCorrect;
+    @Column("sessionStart")
+    long _mSessionStart;
+    @Column("sessionScore")
+    int _mSessionScore;
+    @Column("bestScore")
+    int _mBestScore;
+    @Column("lastAttempt")
+    long _mLastAttempt;
+    @Column("accuracy")
+    double _mAccuracy;
+
+    // Empty constructor, the columns are filled in by LessonStatsSchema
+    LessonStats(){
+
+    }
+
+    public int getLessonNum(){
+        return this._mLessonNum;
+    }
+
+    // The number of responses to the steps of the lesson
+    public int getAttempts(){
+        return this._mAttempts;
+    }
+
+    // The number of those responses that were correct
+    public int getCorrect(){
+        return this._mCorrect;
+    }
+
+    // The fraction of the responses that were correct, from 0 to 1
+    public double getAccuracy(){
+        return this._mAccuracy;
+    }
+
+    // The score of the latest session, and the best score of any session
+    public int getSessionScore(){
+        return this._mSessionScore;
+    }
+
+    public int getBestScore(){
+        return this._mBestScore;
+    }
+
+    // When the latest session started and when the latest response was given, in milliseconds
+    // since the epoch
+    public long getSessionStart(){
+        return this._mSessionStart;
+    }
+
+    public long getLastAttempt(){
+        return this._mLastAttempt;
     }
 }
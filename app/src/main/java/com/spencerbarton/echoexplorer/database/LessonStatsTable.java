@@ -2,37 +2,190 @@ package com.spencerbarton.echoexplorer.database;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.SparseArray;
 
-import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
  * Created by Susan on 5/25/15.
+ *
+ * The lesson_stats table rolls up the responses of each lesson, so that the progress of the user
+ * is read in constant time however many responses there are. It lives in UserStatsDB next to
+ * all_response, and a trigger on all_response updates the lesson's row in the transaction of
+ * every insert, whichever way the response is written.
+ *
+ * A session is one run of the evaluation of a lesson, recorded with each response. Its score
+ * counts the steps answered correctly, each once however many times it was answered, so it never
+ * exceeds the number of steps. Responses recorded before sessions were, whose session is UNKNOWN,
+ * fall back on starting a new session after a gap of SESSION_GAP_MS.
  */
-public class LessonStatsTable extends Database<LessonStats> {
+public class LessonStatsTable {
 
-    // Tag for debugging
-    private static final String TAG = LessonStatsTable.class.getName();
+    // Responses to a lesson outside of any session, more than this far apart, start a new session
+    static final long SESSION_GAP_MS = 30 * 60 * 1000;
 
-    // The name of the database and table
-    private static final String DB_NAME = "Statistics";
-    private static final String TABLE_NAME = "LessonStats";
+    //table name
+    static final String TABLE_NAME = LessonStatsSchema.TABLE;
 
-    // The columns of the table
-    private static final String _idCol = "_id";
-    private static final String RESPONSE_COL = "response";
-    private static final String TIMESTAMP_COL = "timestamp";
+    //Columns names
+    private static final String KEY_LESSON = LessonStatsSchema.LESSON_NUMBER;
+    private static final String KEY_ATTEMPTS = LessonStatsSchema.ATTEMPTS;
+    private static final String KEY_CORRECT = LessonStatsSchema.CORRECT;
+    private static final String KEY_SESSION_START = LessonStatsSchema.SESSION_START;
+    private static final String KEY_SESSION_SCORE = LessonStatsSchema.SESSION_SCORE;
+    private static final String KEY_BEST_SCORE = LessonStatsSchema.BEST_SCORE;
+    private static final String KEY_LAST_ATTEMPT = LessonStatsSchema.LAST_ATTEMPT;
+    private static final String KEY_ACCURACY = LessonStatsSchema.ACCURACY;
 
-    public LessonStatsTable(Context context) throws SQLiteException, IOException{
-        super(context, DB_NAME, true);
+    private static final String SELECT_COLUMNS = TextUtils.join(", ",
+            LessonStatsSchema.INSTANCE.getColumns());
+
+    // The trigger that rolls up each response inserted into all_response
+    private static final String TRIGGER_NAME = TABLE_NAME + "_on_response";
+
+    // The table shared by the asynchronous requests of the process, which is never closed
+    private static LessonStatsTable sInstance = null;
+
+    // The database that the table lives in
+    private final UserStatsTable mUserStats;
+
+    public LessonStatsTable(Context context) {
+        this(new UserStatsTable(context));
+    }
+
+    private LessonStatsTable(UserStatsTable userStats) {
+        mUserStats = userStats;
+    }
+
+    // Getting the shared table, which lives in the shared UserStatsTable
+    public static synchronized LessonStatsTable getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LessonStatsTable(UserStatsTable.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    // Getting the stats of a lesson, or null if it has no responses
+    public LessonStats getLessonStats(int lessonNumber) {
+        Database.RowIterator<LessonStats> rows = query(KEY_LESSON + " = ?",
+                new String[]{String.valueOf(lessonNumber)});
+        try {
+            return rows.hasNext() ? rows.next() : null;
+        } finally {
+            rows.close();
+        }
+    }
+
+    // Getting the stats of every lesson with responses, by lesson number
+    public SparseArray<LessonStats> getAllLessonStats() {
+        SparseArray<LessonStats> statsByLesson = new SparseArray<>();
+        Database.RowIterator<LessonStats> rows = query(null, null);
+        try {
+            while (rows.hasNext()) {
+                LessonStats stats = rows.next();
+                statsByLesson.put(stats.getLessonNum(), stats);
+            }
+        } finally {
+            rows.close();
+        }
+        return statsByLesson;
     }
 
-    @Override
-    public LessonStats packCursorEntry(Cursor cursor) {
-        int mTimestamp = Integer.parseInt(getColumnByName(cursor,
-                TIMESTAMP_COL));
-        String mResponse = getColumnByName(cursor, RESPONSE_COL);
-        return new LessonStats(mTimestamp, mResponse);
+    // Getting the stats of every lesson on a reader thread of the DatabaseExecutor, delivered to
+    // the callback on the main thread; the requests of the owner are cancelled when it is destroyed
+    public DatabaseExecutor.Request<SparseArray<LessonStats>> getAllLessonStatsAsync(Object owner,
+            DatabaseExecutor.Callback<SparseArray<LessonStats>> callback) {
+        return DatabaseExecutor.getInstance().read(owner,
+                new Callable<SparseArray<LessonStats>>() {
+                    @Override
+                    public SparseArray<LessonStats> call() {
+                        return getAllLessonStats();
+                    }
+                }, callback);
     }
 
+    public void close() {
+        mUserStats.close();
+    }
+
+    // Dropping the table and its trigger, called by UserStatsTable before rebuilding them
+    static void dropTable(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+    }
+
+    // Creating the table and the trigger that maintains it, called by UserStatsTable
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + "("
+                + KEY_LESSON + " INTEGER PRIMARY KEY,"
+                + KEY_ATTEMPTS + " INTEGER NOT NULL,"
+                + KEY_CORRECT + " INTEGER NOT NULL,"
+                + KEY_SESSION_START + " INTEGER NOT NULL,"
+                + KEY_SESSION_SCORE + " INTEGER NOT NULL,"
+                + KEY_BEST_SCORE + " INTEGER NOT NULL,"
+                + KEY_LAST_ATTEMPT + " INTEGER NOT NULL,"
+                + KEY_ACCURACY + " REAL NOT NULL" + ")");
+
+        // The SET expressions all read the row as it was before the update. A response in
+        // another session than the last one starts a new session, whose score starts from 0, and
+        // only the first correct response to each step of a session scores. The start of a
+        // session outside of any session is the time of its first response.
+        // Responses of unknown lessons, migrated from version 1, are not rolled up.
+        String lesson = "NEW." + UserStatsSchema.LESSON_NUMBER;
+        String time = "NEW." + UserStatsSchema.TIME;
+        String session = "NEW." + UserStatsSchema.SESSION;
+        String noSession = "(" + session + " = " + UserStats.UNKNOWN + ")";
+        String isCorrect = "(NEW." + UserStatsSchema.CORRECT + " = 1)";
+        String sessionStart = "CASE WHEN " + noSession + " THEN " + time + " ELSE " + session
+                + " END";
+        String newSession = "(CASE WHEN " + noSession + " THEN " + time + " - " + KEY_LAST_ATTEMPT
+                + " > " + SESSION_GAP_MS + " ELSE " + session + " != " + KEY_SESSION_START
+                + " END)";
+        String scores = "(" + isCorrect + " AND (" + noSession + " OR NOT EXISTS (SELECT 1 FROM "
+                + UserStatsSchema.TABLE + " WHERE " + UserStatsSchema.SESSION + " = " + session
+                + " AND " + UserStatsSchema.LESSON_NUMBER + " = " + lesson
+                + " AND " + UserStatsSchema.STEP_NUMBER + " = NEW." + UserStatsSchema.STEP_NUMBER
+                + " AND " + UserStatsSchema.CORRECT + " = 1 AND _id != NEW._id)))";
+        String sessionScore = "(CASE WHEN " + newSession + " THEN 0 ELSE " + KEY_SESSION_SCORE
+                + " END + " + scores + ")";
+        db.execSQL("CREATE TRIGGER " + TRIGGER_NAME + " AFTER INSERT ON " + UserStatsSchema.TABLE
+                + " WHEN " + lesson + " != " + UserStats.UNKNOWN + " BEGIN "
+                + "INSERT OR IGNORE INTO " + TABLE_NAME + "(" + SELECT_COLUMNS + ") VALUES ("
+                + lesson + ", 0, 0, " + sessionStart + ", 0, 0, " + time + ", 0); "
+                + "UPDATE " + TABLE_NAME + " SET "
+                + KEY_ATTEMPTS + " = " + KEY_ATTEMPTS + " + 1, "
+                + KEY_CORRECT + " = " + KEY_CORRECT + " + " + isCorrect + ", "
+                + KEY_ACCURACY + " = (" + KEY_CORRECT + " + " + isCorrect + ") * 1.0 / ("
+                + KEY_ATTEMPTS + " + 1), "
+                + KEY_SESSION_START + " = CASE WHEN " + newSession + " THEN " + sessionStart
+                + " ELSE " + KEY_SESSION_START + " END, "
+                + KEY_SESSION_SCORE + " = " + sessionScore + ", "
+                + KEY_BEST_SCORE + " = MAX(" + KEY_BEST_SCORE + ", " + sessionScore + "), "
+                + KEY_LAST_ATTEMPT + " = MAX(" + KEY_LAST_ATTEMPT + ", " + time + ") "
+                + "WHERE " + KEY_LESSON + " = " + lesson + "; END");
+    }
+
+    // Rolling up the responses already in all_response, by inserting them again in time order
+    // through the trigger. Only used when the table is rebuilt in an existing database.
+    static void rollUpResponses(SQLiteDatabase db, String responseColumns) {
+        db.execSQL("DELETE FROM " + TABLE_NAME);
+        db.execSQL("CREATE TEMP TABLE replay AS SELECT " + responseColumns + " FROM "
+                + UserStatsSchema.TABLE);
+        db.execSQL("DELETE FROM " + UserStatsSchema.TABLE);
+        db.execSQL("INSERT INTO " + UserStatsSchema.TABLE + "(" + responseColumns + ") SELECT "
+                + responseColumns + " FROM replay ORDER BY " + UserStatsSchema.TIME + ", _id");
+        db.execSQL("DROP TABLE replay");
+    }
+
+    // Selecting the stats that match the where clause, or all of them, by lesson
+    private Database.RowIterator<LessonStats> query(String where, String[] args) {
+        String selectQuery = "SELECT " + SELECT_COLUMNS + " FROM " + TABLE_NAME
+                + ((where == null) ? "" : " WHERE " + where) + " ORDER BY " + KEY_LESSON;
+
+        SQLiteDatabase db = mUserStats.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery, args);
+        return new Database.RowIterator<>(cursor, LessonStatsSchema.INSTANCE.newRowMapper(cursor));
+    }
 }
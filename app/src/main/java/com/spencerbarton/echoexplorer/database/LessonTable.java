@@ -27,19 +27,16 @@ public class LessonTable extends Database<Lesson> {
     /** The name of the database that contains the Lesson table. */
     private static final String DB_NAME = "LessonDatabase";
     /** The name of the lesson table. */
-    private static final String TABLE_NAME = "Lesson";
+    private static final String TABLE_NAME = LessonSchema.TABLE;
 
     /** The name of the column that corresponds to the row number in table. Used by Cursor objects
      *  to order the results of a query. */
     private static final String _idCol = "_id";
     /** The name of the columns that contains the lesson number. */
-    private static final String LESSON_NUMBER_COL = "lessonNumber";
-    /** The name of the column that contains the lesson name. */
-    private static final String NAME_COL = "name";
-    /** The name of the column that contains the lesson description. */
-    private static final String DESCRIPTION_COL = "description";
-    /** The name of the column that contains lesson type. */
-    private static final String TYPE_COL = "type";
+    private static final String LESSON_NUMBER_COL = LessonSchema.LESSON_NUMBER;
+
+    /** The snapshot that rows are served from, or null if they are queried from the database. */
+    private final LessonSnapshot mSnapshot;
 
     //----------------------------------------------------------------------------------------------
     // Constructor
@@ -55,7 +52,22 @@ public class LessonTable extends Database<Lesson> {
      *                     does not exist in the assets folder (if the database is static).
      **/
     public LessonTable(Context context) throws SQLiteException, IOException {
-        super(context, DB_NAME, true);
+        this(context, LessonSnapshot.getInstance(context));
+    }
+
+    /**
+     * Constructs a new LessonTable object that serves its rows from the given lesson snapshot, and
+     * only connects to the database if there is no snapshot.
+     *
+     * @param context The application's context. Used by the Database base class.
+     * @param snapshot The lesson snapshot, or null to query the database.
+     * @throws SQLiteException The database file is not properly formatted.
+     * @throws IOException The database file is not writeable or readable, or the dbName does
+     *                     does not exist in the assets folder (if the database is static).
+     **/
+    LessonTable(Context context, LessonSnapshot snapshot) throws SQLiteException, IOException {
+        super(context, DB_NAME, true, snapshot == null);
+        mSnapshot = snapshot;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -67,19 +79,44 @@ public class LessonTable extends Database<Lesson> {
      * next entry in the Cursor object, and packs it into a new Lesson object. Returns a handle to
      * this new object.
      *
+     * This is a compatibility path, which resolves the column indexes on every call. Callers that
+     * pack the rows of a cursor one at a time should iterate them with iterateQuery() instead.
+     *
      * This implements the abstract method in the Database superclass.
      *
      * @param cursor The Cursor object to pack the next entry into the Lesson object.
      * @return A new Lesson object, with the information from the next cursor entry.
      **/
     public Lesson packRow(Cursor cursor) {
+        return newRowMapper(cursor).mapRow(cursor);
+    }
 
-        int lessonNumber = Integer.parseInt(getColumnByName(cursor, LESSON_NUMBER_COL));
-        String name = getColumnByName(cursor, NAME_COL);
-        String type = getColumnByName(cursor, TYPE_COL);
-        String description = getColumnByName(cursor, DESCRIPTION_COL);
+    /**
+     * Creates a row mapper for the given cursor with the generated LessonSchema, which resolves
+     * the indexes of the Lesson columns once, and reads them with typed getters.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param cursor The Cursor object with the results of a query on the Lesson table.
+     * @return A row mapper that packs the rows of the cursor into Lesson objects.
+     **/
+    @Override
+    protected RowMapper<Lesson> newRowMapper(Cursor cursor) {
+        return LessonSchema.INSTANCE.newRowMapper(cursor);
+    }
 
-        return new Lesson(lessonNumber, name, type, description);
+    /**
+     * Creates the array that query results are collected into, without reflection.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param cls The class object of the Lesson type.
+     * @param size The length of the array.
+     * @return A new array of Lesson objects.
+     **/
+    @Override
+    protected Lesson[] newArray(Class<Lesson> cls, int size) {
+        return LessonSchema.INSTANCE.newArray(size);
     }
 
     /**
@@ -92,14 +129,7 @@ public class LessonTable extends Database<Lesson> {
      **/
     public ContentValues unpackRow(Lesson lesson)
     {
-        ContentValues mapping = new ContentValues();
-
-        mapping.put(LESSON_NUMBER_COL, Integer.toString(lesson.lessonNumber));
-        mapping.put(NAME_COL, lesson.name);
-        mapping.put(TYPE_COL, lesson.type);
-        mapping.put(DESCRIPTION_COL, lesson.description);
-
-        return mapping;
+        return LessonSchema.INSTANCE.toContentValues(lesson);
     }
 
     /**
@@ -111,6 +141,10 @@ public class LessonTable extends Database<Lesson> {
      * @return An array of Lesson objects, ordered by lesson number.
      **/
     public Lesson[] getAllRows() {
+        if (mSnapshot != null) {
+            return mSnapshot.getLessons();
+        }
+
         String query = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + LESSON_NUMBER_COL + " ASC";
 
         Lesson[] result = unbufferedQuery(query, null, Lesson.class);
@@ -0,0 +1,372 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * ResponseLogger records the responses of the user in the UserStats table without blocking the
+ * caller. Responses are queued in memory, and flushed in one transaction on the writer thread of
+ * the DatabaseExecutor, through an insert statement that is compiled once per connection and
+ * reused. The logger of the process writes through the shared table from
+ * UserStatsTable.getInstance(), so the database has one connection and one writer.
+ *
+ * The queue is flushed once it holds FLUSH_SIZE responses, FLUSH_DELAY_MS after the first response
+ * queued since the last flush, and whenever flush() is called. Activities flush when they stop, and
+ * the application flushes when it is trimmed, so that queued responses are written before the
+ * process can be killed.
+ * A flush that fails puts its responses back in the queue, and is retried after RETRY_DELAY_MS,
+ * doubled by each failure in a row up to MAX_RETRY_DELAY_MS. Until a flush succeeds, responses
+ * that fill the queue and calls to flush() wait for the retry instead of flushing at once. Only a
+ * response that breaks a constraint of the table is dropped on its own, as retrying it cannot help.
+ * Any other error, such as a full or locked disk, fails the whole flush.
+ *
+ * The depth of the queue and the latency of each flush are logged under the class tag, and can be
+ * read with getQueueDepth(), getMaxQueueDepth(), getLastFlushMillis() and getMaxFlushMillis().
+ */
+public class ResponseLogger {
+
+    /** The tag that identifies this class. Used for debugging. */
+    private static final String TAG = ResponseLogger.class.getName();
+
+    /** The number of queued responses that triggers a flush. */
+    private static final int FLUSH_SIZE = 32;
+    /** The longest time that a response waits in the queue, in milliseconds. */
+    private static final long FLUSH_DELAY_MS = 5000;
+    /** The delay before retrying a failed flush, doubled by each failure in a row. */
+    private static final long RETRY_DELAY_MS = 1000;
+    /** The longest delay before retrying a failed flush, in milliseconds. */
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    /** The logger of the process. Guarded by the class. */
+    private static ResponseLogger sInstance = null;
+
+    /** The table that the responses are written to. Only used by the writer. */
+    private final UserStatsTable mTable;
+    /** Delays the flushes until they are due, then submits them to the writer. */
+    private final Handler mTimer = new Handler(Looper.getMainLooper());
+
+    /** The responses waiting to be written, oldest first. Guarded by this. */
+    private List<UserStats> mQueue = new ArrayList<>();
+    /** Whether a flush is posted to the timer or submitted to the writer. Guarded by this. */
+    private boolean mFlushPosted = false;
+    /** Whether a flush is submitted to the writer and has not started. Guarded by this. */
+    private boolean mFlushSubmitted = false;
+    /** The delay before the next retry, if the next flush fails. Guarded by this. */
+    private long mRetryDelayMillis = RETRY_DELAY_MS;
+    /** Whether the last flush failed, so the next one waits for its retry. Guarded by this. */
+    private boolean mRetrying = false;
+
+    /** The largest depth that the queue has reached. Guarded by this. */
+    private int mMaxQueueDepth = 0;
+    /** The number of flushes that wrote responses. Guarded by this. */
+    private int mFlushCount = 0;
+    /** The latency of the last flush, and of the slowest one, in milliseconds. Guarded by this. */
+    private float mLastFlushMillis = 0;
+    private float mMaxFlushMillis = 0;
+
+    /** The connection of the writer, or null if it is closed. Only used by the writer. */
+    private SQLiteDatabase mDatabase = null;
+    /** The insert statement compiled for mDatabase. Only used by the writer. */
+    private SQLiteStatement mInsert = null;
+
+    /** Submits a flush to the writer once it is due, posted to the timer. */
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ResponseLogger.this) {
+                if (!mFlushSubmitted) {
+                    submitFlush();
+                }
+            }
+        }
+    };
+
+    /** Writes the queue, run by the writer. */
+    private final Callable<Void> mWriteTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            writeQueue();
+            return null;
+        }
+    };
+
+    /** Releases the insert statement of the writer, run by the writer. */
+    private final Callable<Void> mCloseTask = new Callable<Void>() {
+        @Override
+        public Void call() {
+            closeDatabase();
+            return null;
+        }
+    };
+
+    //----------------------------------------------------------------------------------------------
+    // Constructor
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * Constructs a logger that writes to the given table on the writer of the DatabaseExecutor.
+     *
+     * @param table The table to write the responses to.
+     **/
+    ResponseLogger(UserStatsTable table) {
+        mTable = table;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    /**
+     * @param context Any context of the application.
+     * @return The logger of the process.
+     **/
+    public static synchronized ResponseLogger getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResponseLogger(UserStatsTable.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues the given response to be written by the writer. Returns immediately.
+     *
+     * @param response The response to record.
+     **/
+    public synchronized void log(UserStats response) {
+        mQueue.add(response);
+        int depth = mQueue.size();
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, depth);
+
+        if (depth >= FLUSH_SIZE) {
+            postFlush(0);
+        } else if (!mFlushPosted) {
+            postFlush(FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Asks the writer to write the queued responses now. Returns immediately.
+     **/
+    public synchronized void flush() {
+        if (!mQueue.isEmpty()) {
+            postFlush(0);
+        }
+    }
+
+    /**
+     * Writes the queued responses, and waits until they are written. Must not be called on the
+     * main thread, as it blocks on disk.
+     *
+     * @throws InterruptedException The calling thread was interrupted while waiting.
+     **/
+    public void flushAndWait() throws InterruptedException {
+        DatabaseExecutor.Request<Void> request;
+        synchronized (this) {
+            mTimer.removeCallbacks(mFlushTask);
+            request = submitFlush();
+        }
+        await(request);
+    }
+
+    /**
+     * Flushes the queue when the application is trimmed. Once the application is in the
+     * background, the writer's insert statement is also released after the flush, and compiled
+     * again by the next one. The shared connection itself stays open.
+     *
+     * @param level The level passed to onTrimMemory().
+     **/
+    public synchronized void trim(int level) {
+        flush();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            DatabaseExecutor.getInstance().write(null, mCloseTask, null);
+        }
+    }
+
+    /**
+     * @return The number of responses waiting to be written.
+     **/
+    public synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return The largest number of responses that have waited to be written at once.
+     **/
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * @return The number of flushes that wrote responses.
+     **/
+    public synchronized int getFlushCount() {
+        return mFlushCount;
+    }
+
+    /**
+     * @return How long the last flush took to write its responses, in milliseconds.
+     **/
+    public synchronized float getLastFlushMillis() {
+        return mLastFlushMillis;
+    }
+
+    /**
+     * @return How long the slowest flush took to write its responses, in milliseconds.
+     **/
+    public synchronized float getMaxFlushMillis() {
+        return mMaxFlushMillis;
+    }
+
+    /**
+     * Writes the queued responses, then releases the insert statement and closes the table. The
+     * logger must not be used afterwards. Used by the benchmarks, whose loggers own their tables,
+     * unlike the logger of the process.
+     *
+     * @throws InterruptedException The calling thread was interrupted while waiting.
+     **/
+    void shutdown() throws InterruptedException {
+        flushAndWait();
+        await(DatabaseExecutor.getInstance().write(null, mCloseTask, null));
+        mTable.close();
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Flushes after the given delay, replacing any flush that is still waiting for its delay,
+    // unless a retry is waiting for its backoff
+    private void postFlush(long delayMillis) {
+        if (mRetrying) {
+            return;
+        }
+        postFlushTask(delayMillis);
+    }
+
+    // Flushes after the given delay, replacing any flush that is still waiting for its delay
+    private void postFlushTask(long delayMillis) {
+        mTimer.removeCallbacks(mFlushTask);
+        if (delayMillis > 0) {
+            mTimer.postDelayed(mFlushTask, delayMillis);
+            mFlushPosted = true;
+        } else if (!mFlushSubmitted) {
+            submitFlush();
+        }
+    }
+
+    // Submits a flush to the writer, which runs it after every change submitted before it
+    private DatabaseExecutor.Request<Void> submitFlush() {
+        mFlushPosted = true;
+        mFlushSubmitted = true;
+        return DatabaseExecutor.getInstance().write(null, mWriteTask, null);
+    }
+
+    // Waits for a request on the writer, whose failures are already logged by the logger
+    private static void await(DatabaseExecutor.Request<Void> request)
+            throws InterruptedException
+    {
+        try {
+            request.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Writer task failed: " + e.getCause());
+        }
+    }
+
+    // Writes the queue in one transaction, on the writer thread
+    private void writeQueue() {
+        List<UserStats> batch;
+        synchronized (this) {
+            batch = mQueue;
+            mQueue = new ArrayList<>();
+            mFlushPosted = false;
+            mFlushSubmitted = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            SQLiteDatabase db = openDatabase();
+            db.beginTransaction();
+            try {
+                for (UserStats response : batch) {
+                    UserStatsSchema.INSTANCE.bindInsert(mInsert, response);
+
+                    // A response that breaks a constraint can never be inserted, and must not
+                    // cost the rest of the batch, other errors fail the batch to be retried
+                    try {
+                        mInsert.executeInsert();
+                        written++;
+                    } catch (SQLiteConstraintException e) {
+                        Log.e(TAG, "Dropping response at " + response.getTimestamp() + ": " +
+                                e.getMessage());
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLException e) {
+            // Put the batch back ahead of newer responses, and retry later, backing off while the
+            // failures continue
+            closeDatabase();
+            long delay;
+            synchronized (this) {
+                mQueue.addAll(0, batch);
+                delay = mRetryDelayMillis;
+                mRetryDelayMillis = Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+                mRetrying = true;
+                postFlushTask(delay);
+            }
+            Log.e(TAG, "Could not write " + batch.size() + " responses, retrying in " + delay +
+                    " ms: " + e.getMessage());
+            return;
+        }
+
+        float millis = (System.nanoTime() - start) / 1e6f;
+        int depth;
+        synchronized (this) {
+            mRetryDelayMillis = RETRY_DELAY_MS;
+            mRetrying = false;
+            mFlushCount++;
+            mLastFlushMillis = millis;
+            mMaxFlushMillis = Math.max(mMaxFlushMillis, millis);
+            depth = mQueue.size();
+        }
+        Log.d(TAG, String.format(Locale.US, "Wrote %d of %d responses in %.2f ms, %d queued",
+                written, batch.size(), millis, depth));
+    }
+
+    // Opens the writer's connection and compiles its insert statement, if they are closed
+    private SQLiteDatabase openDatabase() {
+        if (mDatabase == null || !mDatabase.isOpen()) {
+            mDatabase = mTable.getWritableDatabase();
+            mInsert = mDatabase.compileStatement(UserStatsSchema.INSTANCE.getInsertSql());
+        }
+        return mDatabase;
+    }
+
+    // Releases the insert statement, the connection belongs to the table and is left open
+    private void closeDatabase() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        mDatabase = null;
+    }
+}
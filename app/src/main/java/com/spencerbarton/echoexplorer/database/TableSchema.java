@@ -0,0 +1,55 @@
+package com.spencerbarton.echoexplorer.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * TableSchema is implemented by the <ClassName>Schema classes that the schema processor generates
+ * for the row classes annotated with Table. A schema knows the columns of its table, and moves
+ * rows between cursors, ContentValues and insert statements with typed accessors only, without
+ * reflection. Every generated schema has a single instance, held in its INSTANCE field.
+ */
+public interface TableSchema<T> {
+
+    /**
+     * @return The name of the table.
+     **/
+    String getTableName();
+
+    /**
+     * @return The names of the columns, in the order they are bound by bindInsert.
+     **/
+    String[] getColumns();
+
+    /**
+     * @param cursor The Cursor object with the results of a query on the table.
+     * @return A row mapper that resolves the column indexes of the cursor once.
+     **/
+    Database.RowMapper<T> newRowMapper(Cursor cursor);
+
+    /**
+     * @param size The length of the array.
+     * @return A new array of rows, created without reflection.
+     **/
+    T[] newArray(int size);
+
+    /**
+     * @param row The row to unpack.
+     * @return A ContentValues object, where each column name maps to its value in the row.
+     **/
+    ContentValues toContentValues(T row);
+
+    /**
+     * @return The SQL of an insert of every column, with one '?' for each, in column order.
+     **/
+    String getInsertSql();
+
+    /**
+     * Binds the columns of the given row to a statement compiled from getInsertSql().
+     *
+     * @param statement The insert statement.
+     * @param row The row to bind.
+     **/
+    void bindInsert(SQLiteStatement statement, T row);
+}
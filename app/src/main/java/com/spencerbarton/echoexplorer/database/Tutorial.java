@@ -1,5 +1,8 @@
 package com.spencerbarton.echoexplorer.database;
 
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
+
 /**
  * The Tutorial class represents the schema of the Tutorial table. An instance of this class
  * represents a single row of the Tutorial table, and contains all of the fields/columns of that
@@ -15,22 +18,34 @@ package com.spencerbarton.echoexplorer.database;
  *
  * @author Brandon Perez (bmperez)
  **/
+@Table("TutorialStep")
 public class Tutorial {
 
     /** The tag that identifies this class. Used for debugging. */
     private static final String TAG = Tutorial.class.getName();
 
     /** The lesson number (id) of the lesson that this tutorial belongs to. */
+    @Column("lessonNumber")
     public int lessonNumber;
     /** The ordering with respect to other tutorials in the same lesson. */
+    @Column("stepNumber")
     public int stepNumber;
     /** The name of the file used to provide audio directions for the evaluation. */
+    @Column("directionsAudioFile")
     public String audioDirFile;
-    /** The name of the file that contains the echo for this evaluation. */
+    /** The name of the echo file, or of a synthetic echo (e.g. "synth:dist=3.5,angle=-45"). */
+    @Column("echoAudioFile")
     public String echoFile;
     /** The text directions to display on screen. */
+    @Column("textDirections")
     public String textDirections;
 
+    /**
+     * Constructs an empty Tutorial object, whose columns are filled in by TutorialSchema.
+     **/
+    Tutorial() {
+    }
+
     /**
      * Constructs a new Tutorial object using the parameters passed in by the user.
      *
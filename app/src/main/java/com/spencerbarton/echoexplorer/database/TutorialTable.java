@@ -27,22 +27,19 @@ public class TutorialTable extends Database<Tutorial> {
     /** The name of the database that contains the Tutorial table. */
     private static final String DB_NAME = "LessonDatabase";
     /** The name of the tutorial table. */
-    private static final String TABLE_NAME = "TutorialStep";
+    private static final String TABLE_NAME = TutorialSchema.TABLE;
 
     /** The name of the column that corresponds to the row number in table. Used by Cursor objects
      *  to order the results of a query. */
     private static final String _idCol = "_id";
     /** The name of the column that contains the number of the lesson the tutorial belongs to. */
-    private static final String LESSON_NUMBER_COL = "lessonNumber";
+    private static final String LESSON_NUMBER_COL = TutorialSchema.LESSON_NUMBER;
     /** The name of the column that contains the step number of the tutorial. This provides an
      *  ordering of the tutorials in a lesson. */
-    private static final String STEP_NUMBER_COL = "stepNumber";
-    /** The name of the column that contains the audio directions file name. */
-    private static final String AUDIO_DIR_COL = "directionsAudioFile";
-    /** The name of the column that contains the echo file name. */
-    private static final String ECHO_COL = "echoAudioFile";
-    /** The name of the column that contains the text directions for the tutorial. */
-    private static final String TEXT_DIRECTIONS_COL = "textDirections";
+    private static final String STEP_NUMBER_COL = TutorialSchema.STEP_NUMBER;
+
+    /** The snapshot that rows are served from, or null if they are queried from the database. */
+    private final LessonSnapshot mSnapshot;
 
     //----------------------------------------------------------------------------------------------
     // Constructor
@@ -58,7 +55,22 @@ public class TutorialTable extends Database<Tutorial> {
      *                     does not exist in the assets folder (if the database is static).
      **/
     public TutorialTable(Context context)  throws SQLiteException, IOException {
-        super(context, DB_NAME, true);
+        this(context, LessonSnapshot.getInstance(context));
+    }
+
+    /**
+     * Constructs a TutorialTable object that serves its rows from the given lesson snapshot, and
+     * only connects to the database if there is no snapshot.
+     *
+     * @param context The application's context. Used by the Database base class.
+     * @param snapshot The lesson snapshot, or null to query the database.
+     * @throws SQLiteException The database file is not properly formatted.
+     * @throws IOException The database file is not writeable or readable, or the dbName does
+     *                     does not exist in the assets folder (if the database is static).
+     **/
+    TutorialTable(Context context, LessonSnapshot snapshot) throws SQLiteException, IOException {
+        super(context, DB_NAME, true, snapshot == null);
+        mSnapshot = snapshot;
     }
 
     //----------------------------------------------------------------------------------------------
@@ -70,19 +82,44 @@ public class TutorialTable extends Database<Tutorial> {
      * the next entry in the Cursor object, and packs it into a new Tutorial object. Returns a
      * handle to this new object.
      *
+     * This is a compatibility path, which resolves the column indexes on every call. Callers that
+     * pack the rows of a cursor one at a time should iterate them with iterateQuery() instead.
+     *
      * This implements the abstract method in the Database superclass.
      *
      * @param cursor The Cursor object to pack the next entry into the Tutorial object.
      * @return A new Tutorial object, with the information from the next cursor entry.
      **/
     public Tutorial packRow(Cursor cursor) {
-        int lessonNumber = Integer.parseInt(getColumnByName(cursor, LESSON_NUMBER_COL));
-        int stepNumber = Integer.parseInt(getColumnByName(cursor, STEP_NUMBER_COL));
-        String audioDirFile = getColumnByName(cursor, AUDIO_DIR_COL);
-        String echoFile = getColumnByName(cursor, ECHO_COL);
-        String textDirections = getColumnByName(cursor, TEXT_DIRECTIONS_COL);
+        return newRowMapper(cursor).mapRow(cursor);
+    }
+
+    /**
+     * Creates a row mapper for the given cursor with the generated TutorialSchema, which resolves
+     * the indexes of the Tutorial columns once, and reads them with typed getters.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param cursor The Cursor object with the results of a query on the Tutorial table.
+     * @return A row mapper that packs the rows of the cursor into Tutorial objects.
+     **/
+    @Override
+    protected RowMapper<Tutorial> newRowMapper(Cursor cursor) {
+        return TutorialSchema.INSTANCE.newRowMapper(cursor);
+    }
 
-        return new Tutorial(lessonNumber, stepNumber, audioDirFile, echoFile, textDirections);
+    /**
+     * Creates the array that query results are collected into, without reflection.
+     *
+     * This overrides the method in the Database superclass.
+     *
+     * @param cls The class object of the Tutorial type.
+     * @param size The length of the array.
+     * @return A new array of Tutorial objects.
+     **/
+    @Override
+    protected Tutorial[] newArray(Class<Tutorial> cls, int size) {
+        return TutorialSchema.INSTANCE.newArray(size);
     }
 
     /**
@@ -97,15 +134,7 @@ public class TutorialTable extends Database<Tutorial> {
      **/
     public ContentValues unpackRow(Tutorial tutorial)
     {
-        ContentValues mapping = new ContentValues();
-
-        mapping.put(LESSON_NUMBER_COL, Integer.toString(tutorial.lessonNumber));
-        mapping.put(STEP_NUMBER_COL, Integer.toString(tutorial.stepNumber));
-        mapping.put(AUDIO_DIR_COL, tutorial.audioDirFile);
-        mapping.put(ECHO_COL, tutorial.echoFile);
-        mapping.put(TEXT_DIRECTIONS_COL, tutorial.textDirections);
-
-        return mapping;
+        return TutorialSchema.INSTANCE.toContentValues(tutorial);
     }
 
     /**
@@ -118,6 +147,10 @@ public class TutorialTable extends Database<Tutorial> {
      *         exists, and null otherwise.
      **/
     public Tutorial getRow(int lessonNumber, int stepNumber) {
+        if (mSnapshot != null) {
+            return mSnapshot.getTutorial(lessonNumber, stepNumber);
+        }
+
         String query = "SELECT * FROM " + TABLE_NAME + " where " + LESSON_NUMBER_COL + " = ? and " +
                 STEP_NUMBER_COL + " = ?";
 
@@ -143,6 +176,10 @@ public class TutorialTable extends Database<Tutorial> {
      * @return An array of Tutorial objects, sorted by step number.
      **/
     public Tutorial[] getAllRows(int lessonNumber) {
+        if (mSnapshot != null) {
+            return mSnapshot.getTutorials(lessonNumber);
+        }
+
         String query = "SELECT * FROM " + TABLE_NAME + " where " + LESSON_NUMBER_COL + " = ? " +
                 "ORDER BY " + STEP_NUMBER_COL + " ASC";
 
@@ -167,8 +204,12 @@ public class TutorialTable extends Database<Tutorial> {
      *         (ascending).
      **/
     public Tutorial[] getAllRows() {
+        if (mSnapshot != null) {
+            return mSnapshot.getTutorials();
+        }
+
         String query = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + LESSON_NUMBER_COL + " ASC, "
-                + " ASC";
+                + STEP_NUMBER_COL + " ASC";
 
         Tutorial[] result = unbufferedQuery(query, null, Tutorial.class);
         Log.i(TAG +".getTutorials", "Querying for all tutorial steps");
@@ -1,35 +1,103 @@
 package com.spencerbarton.echoexplorer.database;
 
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
+
 /**
  * Created by Susan on 8/25/15.
+ *
+ * A single response of the user to an evaluation step, a row of the all_response table. Responses
+ * recorded before a column existed hold UNKNOWN in it. The session is the run of the evaluation
+ * that the response was given in, identified by the time the run started.
  */
+@Table("all_response")
 public class UserStats {
-    //private variables
-    private int _mTimestamp;
-    private int _mStepNum;
-    private String _mResponse;
+
+    /** The value of a column that was not recorded for the response. */
+    public static final int UNKNOWN = -1;
+
+    // Columns, package-private so that UserStatsSchema can fill them in
+    @Column("time")
+    long _mTimestamp;
+    @Column("lessonNumber")
+    int _mLessonNum;
+    @Column("stepNumber")
+    int _mStepNum;
+    @Column("choice")
+    int _mChoice;
+    @Column("correct")
+    int _mCorrect;
+    @Column("latency")
+    long _mLatency;
+    @Column("session")
+    long _mSession;
+
+    // The key of the row, not a column of the schema as it is assigned by the table; UNKNOWN
+    // until the response is read back from the table
+    long _mId = UNKNOWN;
 
     // Empty constructor
     public UserStats(){
 
     }
-    // constructor
-    public UserStats(int mTimestamp, int mStepNum, String mResponse){
-        this._mResponse = mResponse;
-        this._mStepNum = mStepNum;
+
+    /**
+     * @param mTimestamp When the response was given, in milliseconds since the epoch.
+     * @param mLessonNum The lesson number of the evaluation step.
+     * @param mStepNum The step number of the evaluation step.
+     * @param mChoice The index of the chosen response option.
+     * @param mCorrect Whether the chosen option is the correct one.
+     * @param mLatency The time from the echo to the response in milliseconds, or UNKNOWN.
+     * @param mSession When the run of the evaluation started, or UNKNOWN.
+     **/
+    public UserStats(long mTimestamp, int mLessonNum, int mStepNum, int mChoice, boolean mCorrect,
+                     long mLatency, long mSession){
         this._mTimestamp = mTimestamp;
+        this._mLessonNum = mLessonNum;
+        this._mStepNum = mStepNum;
+        this._mChoice = mChoice;
+        this._mCorrect = mCorrect ? 1 : 0;
+        this._mLatency = mLatency;
+        this._mSession = mSession;
     }
 
-    public int getTimestamp(){
+    // A response outside of any session, whose sessions are told apart by the gaps between them
+    public UserStats(long mTimestamp, int mLessonNum, int mStepNum, int mChoice, boolean mCorrect,
+                     long mLatency){
+        this(mTimestamp, mLessonNum, mStepNum, mChoice, mCorrect, mLatency, UNKNOWN);
+    }
+
+    public long getTimestamp(){
         return this._mTimestamp;
     }
 
-    public String getResponse(){
-        return this._mResponse;
+    public int getLessonNum(){
+        return this._mLessonNum;
     }
 
     public int getStepNum(){
         return this._mStepNum;
     }
 
+    public int getChoice(){
+        return this._mChoice;
+    }
+
+    // 1 if the choice was correct, 0 if not, UNKNOWN for responses recorded before it was
+    public int getCorrect(){
+        return this._mCorrect;
+    }
+
+    public long getLatency(){
+        return this._mLatency;
+    }
+
+    public long getSession(){
+        return this._mSession;
+    }
+
+    public long getId(){
+        return this._mId;
+    }
+
 }
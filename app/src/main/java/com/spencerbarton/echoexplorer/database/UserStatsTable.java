@@ -2,12 +2,15 @@ package com.spencerbarton.echoexplorer.database;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 import android.util.Log;
 
 /**
@@ -15,137 +18,366 @@ import android.util.Log;
  */
 public class UserStatsTable extends SQLiteOpenHelper {
     // All Static variables
-    // Database Version
-    private static final int DATABASE_VERSION = 1;
+    // Database Version, 2 added the surrogate key and the analytical columns, 3 the lesson_stats
+    // rollups, 4 the session of each response
+    private static final int DATABASE_VERSION = 4;
 
     // Database Name
     private static final String DATABASE_NAME = "UserStatsDB";
 
     //table name
-    private static final String TABLE_ALLRESPONSE = "all_response";
+    private static final String TABLE_ALLRESPONSE = UserStatsSchema.TABLE;
 
     //Columns names
-    private static final String KEY_TIMESTAMP = "time";
-    private static final String KEY_RESPONSE = "response";
-    private static final String KEY_STEP = "step";
+    private static final String KEY_ID = "_id";
+    private static final String KEY_TIMESTAMP = UserStatsSchema.TIME;
+    private static final String KEY_LESSON = UserStatsSchema.LESSON_NUMBER;
+    private static final String KEY_STEP = UserStatsSchema.STEP_NUMBER;
+    private static final String KEY_CHOICE = UserStatsSchema.CHOICE;
+    private static final String KEY_CORRECT = UserStatsSchema.CORRECT;
+    private static final String KEY_LATENCY = UserStatsSchema.LATENCY;
+    private static final String KEY_SESSION = UserStatsSchema.SESSION;
+
+    // The columns that queries select, which the indexes below cover
+    private static final String SELECT_COLUMNS = TextUtils.join(", ",
+            UserStatsSchema.INSTANCE.getColumns());
+    // The columns together with the key, which every index holds as the rowid
+    private static final String SELECT_ROW = KEY_ID + ", " + SELECT_COLUMNS;
+
+    // Indexes covering the queries by lesson and by time range, both ordered by time, and the
+    // lookup of the steps answered in a session by the lesson_stats trigger
+    private static final String INDEX_BY_LESSON = TABLE_ALLRESPONSE + "_by_lesson";
+    private static final String INDEX_BY_TIME = TABLE_ALLRESPONSE + "_by_time";
+    private static final String INDEX_BY_SESSION = TABLE_ALLRESPONSE + "_by_session";
+
+    // The period of the timestamps of version 1, which kept only their low 32 bits
+    private static final long V1_TIMESTAMP_PERIOD = 1L << 32;
+
+    // The table shared by the asynchronous requests of the process, which is never closed
+    private static UserStatsTable sInstance = null;
 
     public UserStatsTable(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // Getting the shared table, for the asynchronous requests
+    public static synchronized UserStatsTable getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UserStatsTable(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Opening a database other than UserStatsDB, used by the benchmarks
+    UserStatsTable(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
     }
 
     // Creating Tables
     @Override
     public void onCreate(SQLiteDatabase db) {
-        String CREATE_RESPONSE_TABLE = "CREATE TABLE " + TABLE_ALLRESPONSE + "("
-                + KEY_TIMESTAMP + " INTEGER PRIMARY KEY,"
-                + KEY_STEP + " INTEGER,"
-                + KEY_RESPONSE + " TEXT" + ")";
-        db.execSQL(CREATE_RESPONSE_TABLE);
+        createResponseTable(db);
+        LessonStatsTable.createTable(db);
         Log.d("onCreate", "table created");
     }
 
-    // Upgrading database
+    // Upgrading database, keeping the responses
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Drop older table if existed
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ALLRESPONSE);
+        if (oldVersion < 2) {
+            migrateToV2(db, System.currentTimeMillis());
+        } else if (oldVersion < 4) {
+            addSessionColumn(db);
+        }
+        if (oldVersion < 4) {
+            // Rebuilding the rollups, whose sessions are now the recorded ones
+            LessonStatsTable.dropTable(db);
+            LessonStatsTable.createTable(db);
+            LessonStatsTable.rollUpResponses(db, SELECT_ROW);
+        }
+    }
 
-        // Create tables again
-        onCreate(db);
+    private static void createResponseTable(SQLiteDatabase db) {
+        // The surrogate key orders the responses as they were recorded, and never collides
+        String CREATE_RESPONSE_TABLE = "CREATE TABLE " + TABLE_ALLRESPONSE + "("
+                + KEY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + KEY_TIMESTAMP + " INTEGER NOT NULL,"
+                + KEY_LESSON + " INTEGER NOT NULL,"
+                + KEY_STEP + " INTEGER NOT NULL,"
+                + KEY_CHOICE + " INTEGER NOT NULL,"
+                + KEY_CORRECT + " INTEGER NOT NULL,"
+                + KEY_LATENCY + " INTEGER NOT NULL,"
+                + KEY_SESSION + " INTEGER NOT NULL" + ")";
+        db.execSQL(CREATE_RESPONSE_TABLE);
+        createResponseIndexes(db);
+    }
+
+    private static void createResponseIndexes(SQLiteDatabase db) {
+        String otherColumns = KEY_STEP + ", " + KEY_CHOICE + ", " + KEY_CORRECT + ", "
+                + KEY_LATENCY + ", " + KEY_SESSION;
+        db.execSQL("CREATE INDEX " + INDEX_BY_LESSON + " ON " + TABLE_ALLRESPONSE + "("
+                + KEY_LESSON + ", " + KEY_TIMESTAMP + ", " + otherColumns + ")");
+        db.execSQL("CREATE INDEX " + INDEX_BY_TIME + " ON " + TABLE_ALLRESPONSE + "("
+                + KEY_TIMESTAMP + ", " + KEY_LESSON + ", " + otherColumns + ")");
+        db.execSQL("CREATE INDEX " + INDEX_BY_SESSION + " ON " + TABLE_ALLRESPONSE + "("
+                + KEY_SESSION + ", " + KEY_LESSON + ", " + KEY_STEP + ", " + KEY_CORRECT + ")");
+    }
+
+    // Versions 2 and 3 did not record sessions, so their responses are outside of any session.
+    // The indexes are built again to cover the new column.
+    private static void addSessionColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_ALLRESPONSE + " ADD COLUMN " + KEY_SESSION
+                + " INTEGER NOT NULL DEFAULT " + UserStats.UNKNOWN);
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_BY_LESSON);
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_BY_TIME);
+        createResponseIndexes(db);
+    }
+
+    // Version 1 keyed the responses by (int) System.currentTimeMillis(), the low 32 bits of the
+    // time, and only had the step and the chosen index as text. Each time is restored as the
+    // latest one with the same low bits that is not after now, which is exact for responses less
+    // than 49 days old. The columns that version 1 did not have are UNKNOWN, and its responses are
+    // outside of any session.
+    static void migrateToV2(SQLiteDatabase db, long now) {
+        String v1Table = TABLE_ALLRESPONSE + "_v1";
+        db.execSQL("ALTER TABLE " + TABLE_ALLRESPONSE + " RENAME TO " + v1Table);
+        createResponseTable(db);
+
+        String restored = "((? / " + V1_TIMESTAMP_PERIOD + ") * " + V1_TIMESTAMP_PERIOD
+                + " + (time & " + (V1_TIMESTAMP_PERIOD - 1) + "))";
+        // CAST reads text that is not a number as 0, so the choice is only kept if it reads back
+        String choice = "CASE WHEN CAST(CAST(response AS INTEGER) AS TEXT) = TRIM(response) "
+                + "THEN CAST(response AS INTEGER) ELSE " + UserStats.UNKNOWN + " END";
+        db.execSQL("INSERT INTO " + TABLE_ALLRESPONSE + "(" + SELECT_COLUMNS + ") "
+                + "SELECT CASE WHEN t > ? THEN t - " + V1_TIMESTAMP_PERIOD + " ELSE t END AS t2, "
+                + UserStats.UNKNOWN + ", step, " + choice + ", " + UserStats.UNKNOWN + ", "
+                + UserStats.UNKNOWN + ", " + UserStats.UNKNOWN
+                + " FROM (SELECT " + restored + " AS t, step, response FROM " + v1Table + ")"
+                + " ORDER BY t2", new Object[] {now, now});
+        db.execSQL("DROP TABLE " + v1Table);
     }
 
     /**
      * All CRUD(Create, Read, Update, Delete) Operations
      */
 
-    // Adding new response
+    // Adding new response, opening and closing the database for it; on the UI thread, queue
+    // responses with the ResponseLogger instead
     public void add(UserStats userStats) {
         SQLiteDatabase db = this.getWritableDatabase();
         Log.d("add", "make writable");
-        ContentValues values = new ContentValues();
-        values.put(KEY_TIMESTAMP, userStats.getTimestamp());
-        values.put(KEY_STEP, userStats.getStepNum());
-        values.put(KEY_RESPONSE, userStats.getResponse());
-        // Inserting Row
-        db.insert(TABLE_ALLRESPONSE, null, values);
+        // Inserting Row, bound with the generated schema
+        SQLiteStatement insert = db.compileStatement(UserStatsSchema.INSTANCE.getInsertSql());
+        UserStatsSchema.INSTANCE.bindInsert(insert, userStats);
+        insert.executeInsert();
+        insert.close();
         db.close(); // Closing database connection
     }
 
     // Getting single response
-    public UserStats getResponse(int timestamp) {
-        SQLiteDatabase db = this.getReadableDatabase();
-
-        Cursor cursor = db.query(TABLE_ALLRESPONSE, new String[]{KEY_TIMESTAMP,
-                        KEY_STEP, KEY_RESPONSE}, KEY_TIMESTAMP + "=?",
-                new String[]{String.valueOf(timestamp)}, null, null, null, null);
-        if (cursor != null)
-            cursor.moveToFirst();
-
-        UserStats response = new UserStats(Integer.parseInt(cursor.getString(0)),
-                Integer.parseInt(cursor.getString(1)),cursor.getString(2));
-        // return response
-        return response;
+    public UserStats getResponse(long timestamp) {
+        Database.RowIterator<UserStats> rows = query(KEY_TIMESTAMP + " = ?",
+                new String[]{String.valueOf(timestamp)});
+        try {
+            // return response, or null if there is none
+            return rows.hasNext() ? rows.next() : null;
+        } finally {
+            rows.close();
+        }
     }
 
     // Getting All response
     public List<UserStats> getAllResponse() {
         List<UserStats> responseList = new ArrayList<UserStats>();
-        // Select All Query
-        String selectQuery = "SELECT  * FROM " + TABLE_ALLRESPONSE;
 
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-                UserStats response = new UserStats(Integer.parseInt(cursor.getString(0)),
-                        Integer.parseInt(cursor.getString(1)),cursor.getString(2));
-                // Adding contact to list
-                responseList.add(response);
-            } while (cursor.moveToNext());
+        // looping through all rows and adding to list, each in its own object
+        Database.RowIterator<UserStats> rows = iterateResponses();
+        try {
+            while (rows.hasNext()) {
+                responseList.add(rows.next());
+            }
+        } finally {
+            rows.close();
         }
 
         // return contact list
         return responseList;
     }
 
-    // Deleting single response
-    public void delete(UserStats response) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_ALLRESPONSE, KEY_TIMESTAMP + " = ?",
-                new String[] { String.valueOf(response.getTimestamp()) });
-        db.close();
+    // Streaming all responses by time, one row at a time; the iterator closes its cursor once
+    // exhausted, and must be closed by callers that stop early
+    public Database.RowIterator<UserStats> iterateResponses() {
+        return query(null, null);
     }
 
+    // Streaming the responses recorded from fromTime (inclusive) to toTime (exclusive), by time
+    public Database.RowIterator<UserStats> iterateResponses(long fromTime, long toTime) {
+        return query(KEY_TIMESTAMP + " >= ? AND " + KEY_TIMESTAMP + " < ?",
+                new String[]{String.valueOf(fromTime), String.valueOf(toTime)});
+    }
 
-    // Getting Count
-    public int getCount() {
-        String countQuery = "SELECT  * FROM " + TABLE_ALLRESPONSE;
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(countQuery, null);
-        int count = cursor.getCount();
-        cursor.close();
+    // Streaming the responses to the steps of a lesson, by time
+    public Database.RowIterator<UserStats> iterateLessonResponses(int lessonNumber) {
+        return query(KEY_LESSON + " = ?", new String[]{String.valueOf(lessonNumber)});
+    }
 
-        return count;
-        //return cursor.getCount();
+    // Getting a page of at most limit responses recorded before the one at (beforeTime, beforeId),
+    // newest first. Pages are keyed by time and id rather than offset, so each is read straight
+    // from the time index, and responses that share a time are neither skipped nor repeated; pass
+    // Long.MAX_VALUE for both for the first page, and the time and id of the last response of a
+    // page for the next
+    public List<UserStats> getResponsesBefore(long beforeTime, long beforeId, int limit) {
+        List<UserStats> page = new ArrayList<UserStats>(limit);
+
+        // The same as time < ? OR (time = ? AND _id < ?), written so that SQLite scans the time
+        // index from beforeTime down, and only sorts the ids of each time
+        String time = String.valueOf(beforeTime);
+        Database.RowIterator<UserStats> rows = query(KEY_TIMESTAMP + " <= ? AND ("
+                        + KEY_TIMESTAMP + " < ? OR " + KEY_ID + " < ?)",
+                new String[]{time, time, String.valueOf(beforeId)},
+                KEY_TIMESTAMP + " DESC, " + KEY_ID + " DESC LIMIT " + limit);
+        try {
+            while (rows.hasNext()) {
+                page.add(rows.next());
+            }
+        } finally {
+            rows.close();
+        }
+        return page;
     }
 
-    public int getNumCol() {
-        String countQuery = "SELECT  * FROM " + TABLE_ALLRESPONSE;
+    // Handing every response to the visitor, in constant memory; every response is read into the
+    // same holder, so visitors must copy the ones they keep, and the cursor is always closed
+    public int forEachResponse(Database.RowVisitor<UserStats> visitor) {
+        return visit(iterateResponses(), visitor);
+    }
+
+    // Handing the responses to the steps of a lesson to the visitor
+    public int forEachLessonResponse(int lessonNumber, Database.RowVisitor<UserStats> visitor) {
+        return visit(iterateLessonResponses(lessonNumber), visitor);
+    }
+
+    // Selecting the responses that match the where clause, or all of them, ordered by time
+    private Database.RowIterator<UserStats> query(String where, String[] args) {
+        return query(where, args, KEY_TIMESTAMP);
+    }
+
+    private Database.RowIterator<UserStats> query(String where, String[] args, String orderBy) {
+        String selectQuery = "SELECT " + SELECT_ROW + " FROM " + TABLE_ALLRESPONSE
+                + ((where == null) ? "" : " WHERE " + where) + " ORDER BY " + orderBy;
+
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(countQuery, null);
-        int count = cursor.getColumnCount();
-        cursor.close();
+        Cursor cursor = db.rawQuery(selectQuery, args);
+        return new Database.RowIterator<>(cursor, newResponseMapper(cursor));
+    }
+
+    // Mapping the columns with the generated mapper, then the key that the schema leaves out
+    private static Database.RowMapper<UserStats> newResponseMapper(Cursor cursor) {
+        final Database.RowMapper<UserStats> columns =
+                UserStatsSchema.INSTANCE.newRowMapper(cursor);
+        final int idIndex = cursor.getColumnIndexOrThrow(KEY_ID);
+
+        return new Database.RowMapper<UserStats>() {
+            @Override
+            public UserStats mapRow(Cursor cursor) {
+                return mapRow(cursor, null);
+            }
 
-        return count;
+            @Override
+            public UserStats mapRow(Cursor cursor, UserStats reuse) {
+                UserStats row = columns.mapRow(cursor, reuse);
+                row._mId = cursor.getLong(idIndex);
+                return row;
+            }
+        };
     }
 
-    public Cursor readEntry(){
-        String selectQuery = "SELECT  * FROM " + TABLE_ALLRESPONSE;
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-        return cursor;
+    private static int visit(Database.RowIterator<UserStats> rows,
+                             Database.RowVisitor<UserStats> visitor) {
+        UserStats row = null;
+        int visited = 0;
+        try {
+            while (rows.hasNext()) {
+                visited++;
+                row = rows.next(row);
+                if (!visitor.visitRow(row)) {
+                    break;
+                }
+            }
+        } finally {
+            rows.close();
+        }
+        return visited;
+    }
+
+    /**
+     * Asynchronous versions of the operations above, run on the DatabaseExecutor with their
+     * results delivered to the callback on the main thread. The owner, usually the calling
+     * activity, has its reads cancelled when it is destroyed, while its writes still run without
+     * their callbacks, and may be null. Use them on the shared table from getInstance(), which is
+     * never closed under them.
+     */
+
+    // Adding new response on the writer thread; to record responses, prefer the ResponseLogger
+    public DatabaseExecutor.Request<Void> addAsync(Object owner, final UserStats userStats,
+            DatabaseExecutor.Callback<Void> callback) {
+        return DatabaseExecutor.getInstance().write(owner, new Callable<Void>() {
+            @Override
+            public Void call() {
+                SQLiteStatement insert = getWritableDatabase().compileStatement(
+                        UserStatsSchema.INSTANCE.getInsertSql());
+                try {
+                    UserStatsSchema.INSTANCE.bindInsert(insert, userStats);
+                    insert.executeInsert();
+                } finally {
+                    insert.close();
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    public DatabaseExecutor.Request<UserStats> getResponseAsync(Object owner,
+            final long timestamp, DatabaseExecutor.Callback<UserStats> callback) {
+        return DatabaseExecutor.getInstance().read(owner, new Callable<UserStats>() {
+            @Override
+            public UserStats call() {
+                return getResponse(timestamp);
+            }
+        }, callback);
+    }
+
+    public DatabaseExecutor.Request<List<UserStats>> getResponsesBeforeAsync(Object owner,
+            final long beforeTime, final long beforeId, final int limit,
+            DatabaseExecutor.Callback<List<UserStats>> callback) {
+        return DatabaseExecutor.getInstance().read(owner, new Callable<List<UserStats>>() {
+            @Override
+            public List<UserStats> call() {
+                return getResponsesBefore(beforeTime, beforeId, limit);
+            }
+        }, callback);
+    }
+
+    public DatabaseExecutor.Request<Integer> getCountAsync(Object owner,
+            DatabaseExecutor.Callback<Integer> callback) {
+        return DatabaseExecutor.getInstance().read(owner, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return getCount();
+            }
+        }, callback);
+    }
+
+    // Getting Count, without reading the rows
+    public int getCount() {
+        String countQuery = "SELECT COUNT(*) FROM " + TABLE_ALLRESPONSE;
+        SQLiteDatabase db = this.getReadableDatabase();
+        return (int) DatabaseUtils.longForQuery(db, countQuery, null);
+    }
+
+    // Getting the number of columns of a response
+    public int getNumCol() {
+        return UserStatsSchema.INSTANCE.getColumns().length;
     }
 
 }
@@ -0,0 +1,398 @@
+package com.spencerbarton.echoexplorer.processor;
+
+import com.spencerbarton.echoexplorer.schema.Column;
+import com.spencerbarton.echoexplorer.schema.Table;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * SchemaProcessor generates a <ClassName>Schema class for every class annotated with Table. The
+ * schema implements TableSchema from the app's database package: it declares a constant for the
+ * name of the table and of each column, maps the rows of a cursor with column indexes resolved
+ * once, creates arrays of rows, and unpacks rows into ContentValues and insert statements. The
+ * generated code only uses typed cursor and statement accessors, and no reflection.
+ *
+ * The processor reports an error, and generates nothing for the class, if the class is not a
+ * top-level class with a non-private constructor without arguments, or if a column field is
+ * private, final, static or of an unsupported type.
+ */
+public class SchemaProcessor extends AbstractProcessor {
+
+    /** The package of the runtime types that the generated schemas use. */
+    private static final String DATABASE_PACKAGE = "com.spencerbarton.echoexplorer.database";
+
+    /** The suffix of the generated schema classes. */
+    private static final String SCHEMA_SUFFIX = "Schema";
+
+    /**
+     * The types that a column field can have, and how each one is read, stored and bound.
+     */
+    private enum ColumnType {
+        INT("int", "getInt", "bindLong"),
+        LONG("long", "getLong", "bindLong"),
+        FLOAT("float", "getFloat", "bindDouble"),
+        DOUBLE("double", "getDouble", "bindDouble"),
+        STRING("java.lang.String", "getString", "bindString");
+
+        /** The name of the type of the field. */
+        final String typeName;
+        /** The Cursor method that reads the column. */
+        final String getter;
+        /** The SQLiteStatement method that binds the column. */
+        final String binder;
+
+        ColumnType(String typeName, String getter, String binder) {
+            this.typeName = typeName;
+            this.getter = getter;
+            this.binder = binder;
+        }
+
+        static ColumnType of(TypeMirror type) {
+            String name = type.toString();
+            for (ColumnType columnType : values()) {
+                if (columnType.typeName.equals(name)) {
+                    return columnType;
+                }
+            }
+            return null;
+        }
+
+        boolean isObject() {
+            return this == STRING;
+        }
+    }
+
+    /**
+     * A column field of a row class.
+     */
+    private static class ColumnField {
+
+        final String field;
+        final String column;
+        final String constant;
+        final ColumnType type;
+
+        ColumnField(String field, String column, ColumnType type) {
+            this.field = field;
+            this.column = column;
+            this.constant = toConstantName(column);
+            this.type = type;
+        }
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Public Methods
+    //----------------------------------------------------------------------------------------------
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<>();
+        types.add(Table.class.getCanonicalName());
+        types.add(Column.class.getCanonicalName());
+        return Collections.unmodifiableSet(types);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(Table.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@Table can only annotate classes");
+                continue;
+            }
+
+            TypeElement rowClass = (TypeElement) element;
+            List<ColumnField> columns = readColumns(rowClass);
+            if (columns != null) {
+                writeSchema(rowClass, rowClass.getAnnotation(Table.class).value(), columns);
+            }
+        }
+
+        // A Column outside of a Table class would silently do nothing
+        for (Element element : round.getElementsAnnotatedWith(Column.class)) {
+            if (element.getEnclosingElement().getAnnotation(Table.class) == null) {
+                error(element, "@Column fields must be in a class annotated with @Table");
+            }
+        }
+        return true;
+    }
+
+    //----------------------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------------------
+
+    // Returns the columns of the row class, or null after reporting why it cannot be mapped
+    private List<ColumnField> readColumns(TypeElement rowClass) {
+        boolean valid = true;
+        if (rowClass.getNestingKind() != NestingKind.TOP_LEVEL) {
+            error(rowClass, "@Table classes must be top-level classes");
+            valid = false;
+        }
+        if (rowClass.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(rowClass, "@Table classes must not be abstract");
+            valid = false;
+        }
+
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor :
+                ElementFilter.constructorsIn(rowClass.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() &&
+                    !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            error(rowClass, "@Table classes need a non-private constructor without arguments");
+            valid = false;
+        }
+
+        List<ColumnField> columns = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (VariableElement field : ElementFilter.fieldsIn(rowClass.getEnclosedElements())) {
+            Column column = field.getAnnotation(Column.class);
+            if (column == null) {
+                continue;
+            }
+
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) ||
+                    modifiers.contains(Modifier.STATIC)) {
+                error(field, "@Column fields must not be private, final or static");
+                valid = false;
+                continue;
+            }
+
+            ColumnType type = ColumnType.of(field.asType());
+            if (type == null) {
+                error(field, "@Column fields must be int, long, float, double or String, not " +
+                        field.asType());
+                valid = false;
+                continue;
+            }
+
+            if (!names.add(column.value())) {
+                error(field, "Column " + column.value() + " is mapped twice");
+                valid = false;
+                continue;
+            }
+            columns.add(new ColumnField(field.getSimpleName().toString(), column.value(), type));
+        }
+
+        if (columns.isEmpty()) {
+            error(rowClass, "@Table classes need at least one @Column field");
+            valid = false;
+        }
+        return valid ? columns : null;
+    }
+
+    private void writeSchema(TypeElement rowClass, String table, List<ColumnField> columns) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(rowClass);
+        String packageName = pkg.getQualifiedName().toString();
+        String row = rowClass.getSimpleName().toString();
+        String schema = row + SCHEMA_SUFFIX;
+        String qualified = packageName.isEmpty() ? schema : packageName + "." + schema;
+
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(qualified, rowClass)
+                    .openWriter();
+            PrintWriter out = new PrintWriter(writer);
+            try {
+                writeSource(out, packageName, row, schema, table, columns);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            error(rowClass, "Could not write " + qualified + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeSource(PrintWriter out, String packageName, String row,
+            String schema, String table, List<ColumnField> columns)
+    {
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("import android.content.ContentValues;");
+        out.println("import android.database.Cursor;");
+        out.println("import android.database.sqlite.SQLiteStatement;");
+        out.println();
+        if (!packageName.equals(DATABASE_PACKAGE)) {
+            out.println("import " + DATABASE_PACKAGE + ".Database;");
+            out.println("import " + DATABASE_PACKAGE + ".TableSchema;");
+            out.println();
+        }
+        out.println("/**");
+        out.println(" * The schema of the " + table + " table, whose rows are " + row +
+                " objects.");
+        out.println(" * Generated by SchemaProcessor from the annotations of " + row +
+                ", do not edit.");
+        out.println(" */");
+        out.println("public final class " + schema + " implements TableSchema<" + row + "> {");
+        out.println();
+        out.println("    /** The single instance of the schema. */");
+        out.println("    public static final " + schema + " INSTANCE = new " + schema + "();");
+        out.println();
+        out.println("    /** The name of the table. */");
+        out.println("    public static final String TABLE = \"" + table + "\";");
+        for (ColumnField column : columns) {
+            out.println("    /** The name of the column of " + row + "." + column.field + ". */");
+            out.println("    public static final String " + column.constant + " = \"" +
+                    column.column + "\";");
+        }
+        out.println();
+
+        StringBuilder names = new StringBuilder();
+        StringBuilder constants = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            String separator = (i == 0) ? "" : ", ";
+            names.append(separator).append(columns.get(i).column);
+            constants.append(separator).append(columns.get(i).constant);
+            placeholders.append(separator).append('?');
+        }
+        out.println("    private static final String[] COLUMNS = {" + constants + "};");
+        out.println("    private static final String INSERT_SQL = \"INSERT INTO " + table + " (" +
+                names + ") VALUES (" + placeholders + ")\";");
+        out.println();
+        out.println("    private " + schema + "() {");
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public String getTableName() {");
+        out.println("        return TABLE;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public String[] getColumns() {");
+        out.println("        return COLUMNS.clone();");
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public Database.RowMapper<" + row + "> newRowMapper(Cursor cursor) {");
+        for (int i = 0; i < columns.size(); i++) {
+            out.println("        final int index" + i + " = cursor.getColumnIndexOrThrow(" +
+                    columns.get(i).constant + ");");
+        }
+        out.println();
+        out.println("        return new Database.RowMapper<" + row + ">() {");
+        out.println("            @Override");
+        out.println("            public " + row + " mapRow(Cursor cursor) {");
+        out.println("                return mapRow(cursor, null);");
+        out.println("            }");
+        out.println();
+        out.println("            @Override");
+        out.println("            public " + row + " mapRow(Cursor cursor, " + row + " reuse) {");
+        out.println("                " + row + " row = (reuse != null) ? reuse : new " + row +
+                "();");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnField column = columns.get(i);
+            out.println("                row." + column.field + " = cursor." +
+                    column.type.getter + "(index" + i + ");");
+        }
+        out.println("                return row;");
+        out.println("            }");
+        out.println("        };");
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public " + row + "[] newArray(int size) {");
+        out.println("        return new " + row + "[size];");
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public ContentValues toContentValues(" + row + " row) {");
+        out.println("        ContentValues values = new ContentValues();");
+        for (ColumnField column : columns) {
+            out.println("        values.put(" + column.constant + ", row." + column.field + ");");
+        }
+        out.println("        return values;");
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public String getInsertSql() {");
+        out.println("        return INSERT_SQL;");
+        out.println("    }");
+        out.println();
+
+        out.println("    @Override");
+        out.println("    public void bindInsert(SQLiteStatement statement, " + row + " row) {");
+        out.println("        statement.clearBindings();");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnField column = columns.get(i);
+            int position = i + 1;
+            String value = "row." + column.field;
+
+            // Strings may be null, which must be bound explicitly
+            if (column.type.isObject()) {
+                out.println("        String value" + position + " = " + value + ";");
+                out.println("        if (value" + position + " == null) {");
+                out.println("            statement.bindNull(" + position + ");");
+                out.println("        } else {");
+                out.println("            statement." + column.type.binder + "(" + position +
+                        ", value" + position + ");");
+                out.println("        }");
+            } else {
+                out.println("        statement." + column.type.binder + "(" + position + ", " +
+                        value + ");");
+            }
+        }
+        out.println("    }");
+        out.println("}");
+    }
+
+    // Converts a column name such as "lessonNumber" to a constant name such as "LESSON_NUMBER"
+    private static String toConstantName(String column) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < column.length(); i++) {
+            char c = column.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                c = '_';
+            } else if (Character.isUpperCase(c) && i > 0 &&
+                    Character.isLowerCase(column.charAt(i - 1))) {
+                name.append('_');
+            }
+            name.append(c);
+        }
+        if (name.length() == 0 || Character.isDigit(name.charAt(0))) {
+            name.insert(0, '_');
+        }
+        return name.toString().toUpperCase(Locale.US);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
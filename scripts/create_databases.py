@@ -1,14 +1,17 @@
 #!/usr/bin/python
 
+import json
 import sqlite3
 from argparse import ArgumentParser
 
 def parseArguments():
     parser = ArgumentParser(description="This is a script to create empty " +
         "tables with the appropiate schema for the Echo Explorer app. " +
-        "These are the Lesson, TutorialStep, and EvaluationStep tables." +
-        "If these tables already exist in the specified database, then " +
-        "this script has no effect")
+        "These are the Lesson, TutorialStep, EvaluationStep, and " +
+        "EvaluationOption tables. If these tables already exist in the " +
+        "specified database, then this script has no effect, except that " +
+        "response options still stored as JSON in EvaluationStep are moved " +
+        "to the EvaluationOption table.")
     parser.add_argument("db_path", type=str, metavar="$DB_PATH", help="This " +
         "is the path to the database file that we want to add the tables to. " +
         "If this file does not exist, then it is created.")
@@ -47,25 +50,74 @@ def createTutorialStepTable(cursor):
 
     cursor.execute(create_command)
 
-def createEvaluationStepTable(cursor):
+def createEvaluationStepTable(cursor, table="EvaluationStep"):
     create_command = (
-    """CREATE TABLE IF NOT EXISTS EvaluationStep(
+    """CREATE TABLE IF NOT EXISTS %s(
         _id                 INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT,
         lessonNumber        INTEGER NOT NULL,
         stepNumber          INTEGER NOT NULL DEFAULT -1,
         directionsAudioFile TEXT NOT NULL,
         echoAudioFile       TEXT NOT NULL,
         textDirections      TEXT NOT NULL,
-        responseOptions     BLOB NOT NULL,
         correctResponse     INTEGER NOT NULL,
 
         UNIQUE(lessonNumber, stepNumber),
         FOREIGN KEY(lessonNumber) REFERENCES Lesson(lessonNumber)
             ON DELETE CASCADE ON UPDATE CASCADE);
+        """ % table)
+
+    cursor.execute(create_command)
+
+def createEvaluationOptionTable(cursor):
+    # The response options of each evaluation step, one row per option, in
+    # the order they are listed; correctResponse is an optionNumber
+    create_command = (
+    """CREATE TABLE IF NOT EXISTS EvaluationOption(
+        _id                 INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT,
+        lessonNumber        INTEGER NOT NULL,
+        stepNumber          INTEGER NOT NULL,
+        optionNumber        INTEGER NOT NULL,
+        text                TEXT NOT NULL,
+
+        UNIQUE(lessonNumber, stepNumber, optionNumber),
+        FOREIGN KEY(lessonNumber, stepNumber)
+            REFERENCES EvaluationStep(lessonNumber, stepNumber)
+            ON DELETE CASCADE ON UPDATE CASCADE);
         """)
 
     cursor.execute(create_command)
 
+def migrateResponseOptions(cursor):
+    # Older databases store the options of each step as a JSON array in the
+    # responseOptions column of EvaluationStep. Move them to EvaluationOption,
+    # then rebuild EvaluationStep without the column. The rebuilt table is
+    # renamed rather than the old one, so references to EvaluationStep in
+    # other tables are left alone.
+    columns = [row[1] for row in cursor.execute(
+        "PRAGMA table_info(EvaluationStep)")]
+    if "responseOptions" not in columns:
+        return
+
+    steps = cursor.execute("SELECT lessonNumber, stepNumber, responseOptions " +
+        "FROM EvaluationStep").fetchall()
+    for (lessonNumber, stepNumber, responseOptions) in steps:
+        options = json.loads(responseOptions)
+        if not isinstance(options, list):
+            raise ValueError(("The response options of lesson %d, step %d " +
+                "are not a JSON array") % (lessonNumber, stepNumber))
+        for (optionNumber, text) in enumerate(options):
+            cursor.execute("INSERT INTO EvaluationOption(lessonNumber, " +
+                "stepNumber, optionNumber, text) VALUES (?, ?, ?, ?)",
+                (lessonNumber, stepNumber, optionNumber, text))
+
+    kept = ", ".join(column for column in columns
+        if column != "responseOptions")
+    createEvaluationStepTable(cursor, "EvaluationStepNew")
+    cursor.execute("INSERT INTO EvaluationStepNew(%s) SELECT %s " % (kept, kept) +
+        "FROM EvaluationStep")
+    cursor.execute("DROP TABLE EvaluationStep")
+    cursor.execute("ALTER TABLE EvaluationStepNew RENAME TO EvaluationStep")
+
 def main():
     db_path = parseArguments()
 
@@ -75,6 +127,11 @@ def main():
     createLessonTable(cursor)
     createTutorialStepTable(cursor)
     createEvaluationStepTable(cursor)
+    createEvaluationOptionTable(cursor)
+    migrateResponseOptions(cursor)
+
+    db_conn.commit()
+    db_conn.close()
 
 
 if (__name__ == '__main__'):